@@ -0,0 +1,133 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A command for a vehicle, as sent to the .../command/{name} endpoint.
+ * The static methods create the commands TeslaAPI supports, the constructor can be used to send any other command.
+ * Commands are immutable and not bound to a vehicle, so they can be reused.
+ * 
+ * Example usage:
+ * 		teslaAPI.doCommand(vehicleId, Command.setTemps(21.0, 21.0));
+ */
+public class Command {
+	final public String name;
+	final public String bodyContent;
+	final public List<String> okReasons; // reasons besides "already_set" that do not indicate a failure
+	
+	/**
+	 * @param name e.g. "flash_lights"
+	 * @param bodyContent JSON, or "" if the command has no parameters
+	 * @param okReasons reasons, besides "already_set", that do not indicate a failure
+	 */
+	public Command(String name, String bodyContent, String... okReasons) {
+		if (name == null || bodyContent == null) {
+			throw new IllegalArgumentException("Cannot be null");
+		}
+		this.name = name;
+		this.bodyContent = bodyContent;
+		this.okReasons = Collections.unmodifiableList(Arrays.asList(okReasons.clone()));
+	}
+	
+	/**
+	 * @return true if the reason does not indicate a failure
+	 */
+	boolean isOkReason(String reason) {
+		return reason.equals("already_set") || okReasons.contains(reason);
+	}
+
+	public static Command flashLights() {
+		return new Command("flash_lights", "");
+	}
+
+	public static Command startAutoConditioning() {
+		return new Command("auto_conditioning_start", "");
+	}
+
+	public static Command stopAutoConditioning() {
+		return new Command("auto_conditioning_stop", "");
+	}
+
+	/**
+	 * The parameters are always in celsius, regardless of the region the car is in or the display settings of the car.
+	 */
+	public static Command setTemps(double driverTemp, double passengerTemp) {
+		return new Command("set_temps", String.format(Locale.US, "{\"driver_temp\" : \"%3.1f\", \"passenger_temp\" : \"%3.1f\"}",driverTemp, passengerTemp));
+	}
+
+	public static Command setPreconditioningMax(boolean on) {
+		return new Command("set_preconditioning_max", String.format(Locale.US, "{\"on\" : \"%s\"}","" + on));
+	}
+
+	public static Command startCharging() {
+		return new Command("charge_start", "", "charging", "complete");
+	}
+
+	public static Command stopCharging() {
+		return new Command("charge_stop", "");
+	}
+
+	public static Command setChargeLimit(int percent) {
+		if (percent < 1 || percent > 100) {
+            throw new IllegalArgumentException("Percent must be between 0 and 100");
+		}
+		return new Command("set_charge_limit", String.format("{\"percent\" : \"%d\"}", percent));
+	}
+
+	public static Command lockDoors() {
+		return new Command("door_lock", "");
+	}
+
+	public static Command unlockDoors() {
+		return new Command("door_unlock", "");
+	}
+
+	public static Command setSentryMode(boolean state) {
+		return new Command("set_sentry_mode", String.format("{\"on\" : \"%s\"}", "" + state));
+	}
+
+	public static Command windowControl(String command) {
+		return new Command("window_control", String.format("{\"command\" : \"%s\"}", "" + command));
+	}
+
+	public static Command sunRoofControl(String state) {
+		return new Command("sun_roof_control", String.format("{\"state\" : \"%s\"}", "" + state));
+	}
+
+	public static Command heatSeat(int heater, int level) {
+		return new Command("remote_seat_heater_request", String.format("{\"heater\" : \"%s\", \"level\" : \"%s\"}", "" + heater, "" + level));
+	}
+
+	public static Command heatSteeringWheel(boolean state) {
+		return new Command("remote_steering_wheel_heater_request", String.format("{\"on\" : \"%s\"}", "" + state));
+	}
+	
+	@Override
+	public String toString() {
+		return super.toString()
+			 + ", name=" + name
+		     + ", bodyContent=" + bodyContent;
+	}
+}
@@ -0,0 +1,87 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An ordered set of commands for one vehicle, executed by TeslaAPI.doCommands.
+ * 
+ * - The vehicle is woken up at most once, before the first command. If that fails, no command is sent.
+ * - The commands are grouped into stages: the stages are executed one after the other, the commands within a stage concurrently (multiplexed over the same HTTP/2 connection).
+ *   So only put commands in the same stage that do not depend on each other.
+ * - A failing command does not stop the pipeline, every command gets its own result.
+ * 
+ * Example usage:
+ * 		CommandPipeline commandPipeline = new CommandPipeline()
+ * 			.wakeUp(60_000, 5_000)
+ * 			.stage(Command.setTemps(21.0, 21.0))
+ * 			.stage(Command.startAutoConditioning(), Command.heatSeat(0, 3), Command.heatSeat(1, 3), Command.heatSteeringWheel(true));
+ * 		List<CommandResult> commandResults = teslaAPI.doCommands(vehicleId, commandPipeline);
+ */
+public class CommandPipeline {
+	
+	final List<List<Command>> stages = new ArrayList<>();
+	int wakeUpRetryDurationInMS = -1;
+	int wakeUpSleepTimeInMS = 0;
+	
+	/**
+	 * Wake up the vehicle (see TeslaAPI.wakeUp with retry) before sending the first command.
+	 * @param sleepTimeInMS the time between the attempts, must be positive, otherwise the attempts would hammer the API for the whole retry duration
+	 */
+	public CommandPipeline wakeUp(int retryDurationInMS, int sleepTimeInMS) {
+		if (retryDurationInMS < 0) {
+            throw new IllegalArgumentException("The retry duration cannot be negative");
+		}
+		if (sleepTimeInMS <= 0) {
+            throw new IllegalArgumentException("The sleep time must be positive");
+		}
+		this.wakeUpRetryDurationInMS = retryDurationInMS;
+		this.wakeUpSleepTimeInMS = sleepTimeInMS;
+		return this;
+	}
+	
+	/**
+	 * Add commands that are executed concurrently, after the commands of the previous stage have completed.
+	 */
+	public CommandPipeline stage(Command... commands) {
+		if (commands.length == 0) {
+            throw new IllegalArgumentException("A stage needs at least one command");
+		}
+		stages.add(Collections.unmodifiableList(new ArrayList<>(Arrays.asList(commands))));
+		return this;
+	}
+	
+	/**
+	 * @return all commands in the order they were added
+	 */
+	public List<Command> getCommands() {
+		List<Command> commands = new ArrayList<>();
+		stages.forEach(commands::addAll);
+		return commands;
+	}
+	
+	boolean isWakeUp() {
+		return wakeUpRetryDurationInMS >= 0;
+	}
+}
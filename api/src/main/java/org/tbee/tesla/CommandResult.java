@@ -0,0 +1,47 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+/**
+ * The outcome of one command in a CommandPipeline.
+ */
+public class CommandResult {
+	final public Command command;
+	final public String reason; // null if everything is ok, or an error string if not
+	
+	/**
+	 * 
+	 */
+	public CommandResult(Command command, String reason) {
+		this.command = command;
+		this.reason = reason;
+	}
+	
+	public boolean isOk() {
+		return reason == null;
+	}
+	
+	@Override
+	public String toString() {
+		return super.toString()
+			 + ", command=" + command.name
+		     + ", reason=" + reason;
+	}
+}
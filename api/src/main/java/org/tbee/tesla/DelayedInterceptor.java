@@ -0,0 +1,56 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+
+/*
+ * A transport interceptor that delays requests, e.g. TeslaFaultInjection's latency.
+ * 
+ * An asynchronous call waits for the delay on the transport's scheduler, before it is handed to OkHttp's dispatcher (see TeslaRateLimiting), so the delay does not hold a dispatcher thread.
+ * Such a request carries the Delayed tag, the interceptor must not delay it again. Other (blocking) requests are delayed by the interceptor itself.
+ */
+interface DelayedInterceptor extends Interceptor {
+	
+	static final Delayed DELAYED = new Delayed();
+	
+	/*
+	 * Called before each attempt of an asynchronous call
+	 * @return how long to delay the request, 0 for not at all
+	 */
+	long delayInNanos(Request request);
+	
+	/*
+	 * @return true if the delay of the request has already been waited for
+	 */
+	static boolean isDelayed(Request request) {
+		return request.tag(Delayed.class) != null;
+	}
+	
+	/*
+	 * The tag of a request whose delay is waited for before it is sent
+	 */
+	static final class Delayed {
+		private Delayed() {
+		}
+	}
+}
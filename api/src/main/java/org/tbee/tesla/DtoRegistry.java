@@ -0,0 +1,97 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.tbee.tesla.dto.ChargeState;
+import org.tbee.tesla.dto.ClimateState;
+import org.tbee.tesla.dto.DriveState;
+import org.tbee.tesla.dto.GUISettings;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Maps the data_request endpoints to the factory that creates the DTO, so no reflection is needed to construct them (which also helps GraalVM native-image).
+ * The standard DTOs are registered out of the box, other endpoints can be added and then fetched using TeslaAPI.getState.
+ * 
+ * Example usage:
+ * 		DtoRegistry.register("vehicle_state", VehicleState.class, VehicleState::new);
+ * 		VehicleState vehicleState = teslaAPI.getState(vehicleId, "vehicle_state", VehicleState.class);
+ */
+public class DtoRegistry {
+	
+	static private final Map<String, Registration<?>> registrations = new ConcurrentHashMap<>();
+	static {
+		register("charge_state", ChargeState.class, ChargeState::new);
+		register("climate_state", ClimateState.class, ClimateState::new);
+		register("drive_state", DriveState.class, DriveState::new);
+		register("gui_settings", GUISettings.class, GUISettings::new);
+	}
+
+	/**
+	 * Register (or replace) the factory for an endpoint.
+	 * @param endpoint the last part of the data_request URL, e.g. "charge_state"
+	 * @param clazz the type of DTO the factory creates
+	 * @param factory creates the DTO from the JSON in the response
+	 */
+	public static <T> void register(String endpoint, Class<T> clazz, Function<JsonObject, T> factory) {
+		if (endpoint == null || clazz == null || factory == null) {
+			throw new IllegalArgumentException("Cannot be null");
+		}
+		registrations.put(endpoint, new Registration<>(clazz, factory));
+	}
+	
+	/**
+	 * @return true if a factory is registered for the endpoint 
+	 */
+	public static boolean isRegistered(String endpoint) {
+		return registrations.containsKey(endpoint);
+	}
+	
+	/* 
+	 * @throws IllegalArgumentException if nothing is registered, or it creates a different type
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> Function<JsonObject, T> factory(String endpoint, Class<T> clazz) {
+		Registration<?> registration = registrations.get(endpoint);
+		if (registration == null) {
+			throw new IllegalArgumentException("No DTO registered for endpoint " + endpoint);
+		}
+		if (!clazz.isAssignableFrom(registration.clazz)) {
+			throw new IllegalArgumentException("Endpoint " + endpoint + " creates " + registration.clazz.getName() + ", not " + clazz.getName());
+		}
+		return (Function<JsonObject, T>)registration.factory;
+	}
+	
+	/* */
+	static private class Registration<T> {
+		final Class<T> clazz;
+		final Function<JsonObject, T> factory;
+		
+		Registration(Class<T> clazz, Function<JsonObject, T> factory) {
+			this.clazz = clazz;
+			this.factory = factory;
+		}
+	}
+}
@@ -0,0 +1,442 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tbee.tesla.dto.Tokens;
+
+/**
+ * A TokenStore in a single file, that is safe for crashes and fast to load for many accounts.
+ * 
+ * - The file is an append only log of records; every record has a length and a CRC32 checksum.
+ *   A record that was half written during a crash fails the checksum, and it and anything after it is dropped on load.
+ * - On the first use the file is read once into an in memory index, after that loads are map lookups.
+ * - When the file contains more outdated than current records, it is compacted: the current records are written to a temporary file, which then atomically replaces the original.
+ *   The directory is forced to disk after the rename, so the replacement survives a crash as well.
+ * - Access is serialized with a ReentrantLock, not a monitor, so a virtual thread that is writing (and forcing) the file does not pin its carrier thread.
+ * - The file holds refresh tokens in plain text, so where the file system supports POSIX permissions, it is created readable and writable for the owner only.
+ * 
+ * Example usage:
+ * 		FileTokenStore fileTokenStore = new FileTokenStore(Paths.get("tokens.dat"));
+ * 		teslaAPI.setTokenStore(fileTokenStore, username);
+ */
+public class FileTokenStore implements TokenStore, AutoCloseable {
+	static final Logger logger = LoggerFactory.getLogger(FileTokenStore.class);
+	
+	static private final int MAGIC = 0x54545331; // TTS1
+	static private final byte TYPE_STORE = 1;
+	static private final byte TYPE_REMOVE = 2;
+	static private final int HEADER_SIZE = 4 + 4; // length + crc
+	static private final int MAX_RECORD_SIZE = 1024 * 1024;
+	static private final int MIN_RECORDS_BEFORE_COMPACTION = 1000;
+	
+	private final Path path;
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	// guarded by lock
+	private Map<String, Tokens> index = null; // null until loaded
+	private FileChannel fileChannel = null;
+	private int recordCount = 0;
+	
+	// Settings
+	private volatile boolean forceWrites = true;
+	
+	
+	/**
+	 * @param path the file, it is created if it does not exist
+	 */
+	public FileTokenStore(Path path) {
+		this.path = path;
+	}
+	
+	/**
+	 * If true (the default), every write is forced to disk before store or remove returns.
+	 * Without this, a crash of the operating system may lose the last writes (but never corrupts the file).
+	 */
+	public void setForceWrites(boolean v) {
+		forceWrites = v;
+	}
+	public boolean isForceWrites() {
+		return forceWrites;
+	}
+	
+	@Override
+	public Tokens load(String accountId) {
+		lock.lock();
+		try {
+			return index().get(accountId);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void store(String accountId, Tokens tokens) {
+		lock.lock();
+		try {
+			Map<String, Tokens> index = index();
+			append(encode(TYPE_STORE, accountId, tokens));
+			index.put(accountId, tokens);
+			compactIfOutdated();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void remove(String accountId) {
+		lock.lock();
+		try {
+			Map<String, Tokens> index = index();
+			if (index.containsKey(accountId)) {
+				append(encode(TYPE_REMOVE, accountId, null));
+				index.remove(accountId);
+				compactIfOutdated();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the number of accounts in the store
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return index().size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Close the file, the store reopens it when used again
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (fileChannel != null) {
+				try {
+					fileChannel.close();
+				}
+				catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				fileChannel = null;
+				index = null;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/*
+	 * Lazily load the file
+	 */
+	private Map<String, Tokens> index() {
+		if (index == null) {
+			try {
+				open();
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Cannot open token store " + path, e);
+			}
+		}
+		return index;
+	}
+	
+	/* */
+	private void open() throws IOException {
+		long startNanos = System.nanoTime();
+		Map<String, Tokens> index = new HashMap<>();
+		recordCount = 0;
+		long validLength = 0;
+		if (Files.exists(path)) {
+			try (
+				InputStream inputStream = new BufferedInputStream(Files.newInputStream(path), 64 * 1024);
+				DataInputStream dataInputStream = new DataInputStream(inputStream);
+			) {
+				if (dataInputStream.readInt() != MAGIC) {
+					throw new IOException("Not a token store: " + path);
+				}
+				validLength = 4;
+				byte[] payload;
+				while ((payload = readRecord(dataInputStream)) != null) {
+					decode(payload, index);
+					validLength += HEADER_SIZE + payload.length;
+					recordCount++;
+				}
+			}
+			catch (EOFException e) {
+				// empty file, will get a header below
+			}
+		}
+		
+		// Open for appending, dropping a partially written tail
+		fileChannel = FileChannel.open(path, Set.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE), ownerOnly());
+		if (validLength == 0) {
+			fileChannel.truncate(0);
+			fileChannel.write(ByteBuffer.allocate(4).putInt(0, MAGIC));
+			validLength = 4;
+		}
+		else if (fileChannel.size() > validLength) {
+			logger.warn("Token store {} has a corrupt or incomplete tail, dropping {} bytes", path, fileChannel.size() - validLength);
+			fileChannel.truncate(validLength);
+		}
+		fileChannel.position(validLength);
+		this.index = index;
+		logger.debug("Loaded token store {}: {} accounts from {} records in {}ms", path, index.size(), recordCount, (System.nanoTime() - startNanos) / 1_000_000);
+	}
+	
+	/*
+	 * @return the payload, or null if there is no (complete and valid) record
+	 */
+	static private byte[] readRecord(DataInputStream dataInputStream) throws IOException {
+		int length;
+		int crc;
+		try {
+			length = dataInputStream.readInt();
+			crc = dataInputStream.readInt();
+		}
+		catch (EOFException e) {
+			return null;
+		}
+		if (length <= 0 || length > MAX_RECORD_SIZE) {
+			return null;
+		}
+		byte[] payload = new byte[length];
+		try {
+			dataInputStream.readFully(payload);
+		}
+		catch (EOFException e) {
+			return null;
+		}
+		return (crc(payload) == crc ? payload : null);
+	}
+	
+	/* */
+	static private int crc(byte[] payload) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(payload);
+		return (int)crc32.getValue();
+	}
+	
+	/* */
+	static private byte[] encode(byte type, String accountId, Tokens tokens) {
+		try (
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(256);
+			DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+		) {
+			dataOutputStream.writeByte(type);
+			dataOutputStream.writeUTF(accountId);
+			if (type == TYPE_STORE) {
+				dataOutputStream.writeUTF(tokens.accessToken);
+				dataOutputStream.writeUTF(tokens.refreshToken);
+				dataOutputStream.writeLong(tokens.createdAt.toEpochMilli());
+				dataOutputStream.writeLong(tokens.expiresAt == null ? -1 : tokens.expiresIn);
+			}
+			dataOutputStream.flush();
+			return byteArrayOutputStream.toByteArray();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e); // cannot happen in memory
+		}
+	}
+	
+	/* */
+	static private void decode(byte[] payload, Map<String, Tokens> index) throws IOException {
+		DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = dataInputStream.readByte();
+		String accountId = dataInputStream.readUTF();
+		if (type == TYPE_REMOVE) {
+			index.remove(accountId);
+			return;
+		}
+		String accessToken = dataInputStream.readUTF();
+		String refreshToken = dataInputStream.readUTF();
+		Instant createdAt = Instant.ofEpochMilli(dataInputStream.readLong());
+		long expiresIn = dataInputStream.readLong();
+		index.put(accountId, expiresIn < 0 ? new Tokens(accessToken, refreshToken) : new Tokens(accessToken, refreshToken, createdAt, expiresIn));
+	}
+	
+	/*
+	 * A failed write is cut off again, so the records appended after it are not lost behind a corrupt one
+	 */
+	private void append(byte[] payload) {
+		long position = 0;
+		try {
+			position = fileChannel.position();
+			fileChannel.write(record(payload));
+			if (forceWrites) {
+				fileChannel.force(false);
+			}
+			recordCount++;
+		}
+		catch (IOException e) {
+			try {
+				fileChannel.truncate(position);
+				fileChannel.position(position);
+			}
+			catch (IOException e2) {
+				e.addSuppressed(e2);
+			}
+			throw new RuntimeException("Cannot write token store " + path, e);
+		}
+	}
+	
+	/*
+	 * Compact if most records are outdated. 
+	 * This is done after a record was written, so if compacting fails, the store still is complete and correct, only larger.
+	 */
+	private void compactIfOutdated() {
+		if (recordCount > MIN_RECORDS_BEFORE_COMPACTION && recordCount > 2 * index.size()) {
+			try {
+				compact();
+			}
+			catch (IOException e) {
+				logger.warn("Compacting token store " + path + " failed", e);
+			}
+		}
+	}
+	
+	/* */
+	static private ByteBuffer record(byte[] payload) {
+		ByteBuffer byteBuffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+		byteBuffer.putInt(payload.length);
+		byteBuffer.putInt(crc(payload));
+		byteBuffer.put(payload);
+		byteBuffer.flip();
+		return byteBuffer;
+	}
+	
+	/*
+	 * Write the current records to a temporary file and atomically replace the store with it 
+	 */
+	private void compact() throws IOException {
+		long startNanos = System.nanoTime();
+		Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.deleteIfExists(tmpPath); // so it is created with the permissions below
+		try (
+			FileChannel tmpFileChannel = FileChannel.open(tmpPath, Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), ownerOnly());
+			DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(tmpFileChannel), 64 * 1024));
+		) {
+			dataOutputStream.writeInt(MAGIC);
+			for (Map.Entry<String, Tokens> entry : index.entrySet()) {
+				ByteBuffer byteBuffer = record(encode(TYPE_STORE, entry.getKey(), entry.getValue()));
+				dataOutputStream.write(byteBuffer.array(), 0, byteBuffer.limit());
+			}
+			dataOutputStream.flush();
+			tmpFileChannel.force(true);
+		}
+		
+		// Some platforms cannot replace an open file. Whether the move succeeds or not, the file at path is a complete store afterwards, so it is reopened either way.
+		fileChannel.close();
+		try {
+			Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			Files.deleteIfExists(tmpPath);
+			reopen();
+			throw e;
+		}
+		reopen();
+		forceDirectory();
+		int oldRecordCount = recordCount;
+		recordCount = index.size();
+		logger.debug("Compacted token store {} from {} to {} records in {}ms", path, oldRecordCount, recordCount, (System.nanoTime() - startNanos) / 1_000_000);
+	}
+	
+	/*
+	 * If that fails as well, the store is reloaded from the file on the next use 
+	 */
+	private void reopen() throws IOException {
+		try {
+			fileChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			fileChannel.position(fileChannel.size());
+		}
+		catch (IOException e) {
+			fileChannel = null;
+			index = null;
+			throw e;
+		}
+	}
+	
+	/*
+	 * Make the rename durable: it is an entry in the directory, which is not forced together with the file.
+	 * Not all platforms can open a directory (e.g. Windows), there the rename is as durable as the platform makes it.
+	 */
+	private void forceDirectory() {
+		Path directory = path.toAbsolutePath().getParent();
+		if (directory == null) {
+			return;
+		}
+		try (
+			FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ);
+		) {
+			directoryChannel.force(true);
+		}
+		catch (IOException e) {
+			logger.debug("Cannot force directory {} of token store {}: {}", directory, path, e.toString());
+		}
+	}
+	
+	/*
+	 * The file holds refresh tokens, so only the owner can read it
+	 */
+	private FileAttribute<?>[] ownerOnly() {
+		if (!path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			return new FileAttribute<?>[0];
+		}
+		return new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")) };
+	}
+}
@@ -0,0 +1,267 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the same command to many vehicles, possibly spread over many accounts, with a limit on the number of commands in flight.
+ * 
+ * - There is a global limit, and a limit per account (TeslaAPI instance), so one account with many vehicles does not starve the others.
+ *   Accounts are served round robin.
+ * - No thread is held waiting, the commands are sent using the async API.
+ * - The results are passed to the listener as they complete, the returned statistics are available when all have completed.
+ * 
+ * Example usage:
+ * 		FleetExecutor fleetExecutor = new FleetExecutor(100, 5);
+ * 		List<FleetExecutor.Target> targets = ...; // new FleetExecutor.Target(teslaAPI, vehicleId)
+ * 		FleetStatistics fleetStatistics = fleetExecutor.execute(targets, Command.setSentryMode(true), (result) -> System.out.println(result));
+ */
+public class FleetExecutor {
+	static final Logger logger = LoggerFactory.getLogger(FleetExecutor.class);
+	
+	private final int maxConcurrent;
+	private final int maxConcurrentPerAccount;
+
+	/**
+	 * @param maxConcurrent the maximum number of commands in flight
+	 * @param maxConcurrentPerAccount the maximum number of commands in flight for one account
+	 */
+	public FleetExecutor(int maxConcurrent, int maxConcurrentPerAccount) {
+		if (maxConcurrent < 1 || maxConcurrentPerAccount < 1) {
+            throw new IllegalArgumentException("Limits must be at least 1");
+		}
+		this.maxConcurrent = maxConcurrent;
+		this.maxConcurrentPerAccount = maxConcurrentPerAccount;
+	}
+	
+	/**
+	 * A vehicle in an account
+	 */
+	public static class Target {
+		final public TeslaAPI teslaAPI;
+		final public String vehicleId;
+		
+		public Target(TeslaAPI teslaAPI, String vehicleId) {
+			this.teslaAPI = teslaAPI;
+			this.vehicleId = vehicleId;
+		}
+		
+		@Override
+		public String toString() {
+			return super.toString()
+				 + ", account=" + teslaAPI.getLogPrefix()
+			     + ", vehicleId=" + vehicleId;
+		}
+	}
+	
+	/**
+	 * The outcome of the command for one target
+	 */
+	public static class Result {
+		final public Target target;
+		final public CommandResult commandResult;
+		final public long latencyInNanos;
+		
+		public Result(Target target, CommandResult commandResult, long latencyInNanos) {
+			this.target = target;
+			this.commandResult = commandResult;
+			this.latencyInNanos = latencyInNanos;
+		}
+		
+		public boolean isOk() {
+			return commandResult.isOk();
+		}
+		
+		@Override
+		public String toString() {
+			return super.toString()
+				 + ", vehicleId=" + target.vehicleId
+			     + ", reason=" + commandResult.reason
+			     + ", latencyInNanos=" + latencyInNanos;
+		}
+	}
+
+	/**
+	 * Send the command to all targets and wait until all have completed.
+	 * @param resultListener called for every result as it completes (on an HTTP thread, so keep it short), may be null
+	 */
+	public FleetStatistics execute(Collection<Target> targets, Command command, Consumer<Result> resultListener) {
+		try {
+			return executeAsync(targets, command, resultListener).get();
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Send the command to all targets.
+	 * Cancelling the returned future stops sending the command to targets that have not been started yet.
+	 * @param resultListener called for every result as it completes (on an HTTP thread, so keep it short), may be null
+	 */
+	public CompletableFuture<FleetStatistics> executeAsync(Collection<Target> targets, Command command, Consumer<Result> resultListener) {
+		return new Run(targets, command, resultListener).start();
+	}
+	
+	/*
+	 * The state of one execute
+	 */
+	private class Run {
+		private final Command command;
+		private final Consumer<Result> resultListener;
+		private final CompletableFuture<FleetStatistics> future = new CompletableFuture<>();
+		
+		// guarded by this
+		private final Map<TeslaAPI, Deque<Target>> pendingPerAccount = new LinkedHashMap<>();
+		private final Map<TeslaAPI, Integer> runningPerAccount = new HashMap<>();
+		private final Deque<TeslaAPI> readyAccounts = new ArrayDeque<>(); // accounts with pending targets and room to run them, round robin
+		private final Set<TeslaAPI> readyAccountsSet = new HashSet<>();
+		private int running = 0;
+		private int pending = 0;
+		private final List<Result> results = new ArrayList<>();
+		private final AtomicInteger dispatchRequestCount = new AtomicInteger(0);
+		
+		Run(Collection<Target> targets, Command command, Consumer<Result> resultListener) {
+			this.command = command;
+			this.resultListener = resultListener;
+			for (Target target : targets) {
+				pendingPerAccount.computeIfAbsent(target.teslaAPI, (teslaAPI) -> new ArrayDeque<>()).add(target);
+				pending++;
+			}
+			for (TeslaAPI teslaAPI : pendingPerAccount.keySet()) {
+				makeReady(teslaAPI);
+			}
+		}
+		
+		/* */
+		CompletableFuture<FleetStatistics> start() {
+			if (pending == 0) {
+				future.complete(new FleetStatistics(results));
+			}
+			dispatch();
+			return future;
+		}
+		
+		/*
+		 * Start as many targets as the limits allow.
+		 * A command may complete synchronously (e.g. when the tokens are missing), which calls dispatch again.
+		 * To not recurse on such a failing fleet, only one thread dispatches, other calls just make it do another round.  
+		 */
+		private void dispatch() {
+			if (dispatchRequestCount.getAndIncrement() > 0) {
+				return;
+			}
+			do {
+				dispatchAll();
+			} while (dispatchRequestCount.decrementAndGet() > 0);
+		}
+		
+		/* */
+		private void dispatchAll() {
+			while (true) {
+				Target target;
+				synchronized (this) {
+					if (future.isDone() || running >= maxConcurrent || readyAccounts.isEmpty()) {
+						return;
+					}
+					TeslaAPI teslaAPI = readyAccounts.poll();
+					readyAccountsSet.remove(teslaAPI);
+					target = pendingPerAccount.get(teslaAPI).poll();
+					pending--;
+					running++;
+					runningPerAccount.merge(teslaAPI, 1, Integer::sum);
+					makeReady(teslaAPI); // to the back of the line
+				}
+				send(target);
+			}
+		}
+		
+		/* */
+		private void makeReady(TeslaAPI teslaAPI) {
+			if (!pendingPerAccount.get(teslaAPI).isEmpty() 
+			 && runningPerAccount.getOrDefault(teslaAPI, 0) < maxConcurrentPerAccount 
+			 && readyAccountsSet.add(teslaAPI)) {
+				readyAccounts.add(teslaAPI);
+			}
+		}
+		
+		/* */
+		private void send(Target target) {
+			long startNanos = System.nanoTime();
+			CompletableFuture<String> commandFuture;
+			try {
+				commandFuture = target.teslaAPI.doCommandAsync(target.vehicleId, command);
+			}
+			catch (RuntimeException e) {
+				commandFuture = CompletableFuture.failedFuture(e);
+			}
+			commandFuture.whenComplete((reason, throwable) -> {
+				CommandResult commandResult = new CommandResult(command, throwable == null ? reason : "request failed: " + throwable.getMessage());
+				completed(new Result(target, commandResult, System.nanoTime() - startNanos));
+			});
+		}
+		
+		/* */
+		private void completed(Result result) {
+			if (resultListener != null) {
+				try {
+					resultListener.accept(result);
+				}
+				catch (RuntimeException e) {
+					logger.warn("Result listener failed for " + result, e);
+				}
+			}
+			
+			boolean done;
+			synchronized (this) {
+				results.add(result);
+				running--;
+				runningPerAccount.merge(result.target.teslaAPI, -1, Integer::sum);
+				makeReady(result.target.teslaAPI);
+				done = (running == 0 && (pending == 0 || future.isCancelled()));
+			}
+			if (done) {
+				future.complete(new FleetStatistics(results));
+			}
+			dispatch();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Aggregated results of a FleetExecutor run
+ */
+public class FleetStatistics {
+	final public int successCount;
+	final public int failureCount;
+	private final long[] sortedLatenciesInNanos;
+	
+	/**
+	 * 
+	 */
+	FleetStatistics(Collection<FleetExecutor.Result> results) {
+		int successCount = 0;
+		long[] latenciesInNanos = new long[results.size()];
+		int idx = 0;
+		for (FleetExecutor.Result result : results) {
+			if (result.isOk()) {
+				successCount++;
+			}
+			latenciesInNanos[idx++] = result.latencyInNanos;
+		}
+		Arrays.sort(latenciesInNanos);
+		this.successCount = successCount;
+		this.failureCount = results.size() - successCount;
+		this.sortedLatenciesInNanos = latenciesInNanos;
+	}
+	
+	public int getCount() {
+		return sortedLatenciesInNanos.length;
+	}
+	
+	/**
+	 * @param percentile between 0.0 and 100.0, e.g. 99.0
+	 * @return the latency below which the given percentage of the commands completed, 0 if there were none
+	 */
+	public long getLatencyPercentileInNanos(double percentile) {
+		if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0.0 and 100.0");
+		}
+		if (sortedLatenciesInNanos.length == 0) {
+			return 0;
+		}
+		int idx = (int)Math.ceil(percentile / 100.0 * sortedLatenciesInNanos.length) - 1;
+		return sortedLatenciesInNanos[Math.max(0, idx)];
+	}
+	
+	public long getMaxLatencyInNanos() {
+		return sortedLatenciesInNanos.length == 0 ? 0 : sortedLatenciesInNanos[sortedLatenciesInNanos.length - 1];
+	}
+	
+	public long getMeanLatencyInNanos() {
+		return sortedLatenciesInNanos.length == 0 ? 0 : (long)Arrays.stream(sortedLatenciesInNanos).average().getAsDouble();
+	}
+	
+	@Override
+	public String toString() {
+		return super.toString()
+			 + ", success=" + successCount
+		     + ", failure=" + failureCount
+		     + ", p50=" + getLatencyPercentileInNanos(50.0) / 1_000_000 + "ms"
+		     + ", p99=" + getLatencyPercentileInNanos(99.0) / 1_000_000 + "ms"
+		     + ", max=" + getMaxLatencyInNanos() / 1_000_000 + "ms";
+	}
+}
@@ -0,0 +1,199 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the metrics in memory, per endpoint, for reading by the application (e.g. to log them periodically, or expose them to a monitoring system).
+ * Recording does not lock, and after the first request for an endpoint it does not allocate.
+ * One instance can be shared by many TeslaAPI instances, to aggregate over all accounts.
+ * 
+ * Example usage:
+ * 		InMemoryTeslaMetrics metrics = new InMemoryTeslaMetrics();
+ * 		teslaAPI1.setMetrics(metrics);
+ * 		teslaAPI2.setMetrics(metrics);
+ * 		...
+ * 		for (String endpoint : metrics.getEndpoints()) {
+ * 			System.out.println(endpoint + ": " + metrics.getLatencyHistogram(endpoint) + ", errors=" + metrics.getErrorCount(endpoint));
+ * 		}
+ */
+public class InMemoryTeslaMetrics implements TeslaMetrics {
+	
+	static final int MAX_STATUS = 600;
+	
+	private final Map<String, EndpointMetrics> endpointMetrics = new ConcurrentHashMap<>();
+	private final Map<String, EndpointMetrics> loginMetrics = new ConcurrentHashMap<>();
+	private final LatencyHistogram wakeUpHistogram = new LatencyHistogram();
+	private final LongAdder wakeUpAttemptCount = new LongAdder();
+	private final LongAdder wakeUpFailureCount = new LongAdder();
+
+	/*
+	 * The metrics of one endpoint
+	 */
+	static private class EndpointMetrics {
+		final LatencyHistogram latencyHistogram = new LatencyHistogram();
+		final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS); // 0 is used for no response
+		final LongAdder retryCount = new LongAdder();
+		final LongAdder bytesOut = new LongAdder();
+		final LongAdder bytesIn = new LongAdder();
+	}
+	
+	@Override
+	public void requestCompleted(String endpoint, int status, long latencyInNanos, long bytesOut, long bytesIn) {
+		EndpointMetrics endpointMetrics = endpointMetrics(this.endpointMetrics, endpoint);
+		endpointMetrics.latencyHistogram.record(latencyInNanos);
+		endpointMetrics.statusCounts.incrementAndGet(status < 0 || status >= MAX_STATUS ? 0 : status);
+		endpointMetrics.bytesOut.add(bytesOut);
+		endpointMetrics.bytesIn.add(bytesIn);
+	}
+	
+	@Override
+	public void requestRetried(String endpoint, int status) {
+		endpointMetrics(this.endpointMetrics, endpoint).retryCount.increment();
+	}
+	
+	@Override
+	public void wakeUpCompleted(long durationInNanos, int attempts, boolean awake) {
+		wakeUpHistogram.record(durationInNanos);
+		wakeUpAttemptCount.add(attempts);
+		if (!awake) {
+			wakeUpFailureCount.increment();
+		}
+	}
+	
+	@Override
+	public void loginCompleted(String flow, long durationInNanos, boolean success) {
+		EndpointMetrics endpointMetrics = endpointMetrics(this.loginMetrics, flow);
+		endpointMetrics.latencyHistogram.record(durationInNanos);
+		endpointMetrics.statusCounts.incrementAndGet(success ? 200 : 0);
+	}
+	
+	/* get first, so only the first request of an endpoint allocates */
+	static private EndpointMetrics endpointMetrics(Map<String, EndpointMetrics> map, String endpoint) {
+		EndpointMetrics endpointMetrics = map.get(endpoint);
+		return (endpointMetrics != null ? endpointMetrics : map.computeIfAbsent(endpoint, (e) -> new EndpointMetrics()));
+	}
+	
+	/**
+	 * @return the endpoints that have been used, sorted
+	 */
+	public Set<String> getEndpoints() {
+		return new TreeSet<>(endpointMetrics.keySet());
+	}
+	
+	/**
+	 * @return the latencies of the requests to the endpoint; an empty histogram if there were none
+	 */
+	public LatencyHistogram getLatencyHistogram(String endpoint) {
+		EndpointMetrics endpointMetrics = this.endpointMetrics.get(endpoint);
+		return endpointMetrics == null ? new LatencyHistogram() : endpointMetrics.latencyHistogram;
+	}
+	
+	/**
+	 * @param status a HTTP status, or 0 for the requests that did not receive a response
+	 * @return the number of requests to the endpoint that completed with the status
+	 */
+	public long getStatusCount(String endpoint, int status) {
+		EndpointMetrics endpointMetrics = this.endpointMetrics.get(endpoint);
+		return endpointMetrics == null || status < 0 || status >= MAX_STATUS ? 0 : endpointMetrics.statusCounts.get(status);
+	}
+	
+	/**
+	 * @return the number of requests to the endpoint that did not complete with a 2xx status, including those without a response
+	 */
+	public long getErrorCount(String endpoint) {
+		EndpointMetrics endpointMetrics = this.endpointMetrics.get(endpoint);
+		if (endpointMetrics == null) {
+			return 0;
+		}
+		long errorCount = 0;
+		for (int status = 0; status < MAX_STATUS; status++) {
+			if (status < 200 || status >= 300) {
+				errorCount += endpointMetrics.statusCounts.get(status);
+			}
+		}
+		return errorCount;
+	}
+	
+	/**
+	 * @return the number of retries (HTTP 429 or 401) of requests to the endpoint
+	 */
+	public long getRetryCount(String endpoint) {
+		EndpointMetrics endpointMetrics = this.endpointMetrics.get(endpoint);
+		return endpointMetrics == null ? 0 : endpointMetrics.retryCount.sum();
+	}
+	
+	public long getBytesOut(String endpoint) {
+		EndpointMetrics endpointMetrics = this.endpointMetrics.get(endpoint);
+		return endpointMetrics == null ? 0 : endpointMetrics.bytesOut.sum();
+	}
+	
+	public long getBytesIn(String endpoint) {
+		EndpointMetrics endpointMetrics = this.endpointMetrics.get(endpoint);
+		return endpointMetrics == null ? 0 : endpointMetrics.bytesIn.sum();
+	}
+	
+	/**
+	 * @return the durations of the wake ups with retry
+	 */
+	public LatencyHistogram getWakeUpHistogram() {
+		return wakeUpHistogram;
+	}
+	
+	/**
+	 * @return the total number of attempts of all wake ups
+	 */
+	public long getWakeUpAttemptCount() {
+		return wakeUpAttemptCount.sum();
+	}
+	
+	/**
+	 * @return the number of wake ups that did not wake the vehicle
+	 */
+	public long getWakeUpFailureCount() {
+		return wakeUpFailureCount.sum();
+	}
+	
+	/**
+	 * @param flow see TeslaMetrics.loginCompleted
+	 * @return the durations of the login flow
+	 */
+	public LatencyHistogram getLoginHistogram(String flow) {
+		EndpointMetrics endpointMetrics = this.loginMetrics.get(flow);
+		return endpointMetrics == null ? new LatencyHistogram() : endpointMetrics.latencyHistogram;
+	}
+	
+	/**
+	 * @param flow see TeslaMetrics.loginCompleted
+	 * @return the number of failed logins
+	 */
+	public long getLoginFailureCount(String flow) {
+		EndpointMetrics endpointMetrics = this.loginMetrics.get(flow);
+		return endpointMetrics == null ? 0 : endpointMetrics.statusCounts.get(0);
+	}
+}
@@ -0,0 +1,165 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of latencies, with log-linear buckets: the range is split in powers of 2, and every power in 32 linear sub buckets.
+ * This keeps the relative error of a percentile below about 3% over the whole range (from nanoseconds to hours), in a fixed amount of memory.
+ * 
+ * - Recording does not allocate and does not lock, it increments a few atomic counters.
+ * - Reading while recording is allowed, the result is then a (slightly inconsistent) approximation.
+ * - When the recorded latencies come from a load generator that sends at a fixed interval, use record(value, expectedInterval) to correct for coordinated omission:
+ *   the requests that should have been sent while a slow request blocked the sender are added as well.
+ */
+public class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong(0);
+
+	/**
+	 * @param valueInNanos negative values are recorded as 0
+	 */
+	public void record(long valueInNanos) {
+		long value = Math.max(0, valueInNanos);
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		if (value > max.get()) {
+			max.accumulateAndGet(value, Math::max);
+		}
+	}
+
+	/**
+	 * Record a latency, and if it is larger than the expected interval, also the latencies of the requests that would have been sent in the mean time. 
+	 * @param valueInNanos
+	 * @param expectedIntervalInNanos the interval at which requests are sent, 0 or less disables the correction
+	 */
+	public void record(long valueInNanos, long expectedIntervalInNanos) {
+		record(valueInNanos);
+		if (expectedIntervalInNanos <= 0) {
+			return;
+		}
+		for (long missingValue = valueInNanos - expectedIntervalInNanos; missingValue >= expectedIntervalInNanos; missingValue -= expectedIntervalInNanos) {
+			record(missingValue);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @param percentile between 0.0 and 100.0, e.g. 99.0
+	 * @return the latency below which the given percentage of the recorded values is (the upper bound of the bucket), 0 if there were none
+	 */
+	public long getPercentileInNanos(double percentile) {
+		if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0.0 and 100.0");
+		}
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * total));
+		long cumulative = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			cumulative += counts.get(i);
+			if (cumulative >= rank) {
+				return Math.min(upperBound(i), getMaxInNanos());
+			}
+		}
+		return getMaxInNanos();
+	}
+
+	public long getMaxInNanos() {
+		return max.get();
+	}
+
+	public long getMeanInNanos() {
+		long count = this.count.sum();
+		return count == 0 ? 0 : sum.sum() / count;
+	}
+
+	/**
+	 * Start over, e.g. after a warm up. Values recorded concurrently with the reset may or may not be included afterwards.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+	/*
+	 * Values below SUB_BUCKET_COUNT have their own bucket, above that every power of 2 has SUB_BUCKET_COUNT buckets
+	 */
+	static int index(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int)value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BUCKET_BITS
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int)(value >>> shift) - SUB_BUCKET_COUNT;
+		return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/*
+	 * The highest value that ends up in the bucket
+	 */
+	static long upperBound(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+		int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+		long lowerBound = (long)(SUB_BUCKET_COUNT + subBucket) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString()
+		     + ", count=" + getCount()
+		     + ", p50=" + getPercentileInNanos(50.0) / 1_000_000 + "ms"
+		     + ", p99=" + getPercentileInNanos(99.0) / 1_000_000 + "ms"
+		     + ", p999=" + getPercentileInNanos(99.9) / 1_000_000 + "ms"
+		     + ", max=" + getMaxInNanos() / 1_000_000 + "ms";
+	}
+}
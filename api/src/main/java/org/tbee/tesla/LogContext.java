@@ -0,0 +1,121 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.MDC;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/*
+ * The logging context (slf4j's MDC) of the thread that makes a call, so it can be applied on the threads that handle the call.
+ * OkHttp's dispatcher threads and the transport's scheduler are shared by all callers, so their MDC would otherwise be empty or, worse, from another call.
+ * The context is captured per call and travels with the request as a tag, it is never stored in the TeslaAPI instance.
+ *
+ * Example usage:
+ * 		MDC.put("account", username); // on the caller's thread
+ * 		teslaAPI.getChargeStateAsync(vehicleId); // all logging of this call, also of the interceptors and the response handling, includes account
+ */
+final class LogContext {
+
+	static final String MDC_VEHICLE_ID = "teslaVehicleId";
+
+	private final Map<String, String> contextMap; // null if empty
+
+	/*
+	 * 
+	 */
+	private LogContext(Map<String, String> contextMap) {
+		this.contextMap = (contextMap == null || contextMap.isEmpty() ? null : contextMap);
+	}
+
+	/*
+	 * Capture the MDC of the current thread
+	 */
+	static LogContext capture() {
+		return new LogContext(MDC.getCopyOfContextMap());
+	}
+
+	/*
+	 * Capture the MDC of the current thread, plus the vehicle id if the request is for a vehicle
+	 */
+	static LogContext capture(Request request) {
+		Map<String, String> contextMap = MDC.getCopyOfContextMap();
+		String vehicleId = TeslaHttpLogging.vehicleId(request);
+		if (!vehicleId.isEmpty()) {
+			contextMap = (contextMap == null ? new HashMap<>() : contextMap);
+			contextMap.put(MDC_VEHICLE_ID, vehicleId);
+		}
+		return new LogContext(contextMap);
+	}
+
+	/*
+	 * Apply this context to the current thread, until the returned scope is closed, which restores what was there before.
+	 */
+	Scope apply() {
+		Map<String, String> previousContextMap = MDC.getCopyOfContextMap();
+		setContextMap(contextMap);
+		return () -> setContextMap(previousContextMap);
+	}
+
+	/* */
+	static private void setContextMap(Map<String, String> contextMap) {
+		if (contextMap == null || contextMap.isEmpty()) {
+			MDC.clear();
+		}
+		else {
+			MDC.setContextMap(contextMap);
+		}
+	}
+
+	/*
+	 * A try-with-resources scope that does not throw a checked exception
+	 */
+	interface Scope extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+	/*
+	 * The first application interceptor: it applies the context of the request on the dispatcher thread, so the other interceptors (rate limiting, logging, authentication) log with it.
+	 */
+	static final Interceptor INTERCEPTOR = new Interceptor() {
+		@Override
+		public Response intercept(Chain chain) throws IOException {
+			Request request = chain.request();
+			LogContext logContext = request.tag(LogContext.class);
+			if (logContext == null) {
+				return chain.proceed(request);
+			}
+			try (
+				Scope scope = logContext.apply();
+			) {
+				return chain.proceed(request);
+			}
+		}
+	};
+}
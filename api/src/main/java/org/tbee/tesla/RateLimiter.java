@@ -0,0 +1,178 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket: permits are added at a fixed rate, up to a maximum (the burst), and a request takes one permit or waits until one is available.
+ * Waiting requests are served in order of arrival.
+ * 
+ * The limiter adapts to throttling by the server (HTTP 429): 
+ * - it pauses until the server's Retry-After has passed,
+ * - it halves the rate, and slowly increases it again (1% of the configured rate per successful request) up to the configured rate.
+ * An unlimited limiter (the default) only pauses.
+ */
+public class RateLimiter {
+	
+	static final double MIN_RATE = 0.01; // one request per 100 seconds
+	
+	// Settings, guarded by this
+	private double rate = Double.POSITIVE_INFINITY;
+	private int burst = 1;
+	
+	// State, guarded by this
+	private double currentRate = Double.POSITIVE_INFINITY;
+	private long theoreticalArrivalNanos = System.nanoTime();
+	private long pausedUntilNanos = System.nanoTime();
+	
+	// Statistics
+	private final AtomicInteger queueLength = new AtomicInteger(0);
+	private final AtomicLong throttleEventCount = new AtomicLong(0);
+
+	
+	/**
+	 * @param permitsPerSecond the number of requests per second, Double.POSITIVE_INFINITY for unlimited
+	 * @param burst the number of requests that may be sent at once after a quiet period 
+	 */
+	public synchronized void setRate(double permitsPerSecond, int burst) {
+		if (!(permitsPerSecond >= MIN_RATE) || burst < 1) {
+            throw new IllegalArgumentException("Rate must be at least " + MIN_RATE + " and burst at least 1");
+		}
+		this.rate = permitsPerSecond;
+		this.burst = burst;
+		this.currentRate = permitsPerSecond;
+	}
+	
+	/**
+	 * @return the configured rate
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+	
+	public synchronized int getBurst() {
+		return burst;
+	}
+	
+	/**
+	 * @return the rate after adapting to throttling by the server
+	 */
+	public synchronized double getCurrentRate() {
+		return currentRate;
+	}
+	
+	/**
+	 * @return the number of requests waiting for a permit
+	 */
+	public int getQueueLength() {
+		return queueLength.get();
+	}
+	
+	/**
+	 * @return the number of times the server throttled (HTTP 429)
+	 */
+	public long getThrottleEventCount() {
+		return throttleEventCount.get();
+	}
+	
+	/*
+	 * Wait until a permit is available
+	 */
+	void acquire() throws InterruptedException {
+		long waitNanos = reserve(System.nanoTime());
+		if (waitNanos <= 0) {
+			return;
+		}
+		queueLength.incrementAndGet();
+		try {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+		finally {
+			queueLength.decrementAndGet();
+		}
+	}
+	
+	/*
+	 * Run the task when a permit is available, without holding a thread while waiting
+	 * @return the scheduled task, to pass to cancel, or null if the task was run right away
+	 */
+	ScheduledFuture<?> acquire(ScheduledExecutorService scheduler, Runnable task) {
+		long waitNanos = reserve(System.nanoTime());
+		if (waitNanos <= 0) {
+			task.run();
+			return null;
+		}
+		queueLength.incrementAndGet();
+		return scheduler.schedule(() -> {
+			queueLength.decrementAndGet();
+			task.run();
+		}, waitNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	/*
+	 * Cancel a task that is waiting for a permit (the permit is not returned)
+	 */
+	void cancel(ScheduledFuture<?> scheduledFuture) {
+		if (scheduledFuture.cancel(false)) {
+			queueLength.decrementAndGet();
+		}
+	}
+	
+	/*
+	 * Reserve the next permit (GCRA)
+	 * @return how long to wait before the permit may be used
+	 */
+	synchronized long reserve(long nowNanos) {
+		long earliestNanos = Math.max(nowNanos, pausedUntilNanos);
+		if (currentRate == Double.POSITIVE_INFINITY) {
+			return earliestNanos - nowNanos;
+		}
+		long intervalNanos = (long)(1_000_000_000L / currentRate);
+		long startNanos = Math.max(earliestNanos, theoreticalArrivalNanos - (burst - 1) * intervalNanos);
+		theoreticalArrivalNanos = Math.max(theoreticalArrivalNanos, startNanos) + intervalNanos;
+		return startNanos - nowNanos;
+	}
+	
+	/*
+	 * The server throttled
+	 * @param retryAfterNanos how long the server asked to wait
+	 */
+	synchronized void throttled(long nowNanos, long retryAfterNanos) {
+		throttleEventCount.incrementAndGet();
+		pausedUntilNanos = Math.max(pausedUntilNanos, nowNanos + retryAfterNanos);
+		if (currentRate != Double.POSITIVE_INFINITY) {
+			currentRate = Math.max(MIN_RATE, currentRate / 2.0);
+		}
+	}
+	
+	/*
+	 * The server accepted a request
+	 */
+	synchronized void succeeded() {
+		if (currentRate < rate) {
+			currentRate = Math.min(rate, currentRate + rate / 100.0);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * The owner API wraps everything in {"response": ...}.
+ * These methods read straight from the response body's stream: there is no intermediate String of the body, and no JSON tree of the wrapper. 
+ * Only the JsonObject that the DTO keeps is build.
+ */
+class ResponseParser {
+	
+	static final String RESPONSE = "response";
+	
+	/**
+	 * {"response":{...}}
+	 */
+	static <T> T parseObject(ResponseBody responseBody, Function<JsonObject, T> factory) throws IOException {
+		try (
+			JsonReader jsonReader = new JsonReader(reader(responseBody));
+		) {
+			moveToResponse(jsonReader);
+			return factory.apply(JsonParser.parseReader(jsonReader).getAsJsonObject());
+		}
+	}
+	
+	/**
+	 * {"response":[{...}, {...}]}
+	 */
+	static <T> List<T> parseArray(ResponseBody responseBody, Function<JsonObject, T> factory) throws IOException {
+		try (
+			JsonReader jsonReader = new JsonReader(reader(responseBody));
+		) {
+			moveToResponse(jsonReader);
+			List<T> list = new ArrayList<>();
+			jsonReader.beginArray();
+			while (jsonReader.hasNext()) {
+				list.add(factory.apply(JsonParser.parseReader(jsonReader).getAsJsonObject()));
+			}
+			jsonReader.endArray();
+			return list;
+		}
+	}
+	
+	/**
+	 * {"response":{"result": true, "reason": ""}}
+	 */
+	static CommandResponse parseCommandResponse(ResponseBody responseBody) throws IOException {
+		try (
+			JsonReader jsonReader = new JsonReader(reader(responseBody));
+		) {
+			moveToResponse(jsonReader);
+			boolean result = false;
+			String reason = null;
+			jsonReader.beginObject();
+			while (jsonReader.hasNext()) {
+				String name = jsonReader.nextName();
+				if ("result".equals(name) && jsonReader.peek() != JsonToken.NULL) {
+					result = jsonReader.nextBoolean();
+				}
+				else if ("reason".equals(name) && jsonReader.peek() != JsonToken.NULL) {
+					reason = jsonReader.nextString();
+				}
+				else {
+					jsonReader.skipValue();
+				}
+			}
+			return new CommandResponse(result, reason);
+		}
+	}
+	static class CommandResponse {
+		final boolean result;
+		final String reason;
+		
+		CommandResponse(boolean result, String reason) {
+			this.result = result;
+			this.reason = reason;
+		}
+	}
+	
+	/*
+	 * charStream() wraps the body in an InputStreamReader, which allocates an 8k buffer per call; more than the body itself usually is.
+	 * The owner API uses UTF-8, so decode straight from the buffered source instead.
+	 */
+	static private Reader reader(ResponseBody responseBody) {
+		MediaType contentType = responseBody.contentType();
+		Charset charset = (contentType == null ? StandardCharsets.UTF_8 : contentType.charset(StandardCharsets.UTF_8));
+		if (!StandardCharsets.UTF_8.equals(charset)) {
+			return responseBody.charStream();
+		}
+		return new Utf8SourceReader(responseBody.source());
+	}
+	static class Utf8SourceReader extends Reader {
+		private final BufferedSource source;
+		private int pendingLowSurrogate = -1;
+		
+		Utf8SourceReader(BufferedSource source) {
+			this.source = source;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			int cnt = 0;
+			if (pendingLowSurrogate >= 0) {
+				cbuf[off + cnt++] = (char)pendingLowSurrogate;
+				pendingLowSurrogate = -1;
+			}
+			
+			// block for the first character only, after that take what is already buffered
+			while (cnt < len && (cnt == 0 || source.getBuffer().size() > 0) && !source.exhausted()) {
+				int codePoint = source.readUtf8CodePoint();
+				if (Character.isBmpCodePoint(codePoint)) {
+					cbuf[off + cnt++] = (char)codePoint;
+				}
+				else {
+					cbuf[off + cnt++] = Character.highSurrogate(codePoint);
+					if (cnt < len) {
+						cbuf[off + cnt++] = Character.lowSurrogate(codePoint);
+					}
+					else {
+						pendingLowSurrogate = Character.lowSurrogate(codePoint);
+					}
+				}
+			}
+			return (cnt == 0 ? -1 : cnt);
+		}
+
+		@Override
+		public void close() throws IOException {
+			source.close();
+		}
+	}
+	
+	/*
+	 * Skip everything until the value of "response"
+	 */
+	static private void moveToResponse(JsonReader jsonReader) throws IOException {
+		jsonReader.beginObject();
+		while (jsonReader.hasNext()) {
+			if (RESPONSE.equals(jsonReader.nextName())) {
+				return;
+			}
+			jsonReader.skipValue();
+		}
+		throw new IOException("No '" + RESPONSE + "' in the body");
+	}
+}
@@ -0,0 +1,148 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * Coalesces concurrent identical calls: while a call for a key is in flight, callers for the same key join it instead of starting their own.
+ * Once the call completes, the next caller starts a new one; results are not remembered (that is what StateCache is for).
+ * 
+ * Every caller gets its own future, so one caller cancelling does not affect the others. 
+ * Only when all callers of a flight have cancelled, the call itself is cancelled.
+ */
+class SingleFlight<K, V> {
+	
+	private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+	private final AtomicLong joinedCount = new AtomicLong();
+
+	/*
+	 * @param call starts the actual call, only invoked if no call for the key is in flight
+	 */
+	CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+		while (true) {
+			
+			// Join an existing flight
+			Flight<V> flight = flights.get(key);
+			if (flight != null) {
+				CompletableFuture<V> future = flight.join();
+				if (future != null) {
+					joinedCount.incrementAndGet();
+					return future;
+				}
+				flights.remove(key, flight); // all its callers have left, do not join a cancelled flight 
+				continue;
+			}
+			
+			// Start a new flight
+			Flight<V> newFlight = new Flight<>();
+			if (flights.putIfAbsent(key, newFlight) != null) {
+				continue; // someone else was faster
+			}
+			CompletableFuture<V> future = newFlight.join();
+			try {
+				newFlight.start(call.get());
+			}
+			catch (RuntimeException e) {
+				newFlight.result.completeExceptionally(e);
+			}
+			newFlight.result.whenComplete((v, t) -> flights.remove(key, newFlight));
+			return future;
+		}
+	}
+	
+	/*
+	 * @return the number of calls that were saved by joining an in flight call
+	 */
+	long getJoinedCount() {
+		return joinedCount.get();
+	}
+	
+	/*
+	 * @return the number of calls in flight
+	 */
+	int size() {
+		return flights.size();
+	}
+	
+	/* */
+	static private class Flight<V> {
+		final CompletableFuture<V> result = new CompletableFuture<>();
+		final AtomicInteger callerCount = new AtomicInteger(0);
+		volatile CompletableFuture<V> call = null;
+		
+		/*
+		 * @return the future for the caller, or null if the flight was cancelled
+		 */
+		CompletableFuture<V> join() {
+			if (callerCount.getAndUpdate(c -> c < 0 ? c : c + 1) < 0) {
+				return null;
+			}
+			CompletableFuture<V> future = new CompletableFuture<>();
+			result.whenComplete((v, t) -> {
+				if (t == null) {
+					future.complete(v);
+				}
+				else {
+					future.completeExceptionally(t);
+				}
+			});
+			future.whenComplete((v, t) -> {
+				if (future.isCancelled()) {
+					leave();
+				}
+			});
+			return future;
+		}
+		
+		/* */
+		private void leave() {
+			if (callerCount.updateAndGet(c -> c == 1 ? -1 : c - 1) < 0) {
+				result.cancel(false);
+				CompletableFuture<V> call = this.call;
+				if (call != null) {
+					call.cancel(false);
+				}
+			}
+		}
+		
+		/* */
+		void start(CompletableFuture<V> call) {
+			this.call = call;
+			call.whenComplete((v, t) -> {
+				if (t == null) {
+					result.complete(v);
+				}
+				else {
+					result.completeExceptionally(t);
+				}
+			});
+			if (result.isCancelled()) {
+				call.cancel(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+
+/**
+ * An opt-in cache for the states (data_request endpoints) of the vehicles of one TeslaAPI, with a time-to-live per endpoint.
+ * Endpoints without a TTL are not cached. 
+ * The cache is bounded; when it is full, the least recently used entries are evicted.
+ * 
+ * Commands do not invalidate the cache, a state that a command changes (e.g. climate_state after set_temps) is returned from the cache until its TTL expires.
+ * Use a TTL that fits how the state is used, or invalidate explicitly.
+ * 
+ * Example usage:
+ * 		StateCache stateCache = new StateCache(10_000);
+ * 		stateCache.setTtl("gui_settings", Duration.ofHours(6));
+ * 		stateCache.setTtl("drive_state", Duration.ofSeconds(5));
+ * 		teslaAPI.setStateCache(stateCache);
+ */
+public class StateCache {
+	
+	private final Cache<Key, Entry> cache;
+	private final LongSupplier nanoClock;
+	private final Map<String, Long> ttlNanosPerEndpoint = new ConcurrentHashMap<>();
+	
+	// Statistics
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	
+	/**
+	 * @param maximumSize the maximum number of states (vehicles x endpoints) to keep
+	 */
+	public StateCache(long maximumSize) {
+		this(maximumSize, System::nanoTime);
+	}
+	
+	/* for testing */
+	StateCache(long maximumSize, LongSupplier nanoClock) {
+		this.nanoClock = nanoClock;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.removalListener((notification) -> {
+					if (notification.getCause() == RemovalCause.SIZE) {
+						evictionCount.incrementAndGet();
+					}
+				})
+				.build();
+	}
+	
+	/**
+	 * @param endpoint the data_request endpoint, e.g. "gui_settings"
+	 * @param ttl how long a fetched state may be used, null or zero disables caching of the endpoint
+	 */
+	public void setTtl(String endpoint, Duration ttl) {
+		if (ttl == null || ttl.isZero() || ttl.isNegative()) {
+			ttlNanosPerEndpoint.remove(endpoint);
+			invalidateEndpoint(endpoint);
+		}
+		else {
+			ttlNanosPerEndpoint.put(endpoint, ttl.toNanos());
+		}
+	}
+	public Duration getTtl(String endpoint) {
+		Long ttlNanos = ttlNanosPerEndpoint.get(endpoint);
+		return (ttlNanos == null ? Duration.ZERO : Duration.ofNanos(ttlNanos));
+	}
+	
+	/**
+	 * Remove all cached states of a vehicle
+	 */
+	public void invalidate(String vehicleId) {
+		cache.asMap().keySet().removeIf(key -> key.vehicleId.equals(vehicleId));
+	}
+	
+	/**
+	 * Remove a cached state of a vehicle
+	 */
+	public void invalidate(String vehicleId, String endpoint) {
+		cache.invalidate(new Key(vehicleId, endpoint));
+	}
+	
+	/**
+	 * Remove a state for all vehicles
+	 */
+	public void invalidateEndpoint(String endpoint) {
+		cache.asMap().keySet().removeIf(key -> key.endpoint.equals(endpoint));
+	}
+	
+	/**
+	 * Remove everything
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+	
+	public long getHitCount() {
+		return hitCount.get();
+	}
+	
+	public long getMissCount() {
+		return missCount.get();
+	}
+	
+	/**
+	 * @return the number of entries that were removed because the cache was full
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+	
+	public long size() {
+		return cache.size();
+	}
+	
+	/*
+	 * @return true if the endpoint has a TTL
+	 */
+	boolean isCached(String endpoint) {
+		return ttlNanosPerEndpoint.containsKey(endpoint);
+	}
+	
+	/*
+	 * @return the cached state, or null if it is not cached or expired
+	 */
+	<T> T get(String vehicleId, String endpoint, Class<T> clazz) {
+		if (!isCached(endpoint)) {
+			return null;
+		}
+		Key key = new Key(vehicleId, endpoint);
+		Entry entry = cache.getIfPresent(key);
+		if (entry == null || nanoClock.getAsLong() - entry.expiresAtNanos > 0 || !clazz.isInstance(entry.value)) {
+			if (entry != null) {
+				cache.asMap().remove(key, entry);
+			}
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return clazz.cast(entry.value);
+	}
+	
+	/*
+	 * Remember a state, if the endpoint has a TTL
+	 */
+	void put(String vehicleId, String endpoint, Object value) {
+		Long ttlNanos = ttlNanosPerEndpoint.get(endpoint);
+		if (ttlNanos == null || value == null) {
+			return;
+		}
+		cache.put(new Key(vehicleId, endpoint), new Entry(value, nanoClock.getAsLong() + ttlNanos));
+	}
+	
+	/* */
+	static private class Key {
+		final String vehicleId;
+		final String endpoint;
+		
+		Key(String vehicleId, String endpoint) {
+			this.vehicleId = vehicleId;
+			this.endpoint = endpoint;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key)o;
+			return vehicleId.equals(other.vehicleId) && endpoint.equals(other.endpoint);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(vehicleId, endpoint);
+		}
+	}
+	
+	/* */
+	static private class Entry {
+		final Object value;
+		final long expiresAtNanos;
+		
+		Entry(Object value, long expiresAtNanos) {
+			this.value = value;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+	}
+}
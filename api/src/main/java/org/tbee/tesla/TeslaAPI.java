@@ -25,35 +25,48 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.tbee.tesla.ResponseParser.CommandResponse;
 import org.tbee.tesla.dto.ChargeState;
 import org.tbee.tesla.dto.ClimateState;
 import org.tbee.tesla.dto.DriveState;
 import org.tbee.tesla.dto.GUISettings;
 import org.tbee.tesla.dto.Tokens;
 import org.tbee.tesla.dto.Vehicle;
+import org.tbee.tesla.dto.VehicleData;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
 import okhttp3.JavaNetCookieJar;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
-import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import okhttp3.ResponseBody;
-import okhttp3.logging.HttpLoggingInterceptor;
-import okhttp3.logging.HttpLoggingInterceptor.Level;
+import okhttp3.Route;
 
 /**
  * A Java implementation of Tesla REST API based on https://www.teslaapi.io/
@@ -65,6 +78,9 @@ import okhttp3.logging.HttpLoggingInterceptor.Level;
  * - The heatSeat method has an alias using enums for readability, because the seat numbering has a gap (0,1,2,4,5).
  * - Commands interpret the response's reason to see if it actually is not an error; like "already_set" when trying to set a temperature.
  * 
+ * Multiple instances can share one TeslaTransport, see there.
+ * Every call has a non blocking variant ending in Async, which returns a CompletableFuture. The blocking methods wait for those.
+ * 
  * Example usage:
  * 		TeslaAPI teslaAPI = new TeslaAPI();
  * 		teslaAPI.login(TESLA_USERNAME, TESLA_PASSWORD, TESLA_MFA_PASSCODE); // or use setTokens
@@ -72,58 +88,104 @@ import okhttp3.logging.HttpLoggingInterceptor.Level;
  * 		String vehicleId = vehicles.get(0).id;
  * 		teslaAPI.flashLights(vehicleId)
  */
-public class TeslaAPI {
+public class TeslaAPI implements AutoCloseable {
 	static final Logger logger = LoggerFactory.getLogger(TeslaAPI.class);
 	
     // API contants
-    static final String URL_BASE = "https://owner-api.teslamotors.com/";
+    public static final String URL_BASE = "https://owner-api.teslamotors.com/";
+    public static final String AUTH_URL_BASE = "https://auth.tesla.com/";
     static final String URL_VERSION = "api/1/";
     static final String URL_VEHICLES = "vehicles/";
 	static final String HEADER_AUTHORIZATION = "Authorization";
+	static final long TOKENS_REFRESH_RETRY_IN_MS = 60_000;
+	static final long TOKENS_REFRESH_FAILURE_REUSE_IN_MS = 10_000;
 
     // For HTTP
-	private final Gson gson = new Gson();
+	private final TeslaTransport transport;
 	private final OkHttpClient okHttpClient;
+	private final TeslaHttpLogging httpLogging;
+	private final TeslaRateLimiting rateLimiting;
 	private final MediaType JsonMediaType = MediaType.parse("application/json; charset=utf-8");
 	
 	// State
-	private Tokens tokens = null;
-	private String authorizationHeader = null;
+	private volatile Credentials credentials = null; // an immutable snapshot, replaced as a whole, so a request never sees a half updated state
+	private final ReentrantLock tokensLock = new ReentrantLock(); // not a monitor, so a virtual thread waiting for it is not pinned
+	private final ReentrantLock tokensStoreLock = new ReentrantLock(); // writing to the token store is blocking, so it has its own lock
+	private CompletableFuture<Tokens> tokensRefresh = null; // the refresh in flight, guarded by tokensLock
+	private CompletableFuture<Tokens> failedTokensRefresh = null; // the last refresh, if it failed, guarded by tokensLock
+	private Tokens failedTokensRefreshTokens = null; // the tokens it tried to refresh, guarded by tokensLock
+	private long failedTokensRefreshUntilNanos = 0; // until when its outcome is reused, guarded by tokensLock
+	private volatile Function<Tokens, Tokens> tokensRefresher;
+	private volatile Consumer<Tokens> tokensListener = null;
+	private volatile TokenStore tokenStore = null;
+	private volatile String tokenStoreAccountId = null;
+	private volatile double tokensRefreshFraction = 0.0;
+	private ScheduledFuture<?> tokensRefreshFuture = null; // guarded by tokensLock
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private volatile StateCache stateCache = null;
+	private final SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+	private volatile boolean coalesceRequests = true;
+	private volatile TeslaMetrics metrics = TeslaMetrics.NOOP;
 	
 	// For improved logging 
-	private String logPrefix = "";
+	private volatile String logPrefix = "";
 
 	
 	/**
-	 * 
+	 * Use a private transport
 	 */
 	public TeslaAPI() {
+		this(new TeslaTransport());
+		transport.close(); // this instance is the only user of the transport
+	}
+	
+	/**
+	 * Use a transport shared with other TeslaAPI instances, only the account specific state (tokens, cookies) is kept per instance.
+	 * The transport is retained until this instance is closed.
+	 * @param transport
+	 */
+	public TeslaAPI(TeslaTransport transport) {
+		this.transport = transport.retain();
+		
 		// Create a cookie store
 		CookieManager cookieManager = new CookieManager();
 		cookieManager.setCookiePolicy(CookiePolicy.ACCEPT_ALL);
 		
 		// Setup the logger
-		HttpLoggingInterceptor logging = new HttpLoggingInterceptor(new okhttp3.logging.HttpLoggingInterceptor.Logger() { // if we do not use a lambda here, the method log output will read "log(", which will make grepping easier if required
-			@Override
-			public void log(String s) {
-				logger.trace("{}{}", logPrefix, s);
-			}
-		});
-		logging.setLevel(Level.BODY);
+		httpLogging = new TeslaHttpLogging(logger, () -> logPrefix);
+		
+		// Setup the rate limiting
+		rateLimiting = new TeslaRateLimiting(transport, () -> metrics);
 		
-		// Initialize the HTTP client
-		okHttpClient = new OkHttpClient.Builder()
-			.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
-	        .connectTimeout(30, TimeUnit.SECONDS)
-	        .writeTimeout(30, TimeUnit.SECONDS)
-	        .readTimeout(2, TimeUnit.MINUTES)
+		// Derive the HTTP client from the transport, this shares the connection pool and dispatcher
+		OkHttpClient.Builder okHttpClientBuilder = transport.okHttpClient.newBuilder()
 	        .cookieJar(new JavaNetCookieJar(cookieManager))
-	        .addNetworkInterceptor(logging)
-	        .build();
+	        .addInterceptor(LogContext.INTERCEPTOR)
+	        .addInterceptor(new TeslaMetricsInterceptor(() -> metrics))
+	        .addInterceptor(rateLimiting)
+	        .addNetworkInterceptor(httpLogging)
+	        .authenticator(this::authenticate);
+		transport.interceptors.forEach(okHttpClientBuilder::addInterceptor);
+		okHttpClient = okHttpClientBuilder.build();
+		
+		// Refresh using Tesla's auth server
+		tokensRefresher = (tokens) -> new TeslaLoginHelper(okHttpClient, logPrefix, transport.urlBase, transport.authUrlBase).refreshTokens(tokens);
+	}
+	
+	/**
+	 * Release the transport, this instance should not be used anymore afterwards.
+	 */
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			scheduleTokensRefresh(null);
+			transport.release();
+		}
 	}
 
 	/**
-	 * 
+	 * The prefix applies to all logging of this instance. 
+	 * For context that differs per call (e.g. a request id), use slf4j's MDC: it is captured when a call is made and applied on the threads that process it. 
 	 * @param s
 	 */
 	public void setLogPrefix(String s) {
@@ -136,6 +198,69 @@ public class TeslaAPI {
 		return logPrefix;
 	}
 	
+	/**
+	 * The HTTP traffic is logged on TRACE level, this allows to configure it, like sampling the bodies.
+	 * @return
+	 */
+	public TeslaHttpLogging getHttpLogging() {
+		return httpLogging;
+	}
+	
+	/**
+	 * The requests can be rate limited per account and per host (see TeslaTransport), this allows to configure it and read its statistics.
+	 * By default there is no limit, but throttling by the server (HTTP 429) is honored.
+	 * @return
+	 */
+	public TeslaRateLimiting getRateLimiting() {
+		return rateLimiting;
+	}
+	
+	/**
+	 * Report latencies, status counts, retries, wake ups and logins, see TeslaMetrics and InMemoryTeslaMetrics.
+	 * @param metrics null disables reporting (the default)
+	 */
+	public void setMetrics(TeslaMetrics metrics) {
+		this.metrics = (metrics == null ? TeslaMetrics.NOOP : metrics);
+	}
+	public TeslaMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/* */
+	TeslaTransport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Optionally cache the states (charge_state, gui_settings, ...) of the vehicles, see StateCache.
+	 * @param stateCache null disables caching
+	 */
+	public void setStateCache(StateCache stateCache) {
+		this.stateCache = stateCache;
+	}
+	public StateCache getStateCache() {
+		return stateCache;
+	}
+	
+	/**
+	 * When enabled (the default), concurrent identical reads (getVehicles, getState, getVehicleData) are coalesced:
+	 * while a request is in flight, callers asking for the same join it and receive the same result, instead of sending their own request.
+	 * @param v
+	 */
+	public void setCoalesceRequests(boolean v) {
+		coalesceRequests = v;
+	}
+	public boolean isCoalesceRequests() {
+		return coalesceRequests;
+	}
+	
+	/**
+	 * @return the number of requests that were not sent because they joined an identical one in flight
+	 */
+	public long getCoalescedRequestCount() {
+		return singleFlight.getJoinedCount();
+	}
+	
 	            
 	/**
 	 * This semi-login only fetches and remembers the access and refresh tokens needed for further actions.
@@ -145,7 +270,7 @@ public class TeslaAPI {
 	 * @return 
 	 */
 	public Tokens login(String authorizationCode) {
-        Tokens tokens = new TeslaAuthLogin(okHttpClient, logPrefix).login(authorizationCode);
+        Tokens tokens = measureLogin("auth", () -> new TeslaAuthLogin(okHttpClient, logPrefix, transport.urlBase, transport.authUrlBase).login(authorizationCode));
 		setTokens(tokens);
 		return tokens;
 	}
@@ -159,7 +284,7 @@ public class TeslaAPI {
 	* @return 
 	*/
 	public Tokens login(String username, String password, String passcode) {
-		Tokens tokens = new TeslaMFALogin(okHttpClient, logPrefix).login(username, password, passcode);
+		Tokens tokens = measureLogin("mfa", () -> new TeslaMFALogin(okHttpClient, logPrefix, transport.urlBase, transport.authUrlBase).login(username, password, passcode));
 		setTokens(tokens);
 		return tokens;
 	}
@@ -173,19 +298,98 @@ public class TeslaAPI {
 	 * @return 
 	 */
 	public Tokens login(String username, String password) {
-        Tokens tokens = new TeslaNoMFALogin(okHttpClient, logPrefix).login(username, password);
+        Tokens tokens = measureLogin("nomfa", () -> new TeslaNoMFALogin(okHttpClient, logPrefix, transport.urlBase, transport.authUrlBase).login(username, password));
 		setTokens(tokens);
 		return tokens;
 	}
 	
+	/*
+	 * Report the duration of a login flow
+	 */
+	private Tokens measureLogin(String flow, Supplier<Tokens> login) {
+		long startNanos = System.nanoTime();
+		boolean success = false;
+		try {
+			Tokens tokens = login.get();
+			success = (tokens != null);
+			return tokens;
+		}
+		finally {
+			metrics.loginCompleted(flow, System.nanoTime() - startNanos, success);
+		}
+	}
+	
 	/**
 	 * This method fetches (and remembers/replaces) new access and refresh tokens
 	 * @return 
 	 */
 	public Tokens refreshTokens() {
-		Tokens tokens = new TeslaLoginHelper(okHttpClient, logPrefix).refreshTokens(this.tokens);
-		setTokens(tokens);
-		return tokens;
+		return await(refreshTokensAsync());
+	}
+	
+	/**
+	 * This method fetches (and remembers/replaces) new access and refresh tokens
+	 * @return 
+	 */
+	public CompletableFuture<Tokens> refreshTokensAsync() {
+		return refreshTokensAsync(null);
+	}
+	
+	/*
+	 * Only one refresh at a time: whoever asks for a refresh while one is in flight, gets the result of that one.
+	 * The refresh is blocking, so it runs on the transport's HTTP threads and no lock is held while it does.
+	 * @param expectedTokens if not null, only refresh if these are still the current tokens; if not someone else already refreshed
+	 */
+	CompletableFuture<Tokens> refreshTokensAsync(Tokens expectedTokens) {
+		return refreshTokensAsync(expectedTokens, true);
+	}
+	
+	/*
+	 * A failed refresh (e.g. a revoked refresh token) does not change the tokens, so everyone that expected those tokens would try again, one after the other.
+	 * Instead they get the same failure, until the tokens are replaced or TOKENS_REFRESH_FAILURE_REUSE_IN_MS has passed.
+	 * @param reuseFailure false to try again regardless, like the background refresh does on its retry schedule
+	 */
+	private CompletableFuture<Tokens> refreshTokensAsync(Tokens expectedTokens, boolean reuseFailure) {
+		if (this.credentials == null) {
+			return loadCredentialsAsync().thenCompose((credentials) -> refreshTokensAsync(expectedTokens, reuseFailure));
+		}
+		tokensLock.lock();
+		try {
+			Tokens currentTokens = this.credentials.tokens;
+			if (expectedTokens != null && expectedTokens != currentTokens) {
+				return CompletableFuture.completedFuture(currentTokens);
+			}
+			if (tokensRefresh == null && reuseFailure && expectedTokens != null && expectedTokens == failedTokensRefreshTokens && System.nanoTime() - failedTokensRefreshUntilNanos < 0) {
+				logger.debug("{}Refreshing these tokens failed moments ago, not trying again yet", logPrefix);
+				return failedTokensRefresh.copy();
+			}
+			if (tokensRefresh == null) {
+				CompletableFuture<Tokens> newTokensRefresh = supplyAsync(() -> {
+					Tokens tokens = measureLogin("refresh", () -> tokensRefresher.apply(currentTokens));
+					setTokens(tokens);
+					return tokens;
+				});
+				tokensRefresh = newTokensRefresh;
+				newTokensRefresh.whenComplete((tokens, throwable) -> {
+					tokensLock.lock();
+					try {
+						if (tokensRefresh == newTokensRefresh) {
+							tokensRefresh = null;
+						}
+						failedTokensRefresh = (throwable == null ? null : newTokensRefresh);
+						failedTokensRefreshTokens = (throwable == null ? null : currentTokens);
+						failedTokensRefreshUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TOKENS_REFRESH_FAILURE_REUSE_IN_MS);
+					}
+					finally {
+						tokensLock.unlock();
+					}
+				});
+			}
+			return tokensRefresh.copy(); // so a caller cancelling does not cancel the refresh for the others
+		}
+		finally {
+			tokensLock.unlock();
+		}
 	}
 	
 	/**
@@ -193,154 +397,482 @@ public class TeslaAPI {
 	 * @param tokens
 	 */
 	public void setTokens(Tokens tokens) {
-		this.tokens = tokens;
-	    logger.debug("using tokens: {}{}", logPrefix, tokens);
-		this.authorizationHeader = "Bearer " + tokens.accessToken;
+		if (tokens == null) {
+			throw new IllegalArgumentException("Cannot be null");
+		}
+		tokensLock.lock();
+		try {
+			this.credentials = new Credentials(tokens);
+		    logger.debug("using tokens: {}{}", logPrefix, tokens);
+		    scheduleTokensRefresh(tokens);
+		}
+		finally {
+			tokensLock.unlock();
+		}
+		
+		// Persist, unless newer tokens were set in the meantime, so concurrent setTokens cannot leave older tokens in the store
+		TokenStore tokenStore = this.tokenStore;
+		if (tokenStore != null) {
+			tokensStoreLock.lock();
+			try {
+				if (getTokens() == tokens) {
+					tokenStore.store(tokenStoreAccountId, tokens);
+				}
+			}
+			catch (RuntimeException e) {
+				logger.warn(logPrefix + "Storing tokens failed", e);
+			}
+			finally {
+				tokensStoreLock.unlock();
+			}
+		}
+		
+		// Notify
+		Consumer<Tokens> tokensListener = this.tokensListener;
+		if (tokensListener != null) {
+			try {
+				tokensListener.accept(tokens);
+			}
+			catch (RuntimeException e) {
+				logger.warn(logPrefix + "Tokens listener failed", e);
+			}
+		}
 	}
 	public Tokens getTokens() {
-		return tokens;
+		Credentials credentials = this.credentials;
+		return (credentials == null ? null : credentials.tokens);
+	}
+	
+	/**
+	 * Persist the tokens, so after a restart no login is needed.
+	 * If no tokens were set when the first request is made, they are loaded from the store.
+	 * Whenever the tokens are replaced (login, refresh, setTokens), they are written to the store.
+	 * @param tokenStore null disables the store
+	 * @param accountId the key of this account in the store, e.g. the username
+	 */
+	public void setTokenStore(TokenStore tokenStore, String accountId) {
+		if (tokenStore != null && accountId == null) {
+			throw new IllegalArgumentException("AccountId cannot be null");
+		}
+		this.tokenStoreAccountId = accountId;
+		this.tokenStore = tokenStore;
+	}
+	public TokenStore getTokenStore() {
+		return tokenStore;
+	}
+	
+	/*
+	 * The current credentials, lazily loaded from the store if there are none yet (without writing them back).
+	 * Loading is blocking, see credentialsAsync for how this is called.
+	 */
+	private Credentials loadCredentials() {
+		Credentials credentials = this.credentials;
+		if (credentials != null) {
+			return credentials;
+		}
+		tokensLock.lock();
+		try {
+			TokenStore tokenStore = this.tokenStore;
+			if (this.credentials == null && tokenStore != null) {
+				Tokens tokens = tokenStore.load(tokenStoreAccountId);
+				if (tokens != null) {
+					logger.debug("{}using tokens from store: {}", logPrefix, tokens);
+					this.credentials = new Credentials(tokens);
+					scheduleTokensRefresh(tokens);
+				}
+			}
+			return this.credentials;
+		}
+		finally {
+			tokensLock.unlock();
+		}
+	}
+	
+	/**
+	 * Is called whenever the tokens are replaced, by login, refresh, or setTokens, for example to persist them.
+	 * @param tokensListener null removes the listener
+	 */
+	public void setTokensListener(Consumer<Tokens> tokensListener) {
+		this.tokensListener = tokensListener;
+	}
+	
+	/**
+	 * Refresh the tokens in the background, when the given fraction of their lifetime has passed, so requests never have to wait for a refresh.
+	 * For example 0.8 refreshes tokens that are valid for 8 hours after 6.4 hours.
+	 * Tokens without an expiry are not refreshed. 
+	 * If the tokens expire nonetheless (e.g. because the refresh failed), the next request refreshes them before it is sent.
+	 * @param fraction between 0.0 (exclusive) and 1.0 (exclusive), or 0.0 to disable the background refresh (the default)
+	 */
+	public void setTokensRefreshFraction(double fraction) {
+		if (fraction < 0.0 || fraction >= 1.0) {
+            throw new IllegalArgumentException("Fraction must be between 0.0 and 1.0");
+		}
+		tokensLock.lock();
+		try {
+			this.tokensRefreshFraction = fraction;
+			scheduleTokensRefresh(getTokens());
+		}
+		finally {
+			tokensLock.unlock();
+		}
+	}
+	public double getTokensRefreshFraction() {
+		return tokensRefreshFraction;
+	}
+	
+	/* for testing */
+	void setTokensRefresher(Function<Tokens, Tokens> tokensRefresher) {
+		this.tokensRefresher = tokensRefresher;
+	}
+	
+	/*
+	 * (Re)schedule the background refresh for the tokens, or cancel it if tokens is null
+	 */
+	private void scheduleTokensRefresh(Tokens tokens) {
+		tokensLock.lock();
+		try {
+			if (tokensRefreshFuture != null) {
+				tokensRefreshFuture.cancel(false);
+				tokensRefreshFuture = null;
+			}
+			if (tokens == null || tokens.expiresAt == null || tokensRefreshFraction <= 0.0 || closed.get()) {
+				return;
+			}
+			long lifetimeInMS = Duration.between(tokens.createdAt, tokens.expiresAt).toMillis();
+			Instant refreshAt = tokens.createdAt.plusMillis((long)(lifetimeInMS * tokensRefreshFraction));
+			long delayInMS = Math.max(0, Duration.between(Instant.now(), refreshAt).toMillis());
+			logger.debug("{}Refreshing tokens in {}ms", logPrefix, delayInMS);
+			tokensRefreshFuture = transport.scheduler.schedule(() -> backgroundTokensRefresh(tokens), delayInMS, TimeUnit.MILLISECONDS);
+		}
+		finally {
+			tokensLock.unlock();
+		}
+	}
+	
+	/*
+	 * The refresh itself runs on the transport's HTTP threads, not on the scheduler
+	 */
+	private void backgroundTokensRefresh(Tokens tokens) {
+		CompletableFuture<Tokens> refreshFuture;
+		try {
+			refreshFuture = refreshTokensAsync(tokens, false);
+		}
+		catch (RuntimeException e) {
+			refreshFuture = CompletableFuture.failedFuture(e);
+		}
+		refreshFuture.whenComplete((refreshedTokens, throwable) -> {
+			if (throwable == null) {
+				return;
+			}
+			
+			// Try again in a minute, if that is before the tokens expire, otherwise the next request will try inline
+			long delayInMS = Math.min(TOKENS_REFRESH_RETRY_IN_MS, Math.max(0, Duration.between(Instant.now(), tokens.expiresAt).toMillis() / 2));
+			logger.warn(logPrefix + "Refreshing tokens failed, retry in " + delayInMS + "ms", unwrap(throwable));
+			tokensLock.lock();
+			try {
+				if (getTokens() == tokens && !closed.get()) {
+					tokensRefreshFuture = transport.scheduler.schedule(() -> backgroundTokensRefresh(tokens), delayInMS, TimeUnit.MILLISECONDS);
+				}
+			}
+			finally {
+				tokensLock.unlock();
+			}
+		});
 	}
 	
 	/**
 	 * @return 
 	 */
 	public List<Vehicle> getVehicles() {
-		doTokensCheck();
-		
-        try {
-            // Call the REST service
+		return await(getVehiclesAsync());
+	}
+	
+	/**
+	 * @return 
+	 */
+	public CompletableFuture<List<Vehicle>> getVehiclesAsync() {
+		return withCredentials((credentials) -> {
+	        // Call the REST service
 			Request request = new Request.Builder()
-	                .url(URL_BASE + URL_VERSION + URL_VEHICLES)
-	                .header(HEADER_AUTHORIZATION, authorizationHeader)
+	                .url(transport.urlBase + URL_VERSION + URL_VEHICLES)
+	                .header(HEADER_AUTHORIZATION, credentials.authorizationHeader)
 					.get()
 	                .build();
-			try (
-					Response response = okHttpClient.newCall(request).execute();
-					ResponseBody responseBody = response.body();
-			) {
+			return callCoalesced(request, (response) -> {
 				if (!response.isSuccessful()) {
 					return Collections.emptyList();
 				}
-	
+
 				// Parse the result and build a list of vehicles
 				// {"response":[{"id":242342423,"vehicle_id":123123123123,"vin":"12312312321","display_name":"Tarah", ...
-				String responseBodyContent = responseBody.string();
-				JsonObject responseJsonObject = gson.fromJson(responseBodyContent, JsonObject.class);
-				List<Vehicle> vehicles = new ArrayList<>();
-				responseJsonObject.get("response").getAsJsonArray().forEach((jsonElement) -> vehicles.add(new Vehicle(jsonElement.getAsJsonObject())));
-				return vehicles;
-			}
-        } 
-        catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+				return ResponseParser.parseArray(response.body(), Vehicle::new);
+			});
+		});
+	}
+	
+	/*
+	 * Same as getVehiclesAsync, but fails instead of returning an empty list, so the caller can tell an error from an account without vehicles.
+	 */
+	CompletableFuture<List<Vehicle>> getVehiclesOrFailAsync() {
+		return withCredentials((credentials) -> {
+	        // Call the REST service
+			Request request = new Request.Builder()
+	                .url(transport.urlBase + URL_VERSION + URL_VEHICLES)
+	                .header(HEADER_AUTHORIZATION, credentials.authorizationHeader)
+					.get()
+	                .build();
+			return call(request, (response) -> {
+				if (!response.isSuccessful()) {
+					throw new IOException("request failed with HTTP " + response.code());
+				}
+				return ResponseParser.parseArray(response.body(), Vehicle::new);
+			});
+		});
 	}
     
     /**
      * Get a vehicle by its VIN
+     * This fetches the vehicles list on every call, see VehicleRegistry for frequent lookups.
      * @param vin
      * @return
      */
     public Vehicle getVehicleByVIN(String vin) {
-        List<Vehicle> vehicles = getVehicles();
-        Vehicle vehicle = null;
-        for (Vehicle vehicleCandidate : vehicles) {
-        	if (vin.equals(vehicleCandidate.vin)) {
-        		vehicle = vehicleCandidate;
-        		break;
-        	}
-        }
-        return vehicle;
+        return await(getVehicleByVINAsync(vin));
+    }
+    
+    /**
+     * Get a vehicle by its VIN
+     * @param vin
+     * @return
+     */
+    public CompletableFuture<Vehicle> getVehicleByVINAsync(String vin) {
+        return getVehiclesAsync().thenApply((vehicles) -> {
+	        Vehicle vehicle = null;
+	        for (Vehicle vehicleCandidate : vehicles) {
+	        	if (vin.equals(vehicleCandidate.vin)) {
+	        		vehicle = vehicleCandidate;
+	        		break;
+	        	}
+	        }
+	        return vehicle;
+        });
     }
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String wakeUp(String vehicleId) {
-		doTokensCheck();
-		
-        try {
-            // Call the REST service
+		return await(wakeUpAsync(vehicleId));
+	}
+	
+	/**
+	 * @return null if everything is ok, or an error string if not
+	 */
+	public CompletableFuture<String> wakeUpAsync(String vehicleId) {
+		return withCredentials((credentials) -> {
+	        // Call the REST service
 			Request request = new Request.Builder()
-	                .url(URL_BASE + URL_VERSION + URL_VEHICLES + vehicleId + "/wake_up")
-	                .header(HEADER_AUTHORIZATION, authorizationHeader)
+	                .url(transport.urlBase + URL_VERSION + URL_VEHICLES + vehicleId + "/wake_up")
+	                .header(HEADER_AUTHORIZATION, credentials.authorizationHeader)
 					.post(RequestBody.create("", JsonMediaType))
 	                .build();
-			try (
-				Response response = okHttpClient.newCall(request).execute();
-			) {
+			return call(request, (response) -> {
 				return response.isSuccessful() ? null : "request failed with HTTP " + response.code();
-			}
-        } 
-        catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+			});
+		});
 	}
 	
 	/**
 	 * Combine wakeup and getDriveState to make sure the car really is wake, and retry until successful or the time expires.
+	 * This blocks until wakeUpAsync(vehicleId, retryDurationInMS, sleepTimeInMS) completes.
 	 * NOTE: If a drive state is returned, but it does not contain a shift state, and the time expires, P is assumed. 
 	 * @return the shiftState (because that often determines follow up actions; don't meddle with the car when it is driving)
 	 */
 	public String wakeUp(String vehicleId, int retryDurationInMS, int sleepTimeInMS) {
-    	long retryUntil = System.currentTimeMillis() + retryDurationInMS;
-    	
-    	// until we're satified
-    	int attemptCnt = 0;
-        while (true) {
-            long now = System.currentTimeMillis();
-        	
-        	// attempt wakeup
-            logger.debug("{}Waking up {}, attempt={}", logPrefix, vehicleId, ++attemptCnt);
-            String wakeUp = wakeUp(vehicleId);
-            
-            // get drive state
-            DriveState driveState = getDriveState(vehicleId);
-            String shiftState = (driveState == null ? null : driveState.shiftState);
-            logger.debug("{}Waking up {}, wakeUp={}, shiftState={}, driveState={}", logPrefix, vehicleId, wakeUp, shiftState, driveState);
-            
-            // If shift state is set, we're done
-			if (!isEmpty(shiftState)) {  
-	            logger.debug("{}Waking up {} succes, shiftState={}", logPrefix, vehicleId, shiftState);
-                return shiftState;
-            }
-			
-            // If we got a driveState, but the shift state is empty, and max time expired, assume 'P'
-			if (driveState != null && isEmpty(shiftState) && now > retryUntil) {
-                logger.debug("{}Waking up {}, shiftState is empty, maxTimeExpired => assuming P", logPrefix, vehicleId);
-                return "P";
-            }
-            
-            // if max time expired, exit
-			if (now > retryUntil) {
-		        logger.debug("{}Waking up {} failed", logPrefix, vehicleId);
-		        return null;
-            }
-
-			// Sleep 5 seconds
-            sleep(sleepTimeInMS);
+		return await(wakeUpAsync(vehicleId, retryDurationInMS, sleepTimeInMS));
+	}
+	
+	/**
+	 * The non blocking version of the wakeUp with retry: no thread is held while waiting for the next attempt.
+	 * Cancelling the returned future stops the attempts.
+	 * @return the shiftState (because that often determines follow up actions; don't meddle with the car when it is driving)
+	 */
+	public CompletableFuture<String> wakeUpAsync(String vehicleId, int retryDurationInMS, int sleepTimeInMS) {
+		return new WakeUpOperation(vehicleId, retryDurationInMS, sleepTimeInMS, sleepTimeInMS, false).start();
+	}
+	
+	/**
+	 * The non blocking version of the wakeUp with retry, with an exponential backoff between the attempts: 
+	 * the sleep time starts at initialBackoff and doubles every attempt until maxBackoff, with a random jitter so many vehicles woken at the same time do not retry in lockstep.
+	 * The attempts are scheduled on the transport, so a few threads can wake up hundreds of vehicles at the same time.
+	 * Cancelling the returned future stops the attempts.
+	 * NOTE: If a drive state is returned, but it does not contain a shift state, and the time expires, P is assumed. 
+	 * @return the shiftState (because that often determines follow up actions; don't meddle with the car when it is driving)
+	 */
+	public CompletableFuture<String> wakeUpAsync(String vehicleId, Duration retryDuration, Duration initialBackoff, Duration maxBackoff) {
+		if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0) {
+            throw new IllegalArgumentException("The backoff cannot be negative and the max backoff cannot be less than the initial");
+		}
+		return new WakeUpOperation(vehicleId, retryDuration.toMillis(), initialBackoff.toMillis(), maxBackoff.toMillis(), true).start();
+	}
+	
+	/*
+	 * The state of a non blocking wakeUp with retry
+	 */
+	private class WakeUpOperation {
+		private final String vehicleId;
+		private final long retryUntil;
+		private final long initialBackoffInMS;
+		private final long maxBackoffInMS;
+		private final boolean jitter;
+		private final CompletableFuture<String> result = new CompletableFuture<>();
+		private final LogContext logContext = LogContext.capture(); // the attempts run on the scheduler
+		private final long startNanos = System.nanoTime();
+		private volatile int attemptCnt = 0;
+		private volatile Future<?> pending = null; // the call or scheduled attempt to cancel when the result is cancelled
+		
+		WakeUpOperation(String vehicleId, long retryDurationInMS, long initialBackoffInMS, long maxBackoffInMS, boolean jitter) {
+			this.vehicleId = vehicleId;
+			this.retryUntil = System.currentTimeMillis() + retryDurationInMS;
+			this.initialBackoffInMS = initialBackoffInMS;
+			this.maxBackoffInMS = maxBackoffInMS;
+			this.jitter = jitter;
+			result.whenComplete((shiftState, throwable) -> {
+				Future<?> pending = this.pending;
+				if (result.isCancelled() && pending != null) {
+					pending.cancel(false);
+				}
+				if (!result.isCancelled()) {
+					metrics.wakeUpCompleted(System.nanoTime() - startNanos, attemptCnt, shiftState != null);
+				}
+			});
+		}
+		
+		CompletableFuture<String> start() {
+			attempt(1, initialBackoffInMS);
+			return result;
+		}
+		
+		/*
+		 * @param backoffInMS how long to sleep if this attempt is not successful
+		 */
+		private void attempt(int attemptCnt, long backoffInMS) {
+			try (
+				LogContext.Scope scope = logContext.apply();
+			) {
+				attemptInContext(attemptCnt, backoffInMS);
+			}
+		}
+		private void attemptInContext(int attemptCnt, long backoffInMS) {
+			if (result.isDone()) {
+				return;
+			}
+			this.attemptCnt = attemptCnt;
+			long now = System.currentTimeMillis();
+	        logger.debug("{}Waking up {}, attempt={}", logPrefix, vehicleId, attemptCnt);
+	        
+	        // attempt wakeup
+	        CompletableFuture<String> wakeUpFuture;
+	        try {
+	        	wakeUpFuture = track(wakeUpAsync(vehicleId));
+	        }
+	        catch (RuntimeException e) {
+	        	result.completeExceptionally(e);
+	        	return;
+	        }
+	        wakeUpFuture.thenCompose((wakeUp) -> {
+	        	
+	        	// get drive state (always fresh, a cached one says nothing about the vehicle being awake)
+	        	invalidateStateCache(vehicleId, "drive_state");
+	        	return track(getDriveStateAsync(vehicleId)).thenAccept((driveState) -> {
+	                String shiftState = wakeUpShiftState(vehicleId, wakeUp, driveState, now > retryUntil);
+	                if (shiftState != null || now > retryUntil) {
+	                	result.complete(shiftState);
+	                	return;
+	                }
+	                
+	                // try again after sleeping, without holding a thread, but do not sleep (much) beyond the retry time
+	                long sleepInMS = Math.min(backoffInMS, Math.max(0, retryUntil - System.currentTimeMillis()) + 1);
+	                if (jitter) {
+	                	sleepInMS = sleepInMS / 2 + ThreadLocalRandom.current().nextLong(sleepInMS / 2 + 1);
+	                }
+	                long nextBackoffInMS = Math.min(maxBackoffInMS, backoffInMS * 2);
+	                track(transport.scheduler.schedule(() -> attempt(attemptCnt + 1, nextBackoffInMS), sleepInMS, TimeUnit.MILLISECONDS));
+	        	});
+	        }).whenComplete((ignore, throwable) -> {
+	        	if (throwable != null) {
+	        		result.completeExceptionally(throwable);
+	        	}
+	        });
+		}
+		
+		/*
+		 * Remember what is pending, so it can be cancelled
+		 */
+		private <F extends Future<?>> F track(F future) {
+			pending = future;
+			if (result.isCancelled()) {
+				future.cancel(false);
+			}
+			return future;
+		}
+	}
+	
+	/*
+	 * Evaluate a wake up attempt
+	 * @return the shift state if the vehicle is awake, null if not (yet) 
+	 */
+	private String wakeUpShiftState(String vehicleId, String wakeUp, DriveState driveState, boolean maxTimeExpired) {
+        String shiftState = (driveState == null ? null : driveState.shiftState);
+        logger.debug("{}Waking up {}, wakeUp={}, shiftState={}, driveState={}", logPrefix, vehicleId, wakeUp, shiftState, (driveState == null ? "null" : "received"));
+        
+        // If shift state is set, we're done
+		if (!isEmpty(shiftState)) {  
+            logger.debug("{}Waking up {} succes, shiftState={}", logPrefix, vehicleId, shiftState);
+            return shiftState;
+        }
+		
+        // If we got a driveState, but the shift state is empty, and max time expired, assume 'P'
+		if (driveState != null && isEmpty(shiftState) && maxTimeExpired) {
+            logger.debug("{}Waking up {}, shiftState is empty, maxTimeExpired => assuming P", logPrefix, vehicleId);
+            return "P";
         }
+        
+        // if max time expired, exit
+		if (maxTimeExpired) {
+	        logger.debug("{}Waking up {} failed", logPrefix, vehicleId);
+        }
+		return null;
 	}
 
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String flashLights(String vehicleId) {
-		return doCommand(vehicleId, "flash_lights", "");
+		return await(flashLightsAsync(vehicleId));
+	}
+	public CompletableFuture<String> flashLightsAsync(String vehicleId) {
+		return doCommandAsync(vehicleId, Command.flashLights());
 	}
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String startAutoConditioning(String vehicleId) {
-		return doCommand(vehicleId, "auto_conditioning_start", "");
+		return await(startAutoConditioningAsync(vehicleId));
+	}
+	public CompletableFuture<String> startAutoConditioningAsync(String vehicleId) {
+		return doCommandAsync(vehicleId, Command.startAutoConditioning());
 	}
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String stopAutoConditioning(String vehicleId) {
-		return doCommand(vehicleId, "auto_conditioning_stop", "");
+		return await(stopAutoConditioningAsync(vehicleId));
+	}
+	public CompletableFuture<String> stopAutoConditioningAsync(String vehicleId) {
+		return doCommandAsync(vehicleId, Command.stopAutoConditioning());
 	}
 	
 	/**
@@ -348,7 +880,10 @@ public class TeslaAPI {
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String setTemps(String vehicleId, double driverTemp, double passengerTemp) {
-		return doCommand(vehicleId, "set_temps", String.format(Locale.US, "{\"driver_temp\" : \"%3.1f\", \"passenger_temp\" : \"%3.1f\"}",driverTemp, passengerTemp));
+		return await(setTempsAsync(vehicleId, driverTemp, passengerTemp));
+	}
+	public CompletableFuture<String> setTempsAsync(String vehicleId, double driverTemp, double passengerTemp) {
+		return doCommandAsync(vehicleId, Command.setTemps(driverTemp, passengerTemp));
 	}
 
 	/**
@@ -362,18 +897,25 @@ public class TeslaAPI {
 			GUISettings guiSettings = getGUISettings(vehicleId);
 			unit = guiSettings.guiTemperatureUnits;
 		}
-		if (unit != null) {
-			unit = unit.toUpperCase();
-		}
 		
-		// The parameters of the API call are always in celsius, so we need to convert F to C for example
-		if ("F".equals(unit)) {
-			driverTemp = convertF2C(driverTemp);
-			passengerTemp = convertF2C(passengerTemp);
-		}
+		// do it
+		return setTemps(vehicleId, convertToC(driverTemp, unit), convertToC(passengerTemp, unit));
+	}
+	public CompletableFuture<String> setTempsWithConversionAsync(String vehicleId, double driverTemp, double passengerTemp, String unit) {
+		
+		// If the unit is not specified, get it from the GUI settings
+		CompletableFuture<String> unitFuture = (unit != null ? CompletableFuture.completedFuture(unit) : getGUISettingsAsync(vehicleId).thenApply((guiSettings) -> guiSettings.guiTemperatureUnits));
 		
 		// do it
-		return setTemps(vehicleId, driverTemp, passengerTemp);
+		return unitFuture.thenCompose((u) -> setTempsAsync(vehicleId, convertToC(driverTemp, u), convertToC(passengerTemp, u)));
+	}
+	private double convertToC(double temp, String unit) {
+		
+		// The parameters of the API call are always in celsius, so we need to convert F to C for example
+		if (unit != null && "F".equals(unit.toUpperCase())) {
+			return convertF2C(temp);
+		}
+		return temp;
 	}
 	private double convertF2C(double f) {
 		double unrounded = (f - 32.0) * (5.0/9.0); // 0°C = (32°F − 32) × 5/9
@@ -386,73 +928,100 @@ public class TeslaAPI {
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String setPreconditioningMax(String vehicleId, boolean on) {
-		return doCommand(vehicleId, "set_preconditioning_max", String.format(Locale.US, "{\"on\" : \"%s\"}","" + on));
+		return await(setPreconditioningMaxAsync(vehicleId, on));
+	}
+	public CompletableFuture<String> setPreconditioningMaxAsync(String vehicleId, boolean on) {
+		return doCommandAsync(vehicleId, Command.setPreconditioningMax(on));
 	}
 
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String startCharging(String vehicleId) {
-		return doCommand(vehicleId, "charge_start", "", "charging", "complete");
+		return await(startChargingAsync(vehicleId));
+	}
+	public CompletableFuture<String> startChargingAsync(String vehicleId) {
+		return doCommandAsync(vehicleId, Command.startCharging());
 	}
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String stopCharging(String vehicleId) {
-		return doCommand(vehicleId, "charge_stop", "");
+		return await(stopChargingAsync(vehicleId));
+	}
+	public CompletableFuture<String> stopChargingAsync(String vehicleId) {
+		return doCommandAsync(vehicleId, Command.stopCharging());
 	}
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String setChargeLimit(String vehicleId, int percent) {
-		if (percent < 1 || percent > 100) {
-            throw new IllegalArgumentException("Percent must be between 0 and 100");
-		}
-		return doCommand(vehicleId, "set_charge_limit", String.format("{\"percent\" : \"%d\"}", percent));
+		return await(setChargeLimitAsync(vehicleId, percent));
+	}
+	public CompletableFuture<String> setChargeLimitAsync(String vehicleId, int percent) {
+		return doCommandAsync(vehicleId, Command.setChargeLimit(percent));
 	}
 
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String lockDoors(String vehicleId) {
-		return doCommand(vehicleId, "door_lock", "");
+		return await(lockDoorsAsync(vehicleId));
+	}
+	public CompletableFuture<String> lockDoorsAsync(String vehicleId) {
+		return doCommandAsync(vehicleId, Command.lockDoors());
 	}
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String unlockDoors(String vehicleId) {
-		return doCommand(vehicleId, "door_unlock", "");
+		return await(unlockDoorsAsync(vehicleId));
+	}
+	public CompletableFuture<String> unlockDoorsAsync(String vehicleId) {
+		return doCommandAsync(vehicleId, Command.unlockDoors());
 	}
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String setSentryMode(String vehicleId, boolean state) {
-		return doCommand(vehicleId, "set_sentry_mode", String.format("{\"on\" : \"%s\"}", "" + state));
+		return await(setSentryModeAsync(vehicleId, state));
+	}
+	public CompletableFuture<String> setSentryModeAsync(String vehicleId, boolean state) {
+		return doCommandAsync(vehicleId, Command.setSentryMode(state));
 	}
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String windowControl(String vehicleId, String command) {
-		return doCommand(vehicleId, "window_control", String.format("{\"command\" : \"%s\"}", "" + command));
+		return await(windowControlAsync(vehicleId, command));
+	}
+	public CompletableFuture<String> windowControlAsync(String vehicleId, String command) {
+		return doCommandAsync(vehicleId, Command.windowControl(command));
 	}
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String sunRoofControl(String vehicleId, String state) {
-		return doCommand(vehicleId, "sun_roof_control", String.format("{\"state\" : \"%s\"}", "" + state));
+		return await(sunRoofControlAsync(vehicleId, state));
+	}
+	public CompletableFuture<String> sunRoofControlAsync(String vehicleId, String state) {
+		return doCommandAsync(vehicleId, Command.sunRoofControl(state));
 	}
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String heatSeat(String vehicleId, int heater, int level) {
-		return doCommand(vehicleId, "remote_seat_heater_request", String.format("{\"heater\" : \"%s\", \"level\" : \"%s\"}", "" + heater, "" + level));
+		return await(heatSeatAsync(vehicleId, heater, level));
+	}
+	public CompletableFuture<String> heatSeatAsync(String vehicleId, int heater, int level) {
+		return doCommandAsync(vehicleId, Command.heatSeat(heater, level));
 	}
 	
 	enum HeatSeat {
@@ -488,64 +1057,111 @@ public class TeslaAPI {
 	public String heatSeat(String vehicleId, HeatSeat heatSeat, HeatSeatLevel heatSeatLevel) {
 		return heatSeat(vehicleId, heatSeat.nr, heatSeatLevel.nr);
 	}
+	public CompletableFuture<String> heatSeatAsync(String vehicleId, HeatSeat heatSeat, HeatSeatLevel heatSeatLevel) {
+		return heatSeatAsync(vehicleId, heatSeat.nr, heatSeatLevel.nr);
+	}
 	
 	/**
 	 * @return null if everything is ok, or an error string if not
 	 */
 	public String heatSteeringWheel(String vehicleId, boolean state) {
-		return doCommand(vehicleId, "remote_steering_wheel_heater_request", String.format("{\"on\" : \"%s\"}", "" + state));
+		return await(heatSteeringWheelAsync(vehicleId, state));
+	}
+	public CompletableFuture<String> heatSteeringWheelAsync(String vehicleId, boolean state) {
+		return doCommandAsync(vehicleId, Command.heatSteeringWheel(state));
 	}
 	
-	/*
-	 * 
+	/**
+	 * Send any command, see Command.
+	 * @return null if everything is ok, or an error string if not
 	 */
-	private String doCommand(String vehicleId, String command, String bodyContent) {
-		return doCommand(vehicleId, command, bodyContent, new String[] {});
+	public String doCommand(String vehicleId, Command command) {
+		return await(doCommandAsync(vehicleId, command));
 	}
 	
-	/*
-	 * 
+	/**
+	 * Send any command, see Command.
+	 * @return null if everything is ok, or an error string if not
 	 */
-	private String doCommand(String vehicleId, String command, String bodyContent, String... okReasons) {
-		doTokensCheck();
-		
-        try {
-            // Call the REST service
+	public CompletableFuture<String> doCommandAsync(String vehicleId, Command command) {
+		return withCredentials((credentials) -> {
+	        // Call the REST service
 			Request request = new Request.Builder()
-	                .url(URL_BASE + URL_VERSION + URL_VEHICLES + vehicleId + "/command/" + command)
-	                .header(HEADER_AUTHORIZATION, authorizationHeader)
-					.post(RequestBody.create(bodyContent, JsonMediaType))
+	                .url(transport.urlBase + URL_VERSION + URL_VEHICLES + vehicleId + "/command/" + command.name)
+	                .header(HEADER_AUTHORIZATION, credentials.authorizationHeader)
+					.post(RequestBody.create(command.bodyContent, JsonMediaType))
 	                .build();
-			try (
-				Response response = okHttpClient.newCall(request).execute();
-				ResponseBody responseBody = response.body();
-			) {
+			return call(request, (response) -> {
 				int code = response.code();
 				if (!response.isSuccessful()) {
 					logger.warn("{}response is not succesful: {}", logPrefix, response);
 					return "request failed with HTTP " + code;
 				}
-	
+
 				// Parse the result and build a list of vehicles
 				// {"response":{"result": true,,"reason": ...
-				String responseBodyContent = responseBody.string();
-				JsonObject responseJsonObject = gson.fromJson(responseBodyContent, JsonObject.class);
-				responseJsonObject = responseJsonObject.get("response").getAsJsonObject();
-				boolean result = responseJsonObject.get("result").getAsBoolean();
-				String reason = responseJsonObject.get("reason").getAsString();
-				if (reason.equals("already_set") || Arrays.asList(okReasons).contains(reason)) {
+				CommandResponse commandResponse = ResponseParser.parseCommandResponse(response.body());
+				String reason = (commandResponse.reason == null ? "" : commandResponse.reason);
+				if (command.isOkReason(reason)) {
 					reason = "";
 				}
-				if (!result) logger.warn(reason + ": " + request + " " + bodyContent + " " + response + " " + responseBodyContent);
+				if (!commandResponse.result) logger.warn("{}{}: {} {} {} {}", logPrefix, reason, request.method(), request.url(), command.bodyContent, response); // not the request itself, its toString includes the authorization header
 				if (isEmpty(reason)) {
 					reason = null; 
 				}
 				return reason;
+			});
+		});
+	}
+	
+	/**
+	 * Execute the commands of a pipeline, see CommandPipeline.
+	 * @return a result for every command, in the order they were added to the pipeline
+	 */
+	public List<CommandResult> doCommands(String vehicleId, CommandPipeline commandPipeline) {
+		return await(doCommandsAsync(vehicleId, commandPipeline));
+	}
+	
+	/**
+	 * Execute the commands of a pipeline, see CommandPipeline.
+	 * @return a result for every command, in the order they were added to the pipeline
+	 */
+	public CompletableFuture<List<CommandResult>> doCommandsAsync(String vehicleId, CommandPipeline commandPipeline) {
+		List<List<Command>> stages = new ArrayList<>(commandPipeline.stages); // the pipeline may be modified while we're running
+		
+		// wake up once
+		CompletableFuture<String> wakeUpFuture = (!commandPipeline.isWakeUp() ? CompletableFuture.completedFuture("") 
+				: wakeUpAsync(vehicleId, commandPipeline.wakeUpRetryDurationInMS, commandPipeline.wakeUpSleepTimeInMS));
+		return wakeUpFuture.thenCompose((shiftState) -> {
+			List<CommandResult> commandResults = new ArrayList<>();
+			
+			// no need to send the commands, if the vehicle could not be reached
+			if (shiftState == null) {
+				String reason = "wake up failed";
+				stages.forEach(stage -> stage.forEach(command -> commandResults.add(new CommandResult(command, reason))));
+				return CompletableFuture.completedFuture(commandResults);
 			}
-        } 
-        catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+			
+			// execute the stages one after the other
+			CompletableFuture<Void> stagesFuture = CompletableFuture.completedFuture(null);
+			for (List<Command> stage : stages) {
+				stagesFuture = stagesFuture.thenCompose((ignore) -> doCommandsStageAsync(vehicleId, stage)).thenAccept(commandResults::addAll);
+			}
+			return stagesFuture.thenApply((ignore) -> commandResults);
+		});
+	}
+	
+	/*
+	 * Send all commands of a stage concurrently, a failing call results in a failing CommandResult, not a failing stage
+	 */
+	private CompletableFuture<List<CommandResult>> doCommandsStageAsync(String vehicleId, List<Command> stage) {
+		List<CompletableFuture<CommandResult>> futures = new ArrayList<>();
+		for (Command command : stage) {
+			futures.add(doCommandAsync(vehicleId, command)
+					.handle((reason, throwable) -> new CommandResult(command, throwable == null ? reason : "request failed: " + throwable.getMessage())));
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+				.thenApply((ignore) -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
 	}
 	
 	/**
@@ -553,7 +1169,10 @@ public class TeslaAPI {
 	 * 
 	 */
 	public ChargeState getChargeState(String vehicleId) {
-		return getState(vehicleId, "charge_state", ChargeState.class);
+		return await(getChargeStateAsync(vehicleId));
+	}
+	public CompletableFuture<ChargeState> getChargeStateAsync(String vehicleId) {
+		return getStateAsync(vehicleId, "charge_state", ChargeState.class);
 	}
 	
 	/**
@@ -561,7 +1180,10 @@ public class TeslaAPI {
 	 * 
 	 */
 	public ClimateState getClimateState(String vehicleId) {
-		return getState(vehicleId, "climate_state", ClimateState.class);
+		return await(getClimateStateAsync(vehicleId));
+	}
+	public CompletableFuture<ClimateState> getClimateStateAsync(String vehicleId) {
+		return getStateAsync(vehicleId, "climate_state", ClimateState.class);
 	}
 	
 	/**
@@ -569,7 +1191,10 @@ public class TeslaAPI {
 	 * 
 	 */
 	public DriveState getDriveState(String vehicleId) {
-		return getState(vehicleId, "drive_state", DriveState.class);
+		return await(getDriveStateAsync(vehicleId));
+	}
+	public CompletableFuture<DriveState> getDriveStateAsync(String vehicleId) {
+		return getStateAsync(vehicleId, "drive_state", DriveState.class);
 	}
 	
 	/**
@@ -577,52 +1202,344 @@ public class TeslaAPI {
 	 * 
 	 */
 	public GUISettings getGUISettings(String vehicleId) {
-		return getState(vehicleId, "gui_settings", GUISettings.class);
+		return await(getGUISettingsAsync(vehicleId));
+	}
+	public CompletableFuture<GUISettings> getGUISettingsAsync(String vehicleId) {
+		return getStateAsync(vehicleId, "gui_settings", GUISettings.class);
+	}
+	
+	/**
+	 * Fetch multiple states in one request, instead of one request per state.
+	 * @param endpoints the states to fetch, e.g. VehicleData.CHARGE_STATE, VehicleData.DRIVE_STATE; if none are specified, all are fetched
+	 * @return null if request had an error 
+	 */
+	public VehicleData getVehicleData(String vehicleId, String... endpoints) {
+		return await(getVehicleDataAsync(vehicleId, endpoints));
+	}
+	
+	/**
+	 * Fetch multiple states in one request, instead of one request per state.
+	 * @param endpoints the states to fetch, e.g. VehicleData.CHARGE_STATE, VehicleData.DRIVE_STATE; if none are specified, all are fetched
+	 * @return null if request had an error 
+	 */
+	public CompletableFuture<VehicleData> getVehicleDataAsync(String vehicleId, String... endpoints) {
+		return withCredentials((credentials) -> {
+	        // Call the REST service
+			HttpUrl.Builder urlBuilder = HttpUrl.get(transport.urlBase + URL_VERSION + URL_VEHICLES + vehicleId + "/vehicle_data").newBuilder();
+			if (endpoints.length > 0) {
+				urlBuilder.addQueryParameter("endpoints", String.join(";", endpoints));
+			}
+			Request request = new Request.Builder()
+	                .url(urlBuilder.build())
+	                .header(HEADER_AUTHORIZATION, credentials.authorizationHeader)
+					.get()
+	                .build();
+			return callCoalesced(request, (response) -> {
+				if (!response.isSuccessful()) {
+					logger.warn("{}response is not succesful: {}", logPrefix, response);
+					return null;
+				}
+			
+				// {"response":{"id":12345678901234567,...,"charge_state":{"battery_heater_on":false, ...},"drive_state":{...
+				VehicleData vehicleData = ResponseParser.parseObject(response.body(), VehicleData::new);
+			
+				// The states are just as fresh as when fetched separately
+				StateCache stateCache = this.stateCache;
+				if (stateCache != null && vehicleData != null) {
+					stateCache.put(vehicleId, VehicleData.CHARGE_STATE, vehicleData.chargeState);
+					stateCache.put(vehicleId, VehicleData.CLIMATE_STATE, vehicleData.climateState);
+					stateCache.put(vehicleId, VehicleData.DRIVE_STATE, vehicleData.driveState);
+					stateCache.put(vehicleId, VehicleData.GUI_SETTINGS, vehicleData.guiSettings);
+				}
+				return vehicleData;
+			});
+		});
 	}
 	
 	/**
+	 * Fetch any data_request endpoint that has a DTO registered in the DtoRegistry.
 	 * @return null if request had an error 
 	 * 
 	 */
-	private <T> T getState(String vehicleId, String urlSuffix, Class<T> clazz) {
-		doTokensCheck();
+	public <T> T getState(String vehicleId, String urlSuffix, Class<T> clazz) {
+		return await(getStateAsync(vehicleId, urlSuffix, clazz));
+	}
+	
+	/**
+	 * Fetch any data_request endpoint that has a DTO registered in the DtoRegistry.
+	 * @return null if request had an error 
+	 * 
+	 */
+	public <T> CompletableFuture<T> getStateAsync(String vehicleId, String urlSuffix, Class<T> clazz) {
+		Function<JsonObject, T> factory = DtoRegistry.factory(urlSuffix, clazz);
+		
+		// Use the cache if possible
+		StateCache stateCache = this.stateCache;
+		if (stateCache != null) {
+			T state = stateCache.get(vehicleId, urlSuffix, clazz);
+			if (state != null) {
+				return CompletableFuture.completedFuture(state);
+			}
+		}
 		
-        try {
-            // Call the REST service
+		return withCredentials((credentials) -> {
+	        // Call the REST service
 			Request request = new Request.Builder()
-	                .url(URL_BASE + URL_VERSION + URL_VEHICLES + vehicleId + "/data_request/" + urlSuffix)
-	                .header(HEADER_AUTHORIZATION, authorizationHeader)
+	                .url(transport.urlBase + URL_VERSION + URL_VEHICLES + vehicleId + "/data_request/" + urlSuffix)
+	                .header(HEADER_AUTHORIZATION, credentials.authorizationHeader)
 					.get()
 	                .build();
-			try (
-				Response response = okHttpClient.newCall(request).execute();
-				ResponseBody responseBody = response.body();
-			) {
+			return callCoalesced(request, (response) -> {
 				if (!response.isSuccessful()) {
 					logger.warn("{}response is not succesful: {}", logPrefix, response);
 					return null;
 				}
-	
+
 				// Parse the result and build a list of vehicles
 				// {"response":{"gps_as_of":1565873014,"heading":71,"latitude":51.823154,"longitude":5.786151,"native_latitu ...
-				String responseBodyContent = responseBody.string();
-				JsonObject responseJsonObject = gson.fromJson(responseBodyContent, JsonObject.class);
-				responseJsonObject = responseJsonObject.get("response").getAsJsonObject();
-				return clazz.getConstructor(JsonObject.class).newInstance(responseJsonObject);
-			}
-        } 
-        catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+				T state = ResponseParser.parseObject(response.body(), factory);
+				if (stateCache != null) {
+					stateCache.put(vehicleId, urlSuffix, state);
+				}
+				return state;
+			});
+		});
 	}
+	
+	/* */
+	private void invalidateStateCache(String vehicleId, String endpoint) {
+		StateCache stateCache = this.stateCache;
+		if (stateCache != null) {
+			stateCache.invalidate(vehicleId, endpoint);
+		}
+	}
+	
+	/*
+	 * All calls go through here: the request is enqueued (after the rate limiting granted it a permit), so no thread is parked waiting for the response.
+	 * The response is handled (and closed) on OkHttp's dispatcher thread, any exception completes the future exceptionally.
+	 * The caller's MDC is captured and applied while the call is processed and handled, so the logging has the context of the call, not of whatever the thread did before.
+	 * Cancelling the future cancels the call. 
+	 */
+	private <T> CompletableFuture<T> call(Request request, ResponseHandler<T> responseHandler) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		LogContext logContext = LogContext.capture(request);
+		Request taggedRequest = request.newBuilder()
+				.tag(LogContext.class, logContext)
+				.tag(TeslaMetricsInterceptor.CallStart.class, new TeslaMetricsInterceptor.CallStart())
+				.build();
+		TeslaRateLimiting.RateLimitedCall rateLimitedCall = rateLimiting.enqueue(okHttpClient, taggedRequest, new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				try (
+					LogContext.Scope scope = logContext.apply();
+				) {
+					future.completeExceptionally(new RuntimeException(e));
+				}
+			}
 
+			@Override
+			public void onResponse(Call call, Response response) {
+				try (
+					LogContext.Scope scope = logContext.apply();
+					Response closeableResponse = response;
+				) {
+					future.complete(responseHandler.handle(response));
+				}
+				catch (Exception e) {
+					future.completeExceptionally(e instanceof RuntimeException ? e : new RuntimeException(e));
+				}
+			}
+		});
+		future.whenComplete((result, throwable) -> {
+			if (future.isCancelled()) {
+				rateLimitedCall.cancel();
+			}
+		});
+		return future;
+	}
+	
 	/*
-	 * 
+	 * For reads: join an identical request that is in flight, if any.
+	 * The URL identifies the read, and the DtoRegistry ensures an URL always results in the same type.
 	 */
-	private void doTokensCheck() {
-		if (tokens == null) {
+	@SuppressWarnings("unchecked")
+	private <T> CompletableFuture<T> callCoalesced(Request request, ResponseHandler<T> responseHandler) {
+		if (!coalesceRequests) {
+			return call(request, responseHandler);
+		}
+		return (CompletableFuture<T>)singleFlight.execute(request.url().toString(), () -> (CompletableFuture<Object>)call(request, responseHandler));
+	}
+	private interface ResponseHandler<T> {
+		T handle(Response response) throws IOException;
+	}
+	
+	/*
+	 * The blocking methods wait for their async counterpart
+	 */
+	static private <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new RuntimeException(cause);
+		}
+		catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * Called by OkHttp on a HTTP 401: the access token was revoked or expired early. 
+	 * Refresh the tokens and retry the request once with the new access token.
+	 * Concurrent failing requests wait for the one refresh (see refreshTokensAsync), and then use its result, also if it failed.
+	 * OkHttp's authenticator is synchronous, so this waits for the refresh on the dispatcher thread (without holding a lock); the caller's thread is not involved.
+	 * @return the request to retry, or null to give up
+	 */
+	private Request authenticate(Route route, Response response) {
+		Request request = response.request();
+		String authorizationHeader = request.header(HEADER_AUTHORIZATION);
+		if (authorizationHeader == null || response.priorResponse() != null) {
+			return null; // not an owner API request (e.g. login), or we already retried
+		}
+		
+		// Only refresh if the failed request used the current tokens, otherwise someone else already did
+		Credentials credentials = this.credentials;
+		if (authorizationHeader.equals(credentials.authorizationHeader)) {
+			logger.debug("{}HTTP 401 for {} {}, refreshing tokens", logPrefix, request.method(), request.url());
+			try {
+				await(refreshTokensAsync(credentials.tokens));
+			}
+			catch (RuntimeException e) {
+				logger.warn(logPrefix + "Refreshing tokens after HTTP 401 failed", e);
+				return null;
+			}
+			credentials = this.credentials;
+		}
+		metrics.requestRetried(TeslaMetricsInterceptor.endpoint(request), response.code());
+		return request.newBuilder()
+				.header(HEADER_AUTHORIZATION, credentials.authorizationHeader)
+				.build();
+	}
+	
+	/*
+	 * Make sure there are tokens, and that they are not expired, before the request is started.
+	 * The usual case, valid tokens in memory, starts the request right away. Otherwise the tokens are first loaded and/or refreshed on the transport's HTTP threads, and the request is started when that completes, so the calling thread never waits for it.
+	 * @param requestStarter gets the credentials for the request, so all of its authorization comes from one snapshot
+	 */
+	private <T> CompletableFuture<T> withCredentials(Function<Credentials, CompletableFuture<T>> requestStarter) {
+		CompletableFuture<Credentials> credentialsFuture = credentialsAsync();
+		if (credentialsFuture.isDone() && !credentialsFuture.isCompletedExceptionally()) {
+			return requestStarter.apply(credentialsFuture.join());
+		}
+		
+		CompletableFuture<T> future = new CompletableFuture<>();
+		LogContext logContext = LogContext.capture(); // the request is started on another thread
+		credentialsFuture.whenComplete((credentials, throwable) -> {
+			if (throwable != null) {
+				future.completeExceptionally(unwrap(throwable));
+				return;
+			}
+			if (future.isDone()) {
+				return; // cancelled while the tokens were refreshed
+			}
+			try (
+				LogContext.Scope scope = logContext.apply();
+			) {
+				CompletableFuture<T> requestFuture = requestStarter.apply(credentials);
+				future.whenComplete((result, requestThrowable) -> {
+					if (future.isCancelled()) {
+						requestFuture.cancel(false);
+					}
+				});
+				requestFuture.whenComplete((result, requestThrowable) -> {
+					if (requestThrowable != null) {
+						future.completeExceptionally(unwrap(requestThrowable));
+					}
+					else {
+						future.complete(result);
+					}
+				});
+			}
+			catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+	
+	/*
+	 * @return the credentials with tokens that are not expired, loading or refreshing them if needed
+	 */
+	private CompletableFuture<Credentials> credentialsAsync() {
+		Credentials credentials = this.credentials;
+		if (credentials != null) {
+			return notExpired(credentials);
+		}
+		if (tokenStore == null) {
 			throw new RuntimeException("No login or setTokens was done.");
 		}
+		return loadCredentialsAsync().thenCompose(this::notExpired);
+	}
+	private CompletableFuture<Credentials> loadCredentialsAsync() {
+		return supplyAsync(() -> {
+			Credentials credentials = loadCredentials();
+			if (credentials == null) {
+				throw new RuntimeException("No login or setTokens was done.");
+			}
+			return credentials;
+		});
+	}
+	private CompletableFuture<Credentials> notExpired(Credentials credentials) {
+		Tokens tokens = credentials.tokens;
+		if (tokens.expiresAt == null || Instant.now().isBefore(tokens.expiresAt)) {
+			return CompletableFuture.completedFuture(credentials);
+		}
+		logger.debug("{}Tokens expired at {}, refreshing before sending the request", logPrefix, tokens.expiresAt);
+		return refreshTokensAsync(tokens).thenApply((refreshedTokens) -> this.credentials);
+	}
+	
+	/*
+	 * Run a blocking task, like a token refresh or loading from the token store, on the transport's HTTP threads, with the logging context of the caller
+	 */
+	private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+		LogContext logContext = LogContext.capture();
+		return CompletableFuture.supplyAsync(() -> {
+			try (
+				LogContext.Scope scope = logContext.apply();
+			) {
+				return supplier.get();
+			}
+		}, transport.okHttpClient.dispatcher().executorService());
+	}
+	
+	/*
+	 * CompletableFuture wraps exceptions thrown in its stages 
+	 */
+	static private Throwable unwrap(Throwable throwable) {
+		return (throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+	}
+	
+	/*
+	 * The tokens and what is derived from them. 
+	 * This is immutable and replaced as a whole, so concurrent requests always see a consistent set, without locking.
+	 */
+	static private final class Credentials {
+		final Tokens tokens;
+		final String authorizationHeader;
+		
+		Credentials(Tokens tokens) {
+			this.tokens = tokens;
+			this.authorizationHeader = "Bearer " + tokens.accessToken;
+		}
 	}
 	
 	/*
@@ -633,16 +1550,4 @@ public class TeslaAPI {
 	private boolean isEmpty(String s) {
 		return s == null || s.trim().isEmpty();
 	}
-
-	/*
-	 * 
-	 */
-	static private void sleep(int ms) {
-		try {
-			Thread.sleep(ms);
-		} 
-		catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-	}
 }
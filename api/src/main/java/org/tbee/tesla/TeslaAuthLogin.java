@@ -63,9 +63,17 @@ class TeslaAuthLogin {
 	 * 
 	 */
 	TeslaAuthLogin(OkHttpClient okHttpClient, String logPrefix) {
+		this(okHttpClient, logPrefix, TeslaAPI.URL_BASE, TeslaAPI.AUTH_URL_BASE);
+	}
+	
+	/**
+	 * @param urlBase the owner API, see TeslaTransport
+	 * @param authUrlBase the auth server, see TeslaTransport
+	 */
+	TeslaAuthLogin(OkHttpClient okHttpClient, String logPrefix, String urlBase, String authUrlBase) {
 		this.okHttpClient = okHttpClient;
 		this.logPrefix = logPrefix;
-		this.helper = new TeslaLoginHelper(okHttpClient, logPrefix);
+		this.helper = new TeslaLoginHelper(okHttpClient, logPrefix, urlBase, authUrlBase);
 	}
 	
 	            
@@ -95,9 +103,7 @@ class TeslaAuthLogin {
 	/* */
 	private Tokens obtainAuthTokens(String codeVerifier, String authorizationCode) throws IOException {
 		// url to fetch token from
-		HttpUrl url = new HttpUrl.Builder()
-			    .scheme("https")
-			    .host("auth.tesla.com")
+		HttpUrl url = helper.authUrlBuilder()
 			    .addPathSegment("oauth2")
 			    .addPathSegment("v3")
 			    .addPathSegment("token")
@@ -136,9 +142,7 @@ class TeslaAuthLogin {
 		Tokens tokens;
 		{		
 			// url to fetch token from
-			HttpUrl url = new HttpUrl.Builder()
-				    .scheme("https")
-				    .host("owner-api.teslamotors.com")
+			HttpUrl url = helper.urlBuilder()
 				    .addPathSegment("oauth")
 				    .addPathSegment("token")
 				    .build();
@@ -232,9 +236,7 @@ class TeslaAuthLogin {
 	Tokens refreshTokens(Tokens oldTokens) {
 		
 		// url to fetch token from
-		HttpUrl url = new HttpUrl.Builder()
-			    .scheme("https")
-			    .host("auth.tesla.com")
+		HttpUrl url = helper.authUrlBuilder()
 			    .addPathSegment("oauth2")
 			    .addPathSegment("v1")
 			    .addPathSegment("token")
@@ -0,0 +1,503 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Records the HTTP exchanges of TeslaAPI to a cassette file, or replays them from one without a network.
+ * This allows benchmarking the parsing and client overhead on real payloads, and reproducing latency problems with the exact bodies Tesla sent.
+ *
+ * - Credentials are not recorded: the request headers are left out, the cookie headers of the response are dropped, and passwords, codes and tokens in the URL and body are replaced by "REDACTED" (see TeslaHttpLogging).
+ *   The placeholder is plain ASCII, so a replayed token response yields tokens that can still be sent in an Authorization header.
+ * - Exchanges are matched on method and path (including the query), not on host, so a cassette can be replayed on any url base. 
+ *   The n-th request for a path gets the n-th recorded response for that path, wrapping around, so a replay is deterministic.
+ *   A request that is not on the cassette fails with an IOException.
+ * - The replay speed is relative to the recorded latencies: 1.0 replays in real time, 2.0 twice as fast, and infinity (the default) without delay.
+ * - The replay concurrency limits the number of exchanges that are being replayed at the same time, like a server with a limited number of connections. Default is unlimited.
+ *   An exchange holds its permit from the start of the replay until its response body is closed, so the limit also applies when replaying without delay.
+ * - Like a real network call, a replayed exchange occupies its OkHttp dispatcher thread while the recorded latency passes, or while it waits for a permit.
+ * - The file is compact and indexed: the bodies are deflated, and an index of paths at the end allows the exchanges to be read only when they are replayed. 
+ *   If a recording was not closed, and thus has no index, the file is scanned instead.
+ *
+ * Example usage:
+ * 		try (
+ * 			TeslaCassette teslaCassette = new TeslaCassette(Paths.get("tesla.cassette"), TeslaCassette.Mode.RECORD);
+ * 			TeslaTransport teslaTransport = new TeslaTransport(TeslaAPI.URL_BASE, TeslaAPI.AUTH_URL_BASE, teslaCassette);
+ * 			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+ * 		) {
+ * 			...
+ * 		}
+ */
+public class TeslaCassette implements Interceptor, AutoCloseable {
+
+	public enum Mode {RECORD, REPLAY}
+
+	static final int MAGIC = 0x54434153; // "TCAS"
+	static final int INDEX_MAGIC = 0x54434958; // "TCIX"
+	static final int VERSION = 1;
+	static private final List<String> SKIP_HEADERS = List.of("Set-Cookie", "Content-Length", "Content-Encoding", "Transfer-Encoding");
+	static final String REDACTED = "REDACTED";
+	static private final Pattern REDACT_VEHICLE_TOKENS_PATTERN = Pattern.compile("(\"tokens\"\\s*:\\s*\\[)[^\\]]*(\\])");
+
+	private final Path path;
+	private final Mode mode;
+
+	// Record
+	private final OutputStream outputStream;
+	private long offset;
+	private final Map<String, List<Long>> recordIndex = new LinkedHashMap<>(); // guarded by this
+	private final long startNanos = System.nanoTime();
+
+	// Replay
+	private final MappedByteBuffer mappedByteBuffer;
+	private final Map<String, Track> tracks = new ConcurrentHashMap<>();
+
+	// Settings
+	private volatile double speed = Double.POSITIVE_INFINITY;
+	private volatile Semaphore concurrency = null;
+
+
+	/**
+	 * @param path the cassette file, which is overwritten when recording
+	 */
+	public TeslaCassette(Path path, Mode mode) throws IOException {
+		this.path = path;
+		this.mode = mode;
+		if (mode == Mode.RECORD) {
+			outputStream = Files.newOutputStream(path);
+			DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+			dataOutputStream.writeInt(MAGIC);
+			dataOutputStream.writeInt(VERSION);
+			dataOutputStream.flush();
+			offset = 8;
+			mappedByteBuffer = null;
+		}
+		else {
+			outputStream = null;
+			try (
+				FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+			) {
+				mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+			}
+			if (mappedByteBuffer.limit() < 8 || mappedByteBuffer.getInt(0) != MAGIC || mappedByteBuffer.getInt(4) != VERSION) {
+				throw new IOException("Not a cassette: " + path);
+			}
+			loadIndex();
+		}
+	}
+
+	/**
+	 * How fast the recorded latencies are replayed: 1.0 is real time, 2.0 is twice as fast, Double.POSITIVE_INFINITY (the default) is without delay.
+	 */
+	public void setSpeed(double speed) {
+		if (speed <= 0.0) {
+            throw new IllegalArgumentException("Speed must be positive");
+		}
+		this.speed = speed;
+	}
+	public double getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * The maximum number of exchanges that are replayed at the same time, 0 for unlimited (the default).
+	 * An exchange counts from the start of its replay until its response body is closed.
+	 */
+	public void setConcurrency(int concurrency) {
+		if (concurrency < 0) {
+            throw new IllegalArgumentException("Concurrency cannot be negative");
+		}
+		this.concurrency = (concurrency == 0 ? null : new Semaphore(concurrency, true));
+	}
+
+	/**
+	 * @return the number of exchanges on the cassette (replay) or recorded so far (record)
+	 */
+	public synchronized int size() {
+		if (mode == Mode.RECORD) {
+			return recordIndex.values().stream().mapToInt(List::size).sum();
+		}
+		return tracks.values().stream().mapToInt(track -> track.offsets.length).sum();
+	}
+
+	/**
+	 * Start replaying from the first recorded exchange again
+	 */
+	public void rewind() {
+		tracks.values().forEach(track -> track.position.set(0));
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		return mode == Mode.RECORD ? record(chain) : replay(chain);
+	}
+
+	/*
+	 * The path and query of the request, redacted, e.g. "GET /api/1/vehicles/123/data_request/charge_state"
+	 */
+	static String key(Request request) {
+		String query = request.url().encodedQuery();
+		return request.method() + " " + TeslaHttpLogging.redact(request.url().encodedPath() + (query == null ? "" : "?" + query), REDACTED);
+	}
+
+	/* */
+	static String redact(String body) {
+		body = TeslaHttpLogging.redact(body, REDACTED);
+		if (body.contains("\"tokens\"")) {
+			body = REDACT_VEHICLE_TOKENS_PATTERN.matcher(body).replaceAll("$1$2");
+		}
+		return body;
+	}
+
+	// ===========================================================================================================
+	// RECORD
+
+	/* */
+	private Response record(Chain chain) throws IOException {
+		Request request = chain.request();
+		long sentNanos = System.nanoTime();
+		Response response = chain.proceed(request);
+		ResponseBody responseBody = response.body();
+		byte[] bytes = (responseBody == null ? new byte[0] : responseBody.bytes());
+		long latencyInNanos = System.nanoTime() - sentNanos;
+		MediaType mediaType = (responseBody == null ? null : responseBody.contentType());
+
+		// Write a redacted copy
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(bytes.length / 4 + 256);
+		try (
+			DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+		) {
+			dataOutputStream.writeLong(sentNanos - startNanos);
+			dataOutputStream.writeLong(latencyInNanos);
+			dataOutputStream.writeUTF(key(request));
+			dataOutputStream.writeInt(response.code());
+			dataOutputStream.writeUTF(response.message());
+			List<String> headers = new ArrayList<>();
+			for (String name : response.headers().names()) {
+				if (SKIP_HEADERS.stream().noneMatch(name::equalsIgnoreCase)) {
+					for (String value : response.headers(name)) {
+						headers.add(name);
+						headers.add(value);
+					}
+				}
+			}
+			dataOutputStream.writeShort(headers.size() / 2);
+			for (String header : headers) {
+				dataOutputStream.writeUTF(header);
+			}
+			dataOutputStream.writeUTF(mediaType == null ? "" : mediaType.toString());
+			byte[] redactedBytes = redact(new String(bytes, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+			dataOutputStream.writeInt(redactedBytes.length);
+			try (
+				DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(dataOutputStream);
+			) {
+				deflaterOutputStream.write(redactedBytes);
+			}
+		}
+		append(key(request), byteArrayOutputStream.toByteArray());
+
+		// The body has been consumed, so hand the caller a fresh one
+		return response.newBuilder()
+				.body(ResponseBody.create(bytes, mediaType))
+				.build();
+	}
+
+	/* */
+	private synchronized void append(String key, byte[] record) throws IOException {
+		DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+		dataOutputStream.writeInt(record.length);
+		dataOutputStream.write(record);
+		dataOutputStream.flush();
+		recordIndex.computeIfAbsent(key, (k) -> new ArrayList<>()).add(offset);
+		offset += 4 + record.length;
+	}
+
+	/**
+	 * When recording, write the index and close the file
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (mode != Mode.RECORD) {
+			return;
+		}
+		DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+		long indexOffset = offset;
+		dataOutputStream.writeInt(recordIndex.size());
+		for (Map.Entry<String, List<Long>> entry : recordIndex.entrySet()) {
+			dataOutputStream.writeUTF(entry.getKey());
+			dataOutputStream.writeInt(entry.getValue().size());
+			for (Long recordOffset : entry.getValue()) {
+				dataOutputStream.writeLong(recordOffset);
+			}
+		}
+		dataOutputStream.writeLong(indexOffset);
+		dataOutputStream.writeInt(INDEX_MAGIC);
+		dataOutputStream.close();
+	}
+
+	// ===========================================================================================================
+	// REPLAY
+
+	/*
+	 * Use the index at the end of the file, or scan the records if there is none
+	 */
+	private void loadIndex() throws IOException {
+		Map<String, List<Long>> index = new LinkedHashMap<>();
+		int limit = mappedByteBuffer.limit();
+		if (limit >= 20 && mappedByteBuffer.getInt(limit - 4) == INDEX_MAGIC) {
+			long indexOffset = mappedByteBuffer.getLong(limit - 12);
+			DataInputStream dataInputStream = dataInputStream((int)indexOffset, limit - 12 - (int)indexOffset);
+			int keyCount = dataInputStream.readInt();
+			for (int i = 0; i < keyCount; i++) {
+				String key = dataInputStream.readUTF();
+				int count = dataInputStream.readInt();
+				List<Long> offsets = new ArrayList<>(count);
+				for (int j = 0; j < count; j++) {
+					offsets.add(dataInputStream.readLong());
+				}
+				index.put(key, offsets);
+			}
+		}
+		else {
+			int position = 8;
+			while (position + 4 <= limit) {
+				int length = mappedByteBuffer.getInt(position);
+				if (length <= 0 || position + 4 + length > limit) {
+					break; // an incomplete last record
+				}
+				DataInputStream dataInputStream = dataInputStream(position + 4, length);
+				dataInputStream.readLong();
+				dataInputStream.readLong();
+				index.computeIfAbsent(dataInputStream.readUTF(), (k) -> new ArrayList<>()).add((long)position);
+				position += 4 + length;
+			}
+		}
+		index.forEach((key, offsets) -> tracks.put(key, new Track(offsets)));
+	}
+
+	/* */
+	private DataInputStream dataInputStream(int position, int length) {
+		ByteBuffer byteBuffer = mappedByteBuffer.duplicate();
+		byteBuffer.position(position);
+		byte[] bytes = new byte[length];
+		byteBuffer.get(bytes);
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+
+	/* */
+	private Response replay(Chain chain) throws IOException {
+		Request request = chain.request();
+		String key = key(request);
+		Track track = tracks.get(key);
+		if (track == null) {
+			throw new IOException("Not on the cassette: " + key);
+		}
+		int idx = Math.floorMod(track.position.getAndIncrement(), track.offsets.length);
+		Exchange exchange = track.exchanges.get(idx);
+		if (exchange == null) {
+			exchange = readExchange(track.offsets[idx]);
+			track.exchanges.compareAndSet(idx, null, exchange);
+		}
+
+		// The permit is held until the body is closed, see Permit
+		Semaphore concurrency = this.concurrency;
+		long sentAtMillis = System.currentTimeMillis();
+		Permit permit = null;
+		try {
+			if (concurrency != null) {
+				concurrency.acquire();
+				permit = new Permit(concurrency);
+			}
+			double speed = this.speed;
+			if (speed != Double.POSITIVE_INFINITY) {
+				TimeUnit.NANOSECONDS.sleep((long)(exchange.latencyInNanos / speed));
+			}
+			Buffer buffer = new Buffer().write(exchange.body);
+			BufferedSource source = (permit == null ? buffer : Okio.buffer(new PermitSource(buffer, permit)));
+			Response response = new Response.Builder()
+					.request(request)
+					.protocol(Protocol.HTTP_1_1)
+					.code(exchange.status)
+					.message(exchange.message)
+					.headers(exchange.headers)
+					.body(ResponseBody.create(source, exchange.mediaType, exchange.body.length))
+					.sentRequestAtMillis(sentAtMillis)
+					.receivedResponseAtMillis(System.currentTimeMillis())
+					.build();
+			permit = null; // released by the body from now on
+			return response;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Replay interrupted");
+		}
+		finally {
+			if (permit != null) {
+				permit.release();
+			}
+		}
+	}
+
+	/* */
+	private Exchange readExchange(long recordOffset) throws IOException {
+		int length = mappedByteBuffer.getInt((int)recordOffset);
+		DataInputStream dataInputStream = dataInputStream((int)recordOffset + 4, length);
+		dataInputStream.readLong(); // sent, for now only used to reconstruct the recording
+		long latencyInNanos = dataInputStream.readLong();
+		dataInputStream.readUTF(); // key
+		int status = dataInputStream.readInt();
+		String message = dataInputStream.readUTF();
+		Headers.Builder headersBuilder = new Headers.Builder();
+		int headerCount = dataInputStream.readShort();
+		for (int i = 0; i < headerCount; i++) {
+			headersBuilder.addUnsafeNonAscii(dataInputStream.readUTF(), dataInputStream.readUTF());
+		}
+		String mediaType = dataInputStream.readUTF();
+		byte[] body = new byte[dataInputStream.readInt()];
+		try (
+			DataInputStream inflaterInputStream = new DataInputStream(new InflaterInputStream(dataInputStream));
+		) {
+			inflaterInputStream.readFully(body);
+		}
+		return new Exchange(latencyInNanos, status, message, headersBuilder.build(), mediaType.isEmpty() ? null : MediaType.get(mediaType), body);
+	}
+
+	/*
+	 * The recorded exchanges of one path, read when first replayed
+	 */
+	static private final class Track {
+		final long[] offsets;
+		final AtomicReferenceArray<Exchange> exchanges;
+		final AtomicInteger position = new AtomicInteger(0);
+
+		Track(List<Long> offsets) {
+			this.offsets = offsets.stream().mapToLong(Long::longValue).toArray();
+			this.exchanges = new AtomicReferenceArray<>(this.offsets.length);
+		}
+	}
+
+	/*
+	 * A concurrency permit that is released only once
+	 */
+	static private final class Permit {
+		private final Semaphore semaphore;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		Permit(Semaphore semaphore) {
+			this.semaphore = semaphore;
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				semaphore.release();
+			}
+		}
+	}
+
+	/*
+	 * The body of a replayed response, which releases the permit when it is closed
+	 */
+	static private final class PermitSource extends ForwardingSource {
+		private final Permit permit;
+
+		PermitSource(Source source, Permit permit) {
+			super(source);
+			this.permit = permit;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			}
+			finally {
+				permit.release();
+			}
+		}
+	}
+
+	/* */
+	static private final class Exchange {
+		final long latencyInNanos;
+		final int status;
+		final String message;
+		final Headers headers;
+		final MediaType mediaType;
+		final byte[] body;
+
+		Exchange(long latencyInNanos, int status, String message, Headers headers, MediaType mediaType, byte[] body) {
+			this.latencyInNanos = latencyInNanos;
+			this.status = status;
+			this.message = message;
+			this.headers = headers;
+			this.mediaType = mediaType;
+			this.body = body;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return super.toString()
+			 + ", path=" + path
+		     + ", mode=" + mode;
+	}
+}
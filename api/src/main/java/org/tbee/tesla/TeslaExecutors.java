@@ -0,0 +1,74 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running the blocking TeslaAPI methods concurrently, for example one task per vehicle when polling a fleet.
+ * 
+ * The jar is a multi-release jar: on Java 21 and later a version of this class is used that runs every task in its own virtual thread.
+ * This is the fallback for older JVMs, which uses a bounded pool of platform threads.
+ * The blocking methods wait on a CompletableFuture and sleep using Thread.sleep, they do not hold any monitors, so virtual threads are not pinned to their carrier.
+ * 
+ * Example usage:
+ * 		ExecutorService executorService = TeslaExecutors.newPerTaskExecutor();
+ * 		for (Vehicle vehicle : vehicles) {
+ * 			executorService.submit(() -> teslaAPI.getChargeState(vehicle.id));
+ * 		}
+ * 		executorService.shutdown();
+ */
+public class TeslaExecutors {
+	
+	static final int DEFAULT_POOL_SIZE = 200;
+	
+	/**
+	 * @return true if newPerTaskExecutor uses virtual threads
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return false;
+	}
+	
+	/**
+	 * @return an executor that creates a virtual thread per task (Java 21+), or a bounded platform thread pool (older JVMs)
+	 */
+	public static ExecutorService newPerTaskExecutor() {
+		return newBoundedExecutor(DEFAULT_POOL_SIZE);
+	}
+	
+	/**
+	 * @return a pool of at most nThreads platform (daemon) threads, excess tasks are queued
+	 */
+	public static ExecutorService newBoundedExecutor(int nThreads) {
+		AtomicInteger threadCnt = new AtomicInteger(0);
+		ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (runnable) -> {
+			Thread thread = new Thread(runnable, "TeslaExecutors " + threadCnt.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		threadPoolExecutor.allowCoreThreadTimeOut(true);
+		return threadPoolExecutor;
+	}
+}
@@ -0,0 +1,331 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Injects latency and failures into the requests of TeslaAPI, so the behavior of the client (wake up retries, rate limiting, timeouts) can be measured under repeatable failure patterns.
+ *
+ * - Latency is added according to a distribution, see Latency.
+ *   An asynchronous call waits for it on the transport's scheduler before it is handed to OkHttp's dispatcher, like a throttled call does (see TeslaRateLimiting), so the latency does not hold dispatcher threads.
+ *   Blocking calls (the login flows) wait on the calling thread.
+ * - The faults are: a dropped connection (the request is sent, but the response is lost), 408 vehicle unavailable, 429 too many requests and 503 service unavailable.
+ *   Each has a rate (0.0 - 1.0), at most one fault is injected per request.
+ * - The latency and rates can be set per endpoint, with the same names as TeslaMetrics uses (e.g. "vehicles", "wake_up", "charge_state", "command/flash_lights"), which take precedence over the defaults.
+ * - The random generator is seeded, so the same sequence of requests gets the same faults. 
+ *   With concurrent requests the order, and thus the pattern, may vary.
+ * - It is added to a TeslaTransport, so it is after the rate limiting: an injected 429 is retried like a real one, and all injected failures show up in the metrics.
+ *
+ * Example usage:
+ * 		TeslaFaultInjection teslaFaultInjection = new TeslaFaultInjection(42);
+ * 		teslaFaultInjection.setLatency(TeslaFaultInjection.Latency.logNormal(Duration.ofMillis(200), Duration.ofSeconds(2)));
+ * 		teslaFaultInjection.setRate(TeslaFaultInjection.Fault.VEHICLE_UNAVAILABLE, 0.1);
+ * 		teslaFaultInjection.setEndpointRate("wake_up", TeslaFaultInjection.Fault.SERVICE_UNAVAILABLE, 0.05);
+ * 		TeslaTransport teslaTransport = new TeslaTransport(TeslaAPI.URL_BASE, TeslaAPI.AUTH_URL_BASE, teslaFaultInjection);
+ */
+public class TeslaFaultInjection implements DelayedInterceptor {
+
+	public enum Fault {
+		DROPPED_CONNECTION(0, null), 
+		VEHICLE_UNAVAILABLE(408, "{\"response\":null,\"error\":\"vehicle unavailable: {:error=>\\\"vehicle unavailable:\\\"}\",\"error_description\":\"\"}"), 
+		TOO_MANY_REQUESTS(429, "{\"response\":null,\"error\":\"too many requests\",\"error_description\":\"\"}"), 
+		SERVICE_UNAVAILABLE(503, "{\"response\":null,\"error\":\"upstream internal error\",\"error_description\":\"\"}");
+		
+		final int status;
+		final String content;
+		
+		private Fault(int status, String content) {
+			this.status = status;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * A latency distribution
+	 */
+	public interface Latency {
+		long nextInNanos(Random random);
+		
+		static Latency NONE = (random) -> 0;
+
+		/**
+		 * Always the same latency
+		 */
+		static Latency fixed(Duration duration) {
+			long nanos = duration.toNanos();
+			return (random) -> nanos;
+		}
+
+		/**
+		 * Equally distributed between min and max
+		 */
+		static Latency uniform(Duration min, Duration max) {
+			long minNanos = min.toNanos();
+			long rangeNanos = max.toNanos() - minNanos;
+			return (random) -> minNanos + (long)(random.nextDouble() * rangeNanos);
+		}
+
+		/**
+		 * A long tail: most requests take about the median, but 1% takes longer than p99.
+		 * This is how network latencies usually are distributed. 
+		 */
+		static Latency logNormal(Duration median, Duration p99) {
+			double mu = Math.log(median.toNanos());
+			double sigma = (Math.log(p99.toNanos()) - mu) / 2.326; // the 99th percentile of the standard normal distribution
+			return (random) -> (long)Math.exp(mu + sigma * random.nextGaussian());
+		}
+	}
+
+	static private final MediaType JSON_MEDIA_TYPE = MediaType.get("application/json; charset=utf-8");
+
+	private final Random random;
+	private final Map<Fault, LongAdder> injectedCounts = new EnumMap<>(Fault.class);
+
+	// Settings
+	private volatile boolean enabled = true;
+	private volatile Latency latency = Latency.NONE;
+	private final Map<String, Latency> endpointLatencies = new ConcurrentHashMap<>();
+	private final Map<Fault, Double> rates = new EnumMap<>(Fault.class); // guarded by this
+	private final Map<String, Map<Fault, Double>> endpointRates = new ConcurrentHashMap<>(); // guarded by this
+	private final Map<String, Map<Fault, Double>> effectiveEndpointRates = new ConcurrentHashMap<>(); // guarded by this, the endpoint rates on top of the defaults
+	private volatile Duration retryAfter = TeslaRateLimiting.DEFAULT_RETRY_AFTER;
+
+
+	/**
+	 * @param seed for the random generator, so a test run can be repeated
+	 */
+	public TeslaFaultInjection(long seed) {
+		this.random = new Random(seed);
+		for (Fault fault : Fault.values()) {
+			injectedCounts.put(fault, new LongAdder());
+		}
+	}
+
+	/**
+	 * Turn the injection on or off, without losing the settings. Default is on.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * The latency added to all requests, default is none.
+	 */
+	public void setLatency(Latency latency) {
+		if (latency == null) {
+			throw new IllegalArgumentException("Cannot be null");
+		}
+		this.latency = latency;
+	}
+
+	/**
+	 * The latency added to the requests to an endpoint.
+	 * @param latency null removes the endpoint specific latency
+	 */
+	public void setEndpointLatency(String endpoint, Latency latency) {
+		if (latency == null) {
+			endpointLatencies.remove(endpoint);
+		}
+		else {
+			endpointLatencies.put(endpoint, latency);
+		}
+	}
+
+	/**
+	 * The fraction (0.0 - 1.0) of all requests that fail with the fault, default is 0.0.
+	 * If the rates, here or on any endpoint, would add up to more than 1.0, the rate is rejected and the previous rates still apply.
+	 */
+	public synchronized void setRate(Fault fault, double rate) {
+		Map<Fault, Double> newRates = new EnumMap<>(rates);
+		newRates.put(fault, validateRate(rate));
+		validateTotal(newRates);
+		Map<String, Map<Fault, Double>> newEffectiveEndpointRates = new HashMap<>();
+		endpointRates.forEach((endpoint, faultRates) -> newEffectiveEndpointRates.put(endpoint, effectiveRates(newRates, faultRates)));
+		
+		// All valid
+		rates.clear();
+		rates.putAll(newRates);
+		effectiveEndpointRates.putAll(newEffectiveEndpointRates);
+	}
+
+	/**
+	 * The fraction (0.0 - 1.0) of the requests to an endpoint that fail with the fault.
+	 * If the rates of the endpoint would add up to more than 1.0, the rate is rejected and the previous rates still apply.
+	 * @param rate null removes the endpoint specific rate, the default rate applies again
+	 */
+	public synchronized void setEndpointRate(String endpoint, Fault fault, Double rate) {
+		Map<Fault, Double> faultRates = new EnumMap<>(Fault.class);
+		if (endpointRates.containsKey(endpoint)) {
+			faultRates.putAll(endpointRates.get(endpoint));
+		}
+		if (rate == null) {
+			faultRates.remove(fault);
+		}
+		else {
+			faultRates.put(fault, validateRate(rate));
+		}
+		Map<Fault, Double> effectiveRates = effectiveRates(rates, faultRates);
+		
+		// All valid
+		endpointRates.put(endpoint, faultRates);
+		effectiveEndpointRates.put(endpoint, effectiveRates);
+	}
+
+	/**
+	 * The Retry-After of an injected 429, default is 1 second.
+	 */
+	public void setRetryAfter(Duration retryAfter) {
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return how often the fault was injected
+	 */
+	public long getInjectedCount(Fault fault) {
+		return injectedCounts.get(fault).sum();
+	}
+
+	/* */
+	private double validateRate(double rate) {
+		if (rate < 0.0 || rate > 1.0) {
+            throw new IllegalArgumentException("Rate must be between 0.0 and 1.0");
+		}
+		return rate;
+	}
+
+	/* */
+	private void validateTotal(Map<Fault, Double> faultRates) {
+		if (faultRates.values().stream().mapToDouble(Double::doubleValue).sum() > 1.0) {
+            throw new IllegalArgumentException("The rates of the faults together cannot be more than 1.0: " + faultRates);
+		}
+	}
+
+	/*
+	 * The endpoint rates on top of the defaults
+	 */
+	private Map<Fault, Double> effectiveRates(Map<Fault, Double> rates, Map<Fault, Double> faultRates) {
+		Map<Fault, Double> effectiveRates = new EnumMap<>(rates);
+		effectiveRates.putAll(faultRates);
+		validateTotal(effectiveRates);
+		return effectiveRates;
+	}
+
+	/**
+	 * Draw the latency of an asynchronous call, before it is handed to OkHttp's dispatcher, see DelayedInterceptor.
+	 * intercept then only draws the fault.
+	 */
+	@Override
+	public long delayInNanos(Request request) {
+		if (!enabled) {
+			return 0;
+		}
+		Latency latency = endpointLatencies.getOrDefault(TeslaMetricsInterceptor.endpoint(request), this.latency);
+		synchronized (this) {
+			return latency.nextInNanos(random);
+		}
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		if (!enabled) {
+			return chain.proceed(request);
+		}
+
+		// Draw the latency (unless an asynchronous call already waited for it, see delayInNanos) and fault, so the pattern only depends on the order of the requests
+		String endpoint = TeslaMetricsInterceptor.endpoint(request);
+		Latency latency = (DelayedInterceptor.isDelayed(request) ? Latency.NONE : endpointLatencies.getOrDefault(endpoint, this.latency));
+		long latencyInNanos;
+		Fault fault;
+		synchronized (this) {
+			latencyInNanos = latency.nextInNanos(random);
+			fault = decide(endpoint, random.nextDouble());
+		}
+
+		// Latency
+		if (latencyInNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(latencyInNanos);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Injected latency interrupted");
+			}
+		}
+
+		// Fault
+		if (fault == null) {
+			return chain.proceed(request);
+		}
+		injectedCounts.get(fault).increment();
+		TeslaAPI.logger.debug("Injecting {} into {} {}", fault, request.method(), request.url());
+		if (fault == Fault.DROPPED_CONNECTION) {
+			chain.proceed(request).close();
+			throw new IOException("Connection dropped (injected)");
+		}
+		Response.Builder responseBuilder = new Response.Builder()
+				.request(request)
+				.protocol(Protocol.HTTP_1_1)
+				.code(fault.status)
+				.message(fault.name())
+				.body(ResponseBody.create(fault.content, JSON_MEDIA_TYPE));
+		if (fault == Fault.TOO_MANY_REQUESTS) {
+			responseBuilder.header("Retry-After", String.valueOf(retryAfter.getSeconds()));
+		}
+		return responseBuilder.build();
+	}
+
+	/*
+	 * @param value between 0.0 (inclusive) and 1.0 (exclusive)
+	 * @return the fault to inject, or null
+	 */
+	synchronized Fault decide(String endpoint, double value) {
+		Map<Fault, Double> faultRates = effectiveEndpointRates.getOrDefault(endpoint, rates);
+		double cumulative = 0.0;
+		for (Map.Entry<Fault, Double> entry : faultRates.entrySet()) {
+			cumulative += entry.getValue();
+			if (value < cumulative) {
+				return entry.getKey();
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,226 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.logging.HttpLoggingInterceptor;
+
+/**
+ * Logs the HTTP traffic of a TeslaAPI on TRACE level.
+ *
+ * - If TRACE is not enabled (or the level is NONE) the request is passed on untouched, so there is no cost (like copying the body).
+ * - Credentials are redacted: the authorization and cookie headers, and passwords, passcodes, tokens, secrets in the body.
+ * - Logging of the body can be sampled per endpoint (e.g. "charge_state", "wake_up", "set_temps") or per vehicle, the rest is logged with HEADERS level.
+ *   A vehicle sample rate takes precedence over an endpoint sample rate, which takes precedence over the default sample rate.
+ *
+ * Example usage:
+ * 		TeslaHttpLogging httpLogging = teslaAPI.getHttpLogging();
+ * 		httpLogging.setBodySampleRate(0.01); // log 1% of the bodies
+ * 		httpLogging.setEndpointBodySampleRate("wake_up", 1.0); // but all wake ups
+ * 		httpLogging.setVehicleBodySampleRate(vehicleId, 1.0); // and everything of this vehicle
+ */
+public class TeslaHttpLogging implements Interceptor {
+
+	public enum Level {NONE, BASIC, HEADERS, BODY}
+
+	static private final List<String> REDACT_HEADERS = List.of("Authorization", "Cookie", "Set-Cookie");
+	static private final String REDACT_NAMES = "password|credential|passcode|access_token|refresh_token|id_token|client_secret|code_verifier|code";
+	static private final Pattern REDACT_JSON_PATTERN = Pattern.compile("(\"(?:" + REDACT_NAMES + ")\"\\s*:\\s*\")[^\"]*(\")");
+	static private final Pattern REDACT_FORM_PATTERN = Pattern.compile("((?:^|[&?])(?:" + REDACT_NAMES + ")=)[^&\\s]*");
+	static private final String REDACTED = "██";
+
+	private final Logger logger;
+	private final Supplier<String> logPrefixSupplier;
+	private final HttpLoggingInterceptor basicInterceptor;
+	private final HttpLoggingInterceptor headersInterceptor;
+	private final HttpLoggingInterceptor bodyInterceptor;
+
+	// Settings
+	private volatile Level level = Level.BODY;
+	private volatile double bodySampleRate = 1.0;
+	private final Map<String, Double> endpointBodySampleRates = new ConcurrentHashMap<>();
+	private final Map<String, Double> vehicleBodySampleRates = new ConcurrentHashMap<>();
+
+
+	/**
+	 *
+	 */
+	TeslaHttpLogging(Logger logger, Supplier<String> logPrefixSupplier) {
+		this.logger = logger;
+		this.logPrefixSupplier = logPrefixSupplier;
+		this.basicInterceptor = createHttpLoggingInterceptor(HttpLoggingInterceptor.Level.BASIC);
+		this.headersInterceptor = createHttpLoggingInterceptor(HttpLoggingInterceptor.Level.HEADERS);
+		this.bodyInterceptor = createHttpLoggingInterceptor(HttpLoggingInterceptor.Level.BODY);
+	}
+
+	/* */
+	private HttpLoggingInterceptor createHttpLoggingInterceptor(HttpLoggingInterceptor.Level level) {
+		HttpLoggingInterceptor httpLoggingInterceptor = new HttpLoggingInterceptor(new okhttp3.logging.HttpLoggingInterceptor.Logger() { // if we do not use a lambda here, the method log output will read "log(", which will make grepping easier if required
+			@Override
+			public void log(String s) {
+				logger.trace("{}{}", logPrefixSupplier.get(), redact(s));
+			}
+		});
+		httpLoggingInterceptor.setLevel(level);
+		REDACT_HEADERS.forEach(httpLoggingInterceptor::redactHeader);
+		return httpLoggingInterceptor;
+	}
+
+	/**
+	 * The maximum level of logging, default is BODY.
+	 */
+	public void setLevel(Level level) {
+		if (level == null) {
+			throw new IllegalArgumentException("Cannot be null");
+		}
+		this.level = level;
+	}
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * The fraction (0.0 - 1.0) of requests that are logged including their body, default is 1.0.
+	 */
+	public void setBodySampleRate(double rate) {
+		this.bodySampleRate = validateRate(rate);
+	}
+	public double getBodySampleRate() {
+		return bodySampleRate;
+	}
+
+	/**
+	 * The fraction (0.0 - 1.0) of requests to an endpoint (the last segment of the URL, e.g. "drive_state") that are logged including their body.
+	 * @param rate null removes the endpoint specific rate
+	 */
+	public void setEndpointBodySampleRate(String endpoint, Double rate) {
+		setRate(endpointBodySampleRates, endpoint, rate);
+	}
+
+	/**
+	 * The fraction (0.0 - 1.0) of requests for a vehicle that are logged including their body.
+	 * @param rate null removes the vehicle specific rate
+	 */
+	public void setVehicleBodySampleRate(String vehicleId, Double rate) {
+		setRate(vehicleBodySampleRates, vehicleId, rate);
+	}
+
+	/* */
+	private void setRate(Map<String, Double> rates, String key, Double rate) {
+		if (rate == null) {
+			rates.remove(key);
+		}
+		else {
+			rates.put(key, validateRate(rate));
+		}
+	}
+
+	/* */
+	private double validateRate(double rate) {
+		if (rate < 0.0 || rate > 1.0) {
+            throw new IllegalArgumentException("Rate must be between 0.0 and 1.0");
+		}
+		return rate;
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		// Only if the logging is actually written, do the work
+		Level level = this.level;
+		if (level == Level.NONE || !logger.isTraceEnabled()) {
+			return chain.proceed(chain.request());
+		}
+
+		// Log using the appropriate interceptor
+		if (level == Level.BODY && !sampleBody(chain.request())) {
+			level = Level.HEADERS;
+		}
+		switch (level) {
+			case BASIC: return basicInterceptor.intercept(chain);
+			case HEADERS: return headersInterceptor.intercept(chain);
+			default: return bodyInterceptor.intercept(chain);
+		}
+	}
+
+	/* */
+	private boolean sampleBody(Request request) {
+		Double rate = null;
+		if (!vehicleBodySampleRates.isEmpty()) {
+			rate = vehicleBodySampleRates.get(vehicleId(request));
+		}
+		if (rate == null && !endpointBodySampleRates.isEmpty()) {
+			rate = endpointBodySampleRates.get(endpoint(request));
+		}
+		if (rate == null) {
+			rate = bodySampleRate;
+		}
+		return rate >= 1.0 || (rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate);
+	}
+
+	/*
+	 * .../vehicles/{vehicleId}/...
+	 */
+	static String vehicleId(Request request) {
+		List<String> pathSegments = request.url().pathSegments();
+		int idx = pathSegments.indexOf("vehicles");
+		return (idx < 0 || idx + 1 >= pathSegments.size() ? "" : pathSegments.get(idx + 1));
+	}
+
+	/*
+	 * The last non empty path segment
+	 */
+	static String endpoint(Request request) {
+		List<String> pathSegments = request.url().pathSegments();
+		for (int i = pathSegments.size() - 1; i >= 0; i--) {
+			if (!pathSegments.get(i).isEmpty()) {
+				return pathSegments.get(i);
+			}
+		}
+		return "";
+	}
+
+	/* */
+	static String redact(String s) {
+		return redact(s, REDACTED);
+	}
+	
+	/* */
+	static String redact(String s, String redacted) {
+		if (s.indexOf('=') < 0 && s.indexOf('"') < 0) {
+			return s;
+		}
+		s = REDACT_JSON_PATTERN.matcher(s).replaceAll("$1" + redacted + "$2");
+		s = REDACT_FORM_PATTERN.matcher(s).replaceAll("$1" + redacted);
+		return s;
+	}
+}
@@ -55,6 +55,8 @@ class TeslaLoginHelper {
 	private final Gson gson = new Gson();
 	private final OkHttpClient okHttpClient;
 	private final MediaType JsonMediaType = MediaType.parse("application/json; charset=utf-8");
+	private final HttpUrl urlBase;
+	private final HttpUrl authUrlBase;
 	
 	// For improved logging 
 	private final String logPrefix;
@@ -64,8 +66,28 @@ class TeslaLoginHelper {
 	 * 
 	 */
 	TeslaLoginHelper(OkHttpClient okHttpClient, String logPrefix) {
+		this(okHttpClient, logPrefix, TeslaAPI.URL_BASE, TeslaAPI.AUTH_URL_BASE);
+	}
+	
+	/**
+	 * @param urlBase the owner API, see TeslaTransport
+	 * @param authUrlBase the auth server, see TeslaTransport
+	 */
+	TeslaLoginHelper(OkHttpClient okHttpClient, String logPrefix, String urlBase, String authUrlBase) {
 		this.okHttpClient = okHttpClient;
 		this.logPrefix = logPrefix;
+		this.urlBase = HttpUrl.get(urlBase);
+		this.authUrlBase = HttpUrl.get(authUrlBase);
+	}
+	
+	/* the url of the owner API, for adding path segments */
+	HttpUrl.Builder urlBuilder() {
+		return urlBase.newBuilder();
+	}
+	
+	/* the url of the auth server, for adding path segments */
+	HttpUrl.Builder authUrlBuilder() {
+		return authUrlBase.newBuilder();
 	}
 	
 	/* */
@@ -131,9 +153,7 @@ class TeslaLoginHelper {
 	Tokens refreshTokens(Tokens oldTokens) {
 		
 		// url to fetch token from
-		HttpUrl url = new HttpUrl.Builder()
-			    .scheme("https")
-			    .host("auth.tesla.com")
+		HttpUrl url = authUrlBuilder()
 			    .addPathSegment("oauth2")
 			    .addPathSegment("v1")
 			    .addPathSegment("token")
@@ -163,7 +183,7 @@ class TeslaLoginHelper {
 			logger.trace("{}apiTokens={}", logPrefix, oldTokens);
 			
 			// you don't get a new refresh token, so we need to use the old one
-			newTokens = new Tokens(newTokens.accessToken, oldTokens.refreshToken, newTokens.expiresAt, newTokens.expiresIn);
+			newTokens = new Tokens(newTokens.accessToken, oldTokens.refreshToken, newTokens.createdAt, newTokens.expiresIn);
 			
 			return newTokens;
 		}
@@ -65,9 +65,17 @@ class TeslaMFALogin {
 	 * 
 	 */
 	TeslaMFALogin(OkHttpClient okHttpClient, String logPrefix) {
+		this(okHttpClient, logPrefix, TeslaAPI.URL_BASE, TeslaAPI.AUTH_URL_BASE);
+	}
+	
+	/**
+	 * @param urlBase the owner API, see TeslaTransport
+	 * @param authUrlBase the auth server, see TeslaTransport
+	 */
+	TeslaMFALogin(OkHttpClient okHttpClient, String logPrefix, String urlBase, String authUrlBase) {
 		this.okHttpClient = okHttpClient;
 		this.logPrefix = logPrefix;
-		this.helper = new TeslaLoginHelper(okHttpClient, logPrefix);
+		this.helper = new TeslaLoginHelper(okHttpClient, logPrefix, urlBase, authUrlBase);
 	}
 	
 	            
@@ -82,9 +90,7 @@ class TeslaMFALogin {
         	// construct the login page URL (it is used 3 times)
     		String codeVerifier = helper.generateCodeVerifier();
             String codeChallenge = helper.computeChallenge(codeVerifier);
-        	HttpUrl authorizeUrl = new HttpUrl.Builder()
-        		    .scheme("https")
-        		    .host("auth.tesla.com")
+        	HttpUrl authorizeUrl = helper.authUrlBuilder()
         		    .addPathSegment("oauth2")
         		    .addPathSegment("v1")
         		    .addPathSegment("authorize")
@@ -210,9 +216,7 @@ class TeslaMFALogin {
 
 		// construct URL making sure any encoding is done right
 		// https://auth.tesla.com//oauth2/v1/authorize/mfa/factors?transaction_id=9EYDgZpp
-		HttpUrl url = new HttpUrl.Builder()
-			    .scheme("https")
-			    .host("auth.tesla.com")
+		HttpUrl url = helper.authUrlBuilder()
 			    .addPathSegment("oauth2")
 			    .addPathSegment("v1") // v3 does not make a difference
 			    .addPathSegment("authorize")
@@ -269,9 +273,7 @@ class TeslaMFALogin {
 		
 		// construct URL making sure any encoding is done right
 		// https://auth.tesla.com//oauth2/v1/authorize/mfa/verify 
-		HttpUrl url = new HttpUrl.Builder()
-			    .scheme("https")
-			    .host("auth.tesla.com")
+		HttpUrl url = helper.authUrlBuilder()
 			    .addPathSegment("oauth2")
 			    .addPathSegment("v1")
 			    .addPathSegment("authorize")
@@ -355,9 +357,7 @@ class TeslaMFALogin {
 	/* */
 	private Tokens obtainMFAOAuthTokens(String codeVerifier, String authorizationCode) throws IOException {
 		// url to fetch token from
-		HttpUrl url = new HttpUrl.Builder()
-			    .scheme("https")
-			    .host("auth.tesla.com")
+		HttpUrl url = helper.authUrlBuilder()
 			    .addPathSegment("oauth2")
 			    .addPathSegment("v3")
 			    .addPathSegment("token")
@@ -396,9 +396,7 @@ class TeslaMFALogin {
 		Tokens tokens;
 		{		
 			// url to fetch token from
-			HttpUrl url = new HttpUrl.Builder()
-				    .scheme("https")
-				    .host("owner-api.teslamotors.com")
+			HttpUrl url = helper.urlBuilder()
 				    .addPathSegment("oauth")
 				    .addPathSegment("token")
 				    .build();
@@ -0,0 +1,79 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+/**
+ * The SPI through which a TeslaAPI reports what it does, for example to export to a monitoring system.
+ * All methods have an empty default implementation, so an implementation only needs to override what it is interested in.
+ * 
+ * - The methods are called on the threads that process the requests (often OkHttp's dispatcher threads), so they must be fast, non blocking and thread safe.
+ * - Endpoints are named after the last segment of the URL, e.g. "vehicles", "vehicle_data", "charge_state", "wake_up".
+ *   Commands are prefixed with "command/", e.g. "command/set_temps", and the requests of the login flows with "auth/", e.g. "auth/token". 
+ * - Latencies are in nanoseconds, and measured from the moment the call was made, not from when it was sent. 
+ *   So time spent waiting for a free connection, the dispatcher or the rate limiter is included, and the percentiles do not suffer from coordinated omission.
+ * 
+ * Example usage:
+ * 		InMemoryTeslaMetrics metrics = new InMemoryTeslaMetrics();
+ * 		teslaAPI.setMetrics(metrics);
+ * 		...
+ * 		System.out.println(metrics.getLatencyHistogram("charge_state").getPercentileInNanos(99.0));
+ */
+public interface TeslaMetrics {
+	
+	/**
+	 * Does nothing, the default.
+	 */
+	static final TeslaMetrics NOOP = new TeslaMetrics() {};
+	
+	/**
+	 * A request was completed, including any retries.
+	 * @param endpoint see class comment
+	 * @param status the HTTP status of the final response, or 0 if no response was received (e.g. a connection failure)
+	 * @param latencyInNanos from the moment the call was made until the response (headers) was received
+	 * @param bytesOut the size of the request body
+	 * @param bytesIn the size of the response body as sent over the wire, 0 if not known
+	 */
+	default void requestCompleted(String endpoint, int status, long latencyInNanos, long bytesOut, long bytesIn) {}
+	
+	/**
+	 * A request is retried, because it was throttled (HTTP 429) or the access token was refused (HTTP 401).
+	 * @param endpoint see class comment
+	 * @param status the HTTP status that caused the retry
+	 */
+	default void requestRetried(String endpoint, int status) {}
+	
+	/**
+	 * A wake up with retry ended.
+	 * @param durationInNanos from the start of the first attempt until the end
+	 * @param attempts the number of attempts made
+	 * @param awake false if the vehicle did not wake up in time, or the wake up failed
+	 */
+	default void wakeUpCompleted(long durationInNanos, int attempts, boolean awake) {}
+	
+	/**
+	 * A login flow ended.
+	 * @param flow "auth", "mfa", "nomfa" or "refresh"
+	 * @param durationInNanos the duration of the whole flow
+	 * @param success false if the flow failed
+	 */
+	default void loginCompleted(String flow, long durationInNanos, boolean success) {}
+}
@@ -0,0 +1,120 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Supplier;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/*
+ * Reports every request to the TeslaMetrics. 
+ * This is an application interceptor in front of the rate limiting, so the retries are part of the latency: a throttled response that is retried is not reported, the response of the last attempt is.
+ * The latency is measured from the CallStart tag if the request has one (set when the call is made, before it waits for the rate limiting and is queued in the dispatcher), 
+ * otherwise from when the request enters this interceptor (blocking calls, like the login flows, do not queue).
+ */
+final class TeslaMetricsInterceptor implements Interceptor {
+
+	private final Supplier<TeslaMetrics> metricsSupplier;
+
+	/*
+	 * The moment a call was made
+	 */
+	static final class CallStart {
+		final long nanos = System.nanoTime();
+	}
+
+	/*
+	 * 
+	 */
+	TeslaMetricsInterceptor(Supplier<TeslaMetrics> metricsSupplier) {
+		this.metricsSupplier = metricsSupplier;
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		TeslaMetrics metrics = metricsSupplier.get();
+		Request request = chain.request();
+		if (metrics == TeslaMetrics.NOOP) {
+			return chain.proceed(request);
+		}
+		CallStart callStart = request.tag(CallStart.class);
+		long startNanos = (callStart != null ? callStart.nanos : System.nanoTime());
+		long bytesOut = (request.body() == null ? 0 : Math.max(0, request.body().contentLength()));
+		Response response;
+		try {
+			response = chain.proceed(request);
+		}
+		catch (IOException | RuntimeException e) {
+			metrics.requestCompleted(endpoint(request), 0, System.nanoTime() - startNanos, bytesOut, 0);
+			throw e;
+		}
+		TeslaRateLimiting.RateLimitedCall rateLimitedCall = request.tag(TeslaRateLimiting.RateLimitedCall.class);
+		if (rateLimitedCall != null && rateLimitedCall.isRetry()) {
+			return response;
+		}
+		metrics.requestCompleted(endpoint(request), response.code(), System.nanoTime() - startNanos, bytesOut, bytesIn(response));
+		return response;
+	}
+
+	/*
+	 * The size on the wire (so compressed), if the server told us
+	 */
+	static private long bytesIn(Response response) {
+		Response networkResponse = response.networkResponse();
+		String contentLength = (networkResponse == null ? response : networkResponse).header("Content-Length");
+		if (contentLength != null) {
+			try {
+				return Math.max(0, Long.parseLong(contentLength.trim()));
+			}
+			catch (NumberFormatException e) {
+				// fall through
+			}
+		}
+		return (response.body() == null ? 0 : Math.max(0, response.body().contentLength()));
+	}
+
+	/*
+	 * A low cardinality name for the endpoint, see TeslaMetrics
+	 */
+	static String endpoint(Request request) {
+		List<String> pathSegments = request.url().pathSegments();
+		String last = TeslaHttpLogging.endpoint(request);
+		int idx = pathSegments.indexOf("vehicles");
+		if (idx >= 0) {
+			if (idx + 1 >= pathSegments.size() || pathSegments.get(idx + 1).isEmpty()) {
+				return "vehicles";
+			}
+			if (last.equals(pathSegments.get(idx + 1))) {
+				return "vehicle"; // do not use the vehicle id as a name
+			}
+			return (pathSegments.contains("command") ? "command/" + last : last);
+		}
+		if (!pathSegments.isEmpty() && pathSegments.get(0).startsWith("oauth")) {
+			return "auth/" + last;
+		}
+		return last;
+	}
+}
@@ -62,9 +62,17 @@ class TeslaNoMFALogin {
 	 * 
 	 */
 	TeslaNoMFALogin(OkHttpClient okHttpClient, String logPrefix) {
+		this(okHttpClient, logPrefix, TeslaAPI.URL_BASE, TeslaAPI.AUTH_URL_BASE);
+	}
+	
+	/**
+	 * @param urlBase the owner API, see TeslaTransport
+	 * @param authUrlBase the auth server, see TeslaTransport
+	 */
+	TeslaNoMFALogin(OkHttpClient okHttpClient, String logPrefix, String urlBase, String authUrlBase) {
 		this.okHttpClient = okHttpClient;
 		this.logPrefix = logPrefix;
-		this.helper = new TeslaLoginHelper(okHttpClient, logPrefix);
+		this.helper = new TeslaLoginHelper(okHttpClient, logPrefix, urlBase, authUrlBase);
 	}
 	
 	            
@@ -79,9 +87,7 @@ class TeslaNoMFALogin {
         	// construct URL making sure any encoding is done right
         	// https://auth.tesla.com/oauth2/v3/authorize?client_id=... 
     		String codeVerifier = helper.generateCodeVerifier();
-        	HttpUrl authorizeUrl = new HttpUrl.Builder() 
-        		    .scheme("https")
-        		    .host("auth.tesla.com")
+        	HttpUrl authorizeUrl = helper.authUrlBuilder()
         		    .addPathSegment("oauth2")
         		    .addPathSegment("v1") 
         		    .addPathSegment("authorize")
@@ -185,9 +191,7 @@ class TeslaNoMFALogin {
 	/* */
 	private Tokens obtainAuthTokens(String codeVerifier, String authorizationCode) throws IOException {
 		// url to fetch token from
-		HttpUrl url = new HttpUrl.Builder()
-			    .scheme("https")
-			    .host("auth.tesla.com")
+		HttpUrl url = helper.authUrlBuilder()
 			    .addPathSegment("oauth2")
 			    .addPathSegment("v3")
 			    .addPathSegment("token")
@@ -226,9 +230,7 @@ class TeslaNoMFALogin {
 		Tokens tokens;
 		{		
 			// url to fetch token from
-			HttpUrl url = new HttpUrl.Builder()
-				    .scheme("https")
-				    .host("owner-api.teslamotors.com")
+			HttpUrl url = helper.urlBuilder()
 				    .addPathSegment("oauth")
 				    .addPathSegment("token")
 				    .build();
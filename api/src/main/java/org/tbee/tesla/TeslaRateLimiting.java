@@ -0,0 +1,284 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Limits the rate of the requests of a TeslaAPI, both per account and per host (the host limiters are shared by all TeslaAPIs on a transport).
+ * 
+ * - A request waits until both limiters grant a permit, it is not failed. 
+ *   The waiting is scheduled on the transport's scheduler, the request is only handed to OkHttp's dispatcher when it has its permits, 
+ *   so a throttled account neither holds threads nor occupies TeslaTransport's maximum concurrent requests that the other accounts need.
+ * - On an HTTP 429 the account's limiter pauses for the Retry-After period and reduces its rate, see RateLimiter, and the request is retried as a new call that waits for permits again.
+ *   The host limiter keeps its configured rate: it is shared by all accounts on the transport, and one throttled account must not slow down the others.
+ *   Only when the retries are exhausted is the 429 returned to the caller. 
+ * - Blocking calls (the login flows) wait and retry on the calling thread.
+ * 
+ * Example usage:
+ * 		teslaAPI.getRateLimiting().getAccountRateLimiter().setRate(1.0, 5); // 1 request per second, with bursts of up to 5
+ * 		teslaTransport.setHostRateLimit(50.0, 50);
+ */
+public class TeslaRateLimiting implements Interceptor {
+	
+	static final int HTTP_TOO_MANY_REQUESTS = 429;
+	static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+	
+	private final RateLimiter accountRateLimiter = new RateLimiter();
+	private final TeslaTransport transport;
+	private final Supplier<TeslaMetrics> metricsSupplier;
+	
+	// Settings
+	private volatile int maxRetries = 3;
+	
+	
+	/**
+	 * 
+	 */
+	TeslaRateLimiting(TeslaTransport transport, Supplier<TeslaMetrics> metricsSupplier) {
+		this.transport = transport;
+		this.metricsSupplier = metricsSupplier;
+	}
+	
+	public RateLimiter getAccountRateLimiter() {
+		return accountRateLimiter;
+	}
+	
+	/**
+	 * How often a request that was throttled (HTTP 429) is retried, default is 3.
+	 */
+	public void setMaxRetries(int maxRetries) {
+		if (maxRetries < 0) {
+            throw new IllegalArgumentException("Cannot be negative");
+		}
+		this.maxRetries = maxRetries;
+	}
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+	
+	/*
+	 * Enqueue the request in OkHttp's dispatcher once both limiters granted a permit, and retry it when it is throttled.
+	 * The callback gets the response of the last attempt.
+	 * @return to cancel the call, whichever attempt it is in
+	 */
+	RateLimitedCall enqueue(OkHttpClient okHttpClient, Request request, Callback callback) {
+		RateLimitedCall rateLimitedCall = new RateLimitedCall(okHttpClient, callback);
+		rateLimitedCall.request = request.newBuilder()
+				.tag(RateLimitedCall.class, rateLimitedCall)
+				.tag(DelayedInterceptor.Delayed.class, DelayedInterceptor.DELAYED)
+				.build();
+		rateLimitedCall.attempt();
+		return rateLimitedCall;
+	}
+
+	/*
+	 * Calls enqueued by this class already have their permits, they are only evaluated for throttling here.
+	 * Other (blocking) calls wait for their permits, and are retried, on the calling thread.
+	 */
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		RateLimiter hostRateLimiter = transport.getHostRateLimiter(request.url().host());
+		RateLimitedCall rateLimitedCall = request.tag(RateLimitedCall.class);
+		int retryCnt = 0;
+		while (true) {
+			if (rateLimitedCall == null) {
+				acquire(accountRateLimiter);
+				acquire(hostRateLimiter);
+			}
+			Response response = chain.proceed(request);
+			if (response.code() != HTTP_TOO_MANY_REQUESTS) {
+				accountRateLimiter.succeeded();
+				return response;
+			}
+			
+			// Throttled, only this account backs off
+			long nowNanos = System.nanoTime();
+			long retryAfterNanos = retryAfter(response.header("Retry-After"), ZonedDateTime.now()).toNanos();
+			accountRateLimiter.throttled(nowNanos, retryAfterNanos);
+			if (rateLimitedCall != null) {
+				retryCnt = rateLimitedCall.retryCnt;
+			}
+			if (retryCnt++ >= maxRetries) {
+				return response;
+			}
+			TeslaAPI.logger.debug("Throttled {} {}, retry={}, retryAfter={}ms", request.method(), request.url(), retryCnt, retryAfterNanos / 1_000_000);
+			metricsSupplier.get().requestRetried(TeslaMetricsInterceptor.endpoint(request), HTTP_TOO_MANY_REQUESTS);
+			if (rateLimitedCall != null) {
+				rateLimitedCall.retryCnt = retryCnt;
+				rateLimitedCall.retry = true;
+				return response; // the call enqueues the retry when it gets this response
+			}
+			response.close();
+		}
+	}
+	
+	/* */
+	private void acquire(RateLimiter rateLimiter) throws InterruptedIOException {
+		try {
+			rateLimiter.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+		}
+	}
+
+	/*
+	 * Retry-After is either a number of seconds or a HTTP date
+	 */
+	static Duration retryAfter(String retryAfter, ZonedDateTime now) {
+		if (retryAfter == null || retryAfter.isBlank()) {
+			return DEFAULT_RETRY_AFTER;
+		}
+		try {
+			return Duration.ofSeconds(Math.max(0, Long.parseLong(retryAfter.trim())));
+		}
+		catch (NumberFormatException e) {
+			// try as a date
+		}
+		try {
+			Duration duration = Duration.between(now, ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+			return (duration.isNegative() ? Duration.ZERO : duration);
+		}
+		catch (DateTimeParseException e) {
+			return DEFAULT_RETRY_AFTER;
+		}
+	}
+	
+	/*
+	 * A call over its attempts, it travels with the request as a tag, so intercept can tell it apart from a blocking call and mark it for retry.
+	 */
+	final class RateLimitedCall implements Callback {
+		private final OkHttpClient okHttpClient;
+		private final Callback callback;
+		private Request request; // set once, before the first attempt
+		private volatile int retryCnt = 0;
+		private volatile boolean retry = false; // the response of the current attempt is throttled and will be retried
+		private volatile boolean cancelled = false;
+		private volatile Call call = null;
+		private volatile Runnable cancelWaiting = null;
+		
+		RateLimitedCall(OkHttpClient okHttpClient, Callback callback) {
+			this.okHttpClient = okHttpClient;
+			this.callback = callback;
+		}
+		
+		/*
+		 * The account's permit first, then the host's, like a blocking call would
+		 */
+		private void attempt() {
+			retry = false;
+			acquire(accountRateLimiter, () -> acquire(transport.getHostRateLimiter(request.url().host()), this::start));
+		}
+		private void acquire(RateLimiter rateLimiter, Runnable next) {
+			if (cancelled) {
+				return;
+			}
+			ScheduledFuture<?> waiting = rateLimiter.acquire(transport.scheduler, next);
+			if (waiting != null) {
+				cancelWaiting = () -> rateLimiter.cancel(waiting);
+			}
+		}
+		
+		/*
+		 * The delays of the transport's interceptors are waited for on the scheduler as well, see DelayedInterceptor
+		 */
+		private void start() {
+			long delayInNanos = 0;
+			for (DelayedInterceptor delayedInterceptor : transport.delayedInterceptors) {
+				delayInNanos += delayedInterceptor.delayInNanos(request);
+			}
+			if (delayInNanos <= 0) {
+				enqueue();
+				return;
+			}
+			if (cancelled) {
+				return;
+			}
+			ScheduledFuture<?> waiting = transport.scheduler.schedule(this::enqueue, delayInNanos, TimeUnit.NANOSECONDS);
+			cancelWaiting = () -> waiting.cancel(false);
+		}
+		private void enqueue() {
+			Call call = okHttpClient.newCall(request);
+			this.call = call;
+			if (cancelled) { // cancel may not have seen the call
+				return;
+			}
+			call.enqueue(this);
+		}
+		
+		/*
+		 * @return true if the response is not reported yet, because the call will be retried
+		 */
+		boolean isRetry() {
+			return retry;
+		}
+		
+		void cancel() {
+			cancelled = true;
+			Runnable cancelWaiting = this.cancelWaiting;
+			if (cancelWaiting != null) {
+				cancelWaiting.run();
+			}
+			Call call = this.call;
+			if (call != null) {
+				call.cancel();
+			}
+		}
+
+		@Override
+		public void onFailure(Call call, IOException e) {
+			callback.onFailure(call, e);
+		}
+
+		@Override
+		public void onResponse(Call call, Response response) throws IOException {
+			if (!retry || cancelled) {
+				callback.onResponse(call, response);
+				return;
+			}
+			response.close();
+			try {
+				attempt();
+			}
+			catch (RuntimeException e) { // e.g. the transport was closed
+				callback.onFailure(call, new IOException("Cannot retry the throttled request", e));
+			}
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * The HTTP transport (connection pool, dispatcher threads, HTTP/2 sessions) that TeslaAPI instances use to talk to Tesla.
+ *
+ * By default every TeslaAPI creates its own transport, but when many accounts are accessed from one JVM, they can share a single transport.
+ * Per-account state, like the tokens and the cookies, remains in the TeslaAPI instance.
+ *
+ * The transport is reference counted: every TeslaAPI constructed on it retains it, and releases it on close.
+ * The creator holds the initial reference and releases it by calling close.
+ * When the last reference is released, the threads are stopped and the connections are closed.
+ *
+ * Example usage:
+ * 		TeslaTransport teslaTransport = new TeslaTransport();
+ * 		TeslaAPI teslaAPI1 = new TeslaAPI(teslaTransport);
+ * 		TeslaAPI teslaAPI2 = new TeslaAPI(teslaTransport);
+ * 		teslaTransport.close(); // the transport stays alive until both TeslaAPIs are closed as well
+ */
+public class TeslaTransport implements AutoCloseable {
+	static final Logger logger = LoggerFactory.getLogger(TeslaTransport.class);
+	
+	static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+
+	// For HTTP
+	final OkHttpClient okHttpClient;
+	final String urlBase;
+	final String authUrlBase;
+	final List<Interceptor> interceptors;
+	final List<DelayedInterceptor> delayedInterceptors; // of the interceptors, see TeslaRateLimiting
+	final ScheduledExecutorService scheduler = createScheduler();
+	private final Map<String, RateLimiter> hostRateLimiters = new ConcurrentHashMap<>();
+	private volatile double hostRate = Double.POSITIVE_INFINITY;
+	private volatile int hostBurst = 1;
+
+	// State
+	private final AtomicInteger referenceCount = new AtomicInteger(1);
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+
+	/**
+	 *
+	 */
+	public TeslaTransport() {
+		this(TeslaAPI.URL_BASE);
+	}
+
+	/**
+	 * @param urlBase the owner API to talk to, e.g. a local stand-in for testing, must end with a slash
+	 */
+	public TeslaTransport(String urlBase) {
+		this(urlBase, TeslaAPI.AUTH_URL_BASE);
+	}
+
+	/**
+	 * @param urlBase the owner API to talk to, e.g. a local stand-in for testing, must end with a slash
+	 * @param authUrlBase the auth server used by the login and token refresh, e.g. a local stand-in for testing, must end with a slash
+	 */
+	public TeslaTransport(String urlBase, String authUrlBase) {
+		this(urlBase, authUrlBase, new Interceptor[0]);
+	}
+
+	/**
+	 * @param urlBase the owner API to talk to, e.g. a local stand-in for testing, must end with a slash
+	 * @param authUrlBase the auth server used by the login and token refresh, e.g. a local stand-in for testing, must end with a slash
+	 * @param interceptors added to every TeslaAPI on this transport, after its own (logging context, metrics, rate limiting), so they see the requests as they are sent, e.g. a TeslaCassette
+	 */
+	public TeslaTransport(String urlBase, String authUrlBase, Interceptor... interceptors) {
+		if (urlBase == null || !urlBase.endsWith("/")) {
+			throw new IllegalArgumentException("The url base must end with a slash: " + urlBase);
+		}
+		if (authUrlBase == null || !authUrlBase.endsWith("/")) {
+			throw new IllegalArgumentException("The auth url base must end with a slash: " + authUrlBase);
+		}
+		this.urlBase = urlBase;
+		this.authUrlBase = authUrlBase;
+		this.interceptors = List.of(interceptors);
+		this.delayedInterceptors = this.interceptors.stream()
+			.filter(DelayedInterceptor.class::isInstance)
+			.map(DelayedInterceptor.class::cast)
+			.collect(Collectors.toUnmodifiableList());
+
+		// Initialize the HTTP client, account specific settings (cookies, logging) are added by TeslaAPI on top of this
+		okHttpClient = new OkHttpClient.Builder()
+			.dispatcher(new Dispatcher(createDispatcherExecutorService()))
+			.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+	        .connectTimeout(30, TimeUnit.SECONDS)
+	        .writeTimeout(30, TimeUnit.SECONDS)
+	        .readTimeout(2, TimeUnit.MINUTES)
+	        .build();
+		setMaxConcurrentRequests(DEFAULT_MAX_CONCURRENT_REQUESTS);
+	}
+	
+	/**
+	 * All calls are dispatched asynchronously, even the blocking ones, so this limits the number of requests that are executing at the same time.
+	 * Additional requests are queued until a running one completes.
+	 * OkHttp's default of 5 requests per host is too low when many accounts or vehicles are accessed concurrently.
+	 * @param max
+	 */
+	public void setMaxConcurrentRequests(int max) {
+		okHttpClient.dispatcher().setMaxRequests(max);
+		okHttpClient.dispatcher().setMaxRequestsPerHost(max);
+	}
+	public int getMaxConcurrentRequests() {
+		return okHttpClient.dispatcher().getMaxRequestsPerHost();
+	}
+
+	/**
+	 * Limit the rate of requests per host, for all TeslaAPI instances on this transport together. Default is unlimited.
+	 * See TeslaRateLimiting.
+	 * @param permitsPerSecond the number of requests per second, Double.POSITIVE_INFINITY for unlimited
+	 * @param burst the number of requests that may be sent at once after a quiet period 
+	 */
+	public synchronized void setHostRateLimit(double permitsPerSecond, int burst) {
+		this.hostRate = permitsPerSecond;
+		this.hostBurst = burst;
+		hostRateLimiters.values().forEach(rateLimiter -> rateLimiter.setRate(permitsPerSecond, burst));
+	}
+	
+	/**
+	 * @param host e.g. "owner-api.teslamotors.com"
+	 * @return the rate limiter for the host, e.g. to read its queue length
+	 */
+	public RateLimiter getHostRateLimiter(String host) {
+		RateLimiter rateLimiter = hostRateLimiters.get(host);
+		if (rateLimiter != null) {
+			return rateLimiter;
+		}
+		synchronized (this) { // so setHostRateLimit does not miss a new limiter
+			return hostRateLimiters.computeIfAbsent(host, (h) -> {
+				RateLimiter newRateLimiter = new RateLimiter();
+				if (hostRate != Double.POSITIVE_INFINITY) {
+					newRateLimiter.setRate(hostRate, hostBurst);
+				}
+				return newRateLimiter;
+			});
+		}
+	}
+
+	/*
+	 * Same as OkHttp's default, but with daemon threads, so a forgotten close does not keep the JVM alive.
+	 */
+	static private ExecutorService createDispatcherExecutorService() {
+		AtomicInteger threadCnt = new AtomicInteger(0);
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), (runnable) -> {
+			Thread thread = new Thread(runnable, "TeslaTransport Dispatcher " + threadCnt.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/*
+	 * For delayed actions, like the next attempt of a wake up. 
+	 * The scheduled tasks only start calls, so a single thread suffices for many vehicles.
+	 */
+	static private ScheduledExecutorService createScheduler() {
+		ScheduledThreadPoolExecutor scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, (runnable) -> {
+			Thread thread = new Thread(runnable, "TeslaTransport Scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true); // cancelled wake ups should not linger
+		return scheduledThreadPoolExecutor;
+	}
+
+	/**
+	 * Register an additional user of this transport
+	 */
+	TeslaTransport retain() {
+		int cnt = referenceCount.getAndUpdate(c -> c == 0 ? 0 : c + 1);
+		if (cnt == 0) {
+			throw new IllegalStateException("Transport is already closed");
+		}
+		return this;
+	}
+
+	/**
+	 * Unregister a user of this transport, the last one out turns off the lights
+	 */
+	void release() {
+		int cnt = referenceCount.updateAndGet(c -> c == 0 ? 0 : c - 1);
+		if (cnt == 0) {
+			logger.debug("Closing transport {}", this);
+			okHttpClient.dispatcher().executorService().shutdown();
+			scheduler.shutdownNow();
+			okHttpClient.connectionPool().evictAll();
+		}
+	}
+
+	/**
+	 * Release the creator's reference
+	 */
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			release();
+		}
+	}
+
+	/**
+	 * @return the number of TeslaAPI instances (plus the creator, if it has not closed yet) using this transport
+	 */
+	public int getReferenceCount() {
+		return referenceCount.get();
+	}
+
+	/**
+	 * @return the number of open connections (sockets) in the shared pool
+	 */
+	public int getConnectionCount() {
+		return okHttpClient.connectionPool().connectionCount();
+	}
+}
@@ -0,0 +1,46 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import org.tbee.tesla.dto.Tokens;
+
+/**
+ * Persists the tokens of accounts, so after a restart they do not need to login again.
+ * See TeslaAPI.setTokenStore, and FileTokenStore for an implementation.
+ * Implementations must be thread safe.
+ */
+public interface TokenStore {
+	
+	/**
+	 * @param accountId an identification of the account chosen by the caller, e.g. the username
+	 * @return null if the store has no tokens for the account
+	 */
+	Tokens load(String accountId);
+	
+	/**
+	 * Store (or replace) the tokens of an account
+	 */
+	void store(String accountId, Tokens tokens);
+	
+	/**
+	 * Forget the tokens of an account
+	 */
+	void remove(String accountId);
+}
@@ -0,0 +1,273 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tbee.tesla.dto.Vehicle;
+import org.tbee.tesla.dto.VehicleData;
+
+/**
+ * Periodically polls the vehicles of an account, without keeping them awake.
+ * 
+ * - Every poll first fetches the vehicles list, which does not wake up vehicles. 
+ *   Only for vehicles that are online, the data is fetched (using one vehicle_data request for all endpoints).
+ * - A vehicle that is online but idle (parked and not charging) for some time, is left alone for a while (the sleep window), so it gets a chance to fall asleep.
+ *   Otherwise the polling itself keeps it awake, draining the battery.
+ * - The listener is called for every vehicle on every poll, with null vehicle data if the data was not fetched.
+ * 
+ * Example usage:
+ * 		VehiclePoller vehiclePoller = new VehiclePoller(teslaAPI, (vehicle, vehicleData) -> ..., VehicleData.DRIVE_STATE, VehicleData.CHARGE_STATE);
+ * 		vehiclePoller.setIdleBeforeSleepWindow(Duration.ofMinutes(10));
+ * 		vehiclePoller.setSleepWindow(Duration.ofMinutes(20));
+ * 		vehiclePoller.start(Duration.ofMinutes(1));
+ * 		...
+ * 		vehiclePoller.close();
+ */
+public class VehiclePoller implements AutoCloseable {
+	static final Logger logger = LoggerFactory.getLogger(VehiclePoller.class);
+	
+	private final TeslaAPI teslaAPI;
+	private final BiConsumer<Vehicle, VehicleData> listener;
+	private final String[] endpoints;
+	private final LongSupplier clock;
+	private final Map<String, VehicleStatus> vehicleStatuses = new ConcurrentHashMap<>();
+	private final AtomicBoolean polling = new AtomicBoolean(false);
+	private volatile ScheduledFuture<?> scheduledFuture = null;
+	
+	// Settings
+	private volatile long idleBeforeSleepWindowInMS = Duration.ofMinutes(10).toMillis();
+	private volatile long sleepWindowInMS = Duration.ofMinutes(20).toMillis();
+	
+	// Statistics
+	private final AtomicLong pollCount = new AtomicLong();
+	private final AtomicLong dataCallCount = new AtomicLong();
+	private final AtomicLong avoidedByStateCount = new AtomicLong();
+	private final AtomicLong avoidedBySleepWindowCount = new AtomicLong();
+
+	
+	/**
+	 * @param listener called for every vehicle on every poll, vehicleData is null if it was not fetched 
+	 * @param endpoints the states to fetch, e.g. VehicleData.CHARGE_STATE; if none are specified, all are fetched. To detect idle vehicles, drive_state and charge_state are needed.
+	 */
+	public VehiclePoller(TeslaAPI teslaAPI, BiConsumer<Vehicle, VehicleData> listener, String... endpoints) {
+		this(teslaAPI, listener, System::currentTimeMillis, endpoints);
+	}
+	
+	/* for testing */
+	VehiclePoller(TeslaAPI teslaAPI, BiConsumer<Vehicle, VehicleData> listener, LongSupplier clock, String... endpoints) {
+		this.teslaAPI = teslaAPI;
+		this.listener = listener;
+		this.clock = clock;
+		this.endpoints = endpoints.clone();
+	}
+	
+	/**
+	 * How long an online vehicle must be parked and not charging, before it is left alone. Default is 10 minutes.
+	 */
+	public void setIdleBeforeSleepWindow(Duration v) {
+		idleBeforeSleepWindowInMS = v.toMillis();
+	}
+	public Duration getIdleBeforeSleepWindow() {
+		return Duration.ofMillis(idleBeforeSleepWindowInMS);
+	}
+	
+	/**
+	 * How long an idle vehicle is left alone, so it can fall asleep. Default is 20 minutes, zero disables the sleep window.
+	 */
+	public void setSleepWindow(Duration v) {
+		sleepWindowInMS = v.toMillis();
+	}
+	public Duration getSleepWindow() {
+		return Duration.ofMillis(sleepWindowInMS);
+	}
+	
+	/**
+	 * Poll periodically, on the transport's scheduler 
+	 */
+	public synchronized void start(Duration interval) {
+		if (scheduledFuture != null) {
+            throw new IllegalStateException("Already started");
+		}
+		scheduledFuture = teslaAPI.getTransport().scheduler.scheduleWithFixedDelay(() -> pollAsync(), 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stop polling
+	 */
+	@Override
+	public synchronized void close() {
+		if (scheduledFuture != null) {
+			scheduledFuture.cancel(false);
+			scheduledFuture = null;
+		}
+	}
+	
+	/**
+	 * Poll once. If the previous poll has not completed yet, this poll is skipped.
+	 * If the vehicles cannot be listed (e.g. HTTP 429 or 503), the poll fails and the vehicles keep their status (idle tracking and sleep window) until the next poll.
+	 * @return completes when all data is fetched and the listener was called
+	 */
+	public CompletableFuture<Void> pollAsync() {
+		if (!polling.compareAndSet(false, true)) {
+			logger.debug("{}Previous poll has not completed, skipping", teslaAPI.getLogPrefix());
+			return CompletableFuture.completedFuture(null);
+		}
+		pollCount.incrementAndGet();
+		CompletableFuture<Void> future;
+		try {
+			future = teslaAPI.getVehiclesOrFailAsync().thenCompose(this::pollVehiclesAsync); // an empty list on an error would forget all vehicles
+		}
+		catch (RuntimeException e) {
+			future = CompletableFuture.failedFuture(e);
+		}
+		return future.whenComplete((ignore, throwable) -> {
+			polling.set(false);
+			if (throwable != null) {
+				logger.warn(teslaAPI.getLogPrefix() + "Poll failed", throwable);
+			}
+		});
+	}
+	
+	/* */
+	private CompletableFuture<Void> pollVehiclesAsync(List<Vehicle> vehicles) {
+		long now = clock.getAsLong();
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (Vehicle vehicle : vehicles) {
+			VehicleStatus vehicleStatus = vehicleStatuses.computeIfAbsent(vehicle.id, (id) -> new VehicleStatus());
+			
+			// A vehicle that is asleep or offline, is not woken up
+			if (!vehicle.isOnline()) {
+				avoidedByStateCount.incrementAndGet();
+				vehicleStatus.reset();
+				notifyListener(vehicle, null);
+				continue;
+			}
+			
+			// Give the vehicle a chance to fall asleep
+			if (now < vehicleStatus.sleepWindowUntil) {
+				avoidedBySleepWindowCount.incrementAndGet();
+				notifyListener(vehicle, null);
+				continue;
+			}
+			
+			// Fetch the data
+			dataCallCount.incrementAndGet();
+			futures.add(teslaAPI.getVehicleDataAsync(vehicle.id, endpoints).thenAccept((vehicleData) -> {
+				updateIdle(vehicleStatus, vehicleData, now);
+				notifyListener(vehicle, vehicleData);
+			}));
+		}
+		
+		// Forget vehicles that are no longer in the account
+		List<String> ids = new ArrayList<>();
+		vehicles.forEach(vehicle -> ids.add(vehicle.id));
+		vehicleStatuses.keySet().retainAll(ids);
+		
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+	}
+	
+	/* */
+	private void updateIdle(VehicleStatus vehicleStatus, VehicleData vehicleData, long now) {
+		if (vehicleData == null || !isIdle(vehicleData)) {
+			vehicleStatus.idleSince = -1;
+			return;
+		}
+		if (vehicleStatus.idleSince < 0) {
+			vehicleStatus.idleSince = now;
+		}
+		if (sleepWindowInMS > 0 && now - vehicleStatus.idleSince >= idleBeforeSleepWindowInMS) {
+			vehicleStatus.sleepWindowUntil = now + sleepWindowInMS;
+			vehicleStatus.idleSince = -1; // if the vehicle is still awake after the window, it must be idle again for a while  
+		}
+	}
+	
+	/*
+	 * Parked (or no drive state) and not charging
+	 */
+	static boolean isIdle(VehicleData vehicleData) {
+		String shiftState = (vehicleData.driveState == null ? null : vehicleData.driveState.shiftState);
+		boolean parked = (shiftState == null || shiftState.isEmpty() || "P".equals(shiftState));
+		boolean charging = (vehicleData.chargeState != null && vehicleData.chargeState.isCharging());
+		return parked && !charging;
+	}
+	
+	/* */
+	private void notifyListener(Vehicle vehicle, VehicleData vehicleData) {
+		try {
+			listener.accept(vehicle, vehicleData);
+		}
+		catch (RuntimeException e) {
+			logger.warn(teslaAPI.getLogPrefix() + "Listener failed for " + vehicle.id, e);
+		}
+	}
+	
+	/**
+	 * @return the number of polls
+	 */
+	public long getPollCount() {
+		return pollCount.get();
+	}
+	
+	/**
+	 * @return the number of data requests made
+	 */
+	public long getDataCallCount() {
+		return dataCallCount.get();
+	}
+	
+	/**
+	 * @return the number of data requests not made, because the vehicles list showed the vehicle was not online
+	 */
+	public long getAvoidedByStateCount() {
+		return avoidedByStateCount.get();
+	}
+	
+	/**
+	 * @return the number of data requests not made, because the vehicle was given a chance to fall asleep
+	 */
+	public long getAvoidedBySleepWindowCount() {
+		return avoidedBySleepWindowCount.get();
+	}
+	
+	/* */
+	static private class VehicleStatus {
+		volatile long idleSince = -1;
+		volatile long sleepWindowUntil = 0;
+		
+		void reset() {
+			idleSince = -1;
+			sleepWindowUntil = 0;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tbee.tesla.dto.Vehicle;
+
+/**
+ * Caches the vehicles of an account, indexed by VIN and by id, so looking up a vehicle does not need a request.
+ * 
+ * - The list is refreshed on demand (refresh) or periodically (start). A lookup never makes a request, except for the very first one when nothing was loaded yet.
+ *   If a refresh fails, the previous list remains in use.
+ * - A refresh replaces the index atomically, lookups never see a partially refreshed state.
+ * - Vehicles that did not change are reused, so a caller can use == to detect a change.
+ * 
+ * Example usage:
+ * 		VehicleRegistry vehicleRegistry = new VehicleRegistry(teslaAPI);
+ * 		vehicleRegistry.start(Duration.ofMinutes(5));
+ * 		String vehicleId = vehicleRegistry.getByVIN(vin).id;
+ */
+public class VehicleRegistry implements AutoCloseable {
+	static final Logger logger = LoggerFactory.getLogger(VehicleRegistry.class);
+	
+	private final TeslaAPI teslaAPI;
+	private volatile Index index = null;
+	private final SingleFlight<String, Void> singleFlight = new SingleFlight<>(); // concurrent refreshes, e.g. many first lookups, share one request
+	private ScheduledFuture<?> scheduledFuture = null;
+	
+	// Statistics
+	private final AtomicLong refreshCount = new AtomicLong();
+	private final AtomicLong reusedCount = new AtomicLong();
+
+	
+	/**
+	 * 
+	 */
+	public VehicleRegistry(TeslaAPI teslaAPI) {
+		this.teslaAPI = teslaAPI;
+	}
+	
+	/**
+	 * Refresh periodically, on the transport's scheduler 
+	 */
+	public synchronized void start(Duration interval) {
+		if (scheduledFuture != null) {
+            throw new IllegalStateException("Already started");
+		}
+		scheduledFuture = teslaAPI.getTransport().scheduler.scheduleWithFixedDelay(() -> refreshAsync(), 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stop refreshing
+	 */
+	@Override
+	public synchronized void close() {
+		if (scheduledFuture != null) {
+			scheduledFuture.cancel(false);
+			scheduledFuture = null;
+		}
+	}
+	
+	/**
+	 * @return null if the VIN is not known
+	 */
+	public Vehicle getByVIN(String vin) {
+		return index().byVIN.get(vin);
+	}
+	
+	/**
+	 * @return null if the id is not known
+	 */
+	public Vehicle getById(String id) {
+		return index().byId.get(id);
+	}
+	
+	/**
+	 * @return all vehicles, in the order of the last refresh
+	 */
+	public List<Vehicle> getVehicles() {
+		return index().vehicles;
+	}
+	
+	/* */
+	private Index index() {
+		Index index = this.index;
+		if (index == null) {
+			refresh();
+			index = this.index;
+		}
+		return index;
+	}
+	
+	/**
+	 * Reload the vehicles list
+	 */
+	public void refresh() {
+		try {
+			refreshAsync().get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw (cause instanceof RuntimeException ? (RuntimeException)cause : new RuntimeException(cause));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Reload the vehicles list
+	 * @return completes when the index has been replaced
+	 */
+	public CompletableFuture<Void> refreshAsync() {
+		return singleFlight.execute("refresh", () -> teslaAPI.getVehiclesOrFailAsync().thenAccept(this::update)).whenComplete((ignore, throwable) -> {
+			if (throwable != null) {
+				logger.warn(teslaAPI.getLogPrefix() + "Refreshing the vehicles failed", throwable);
+			}
+		});
+	}
+	
+	/* */
+	private synchronized void update(List<Vehicle> vehicles) {
+		refreshCount.incrementAndGet();
+		Index oldIndex = this.index;
+		List<Vehicle> newVehicles = new ArrayList<>(vehicles.size());
+		for (Vehicle vehicle : vehicles) {
+			Vehicle oldVehicle = (oldIndex == null ? null : oldIndex.byId.get(vehicle.id));
+			if (oldVehicle != null && oldVehicle.jsonObject.equals(vehicle.jsonObject)) {
+				reusedCount.incrementAndGet();
+				vehicle = oldVehicle;
+			}
+			newVehicles.add(vehicle);
+		}
+		this.index = new Index(newVehicles);
+	}
+	
+	/**
+	 * @return the number of completed refreshes
+	 */
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+	
+	/**
+	 * @return the number of vehicles that were unchanged in a refresh
+	 */
+	public long getReusedCount() {
+		return reusedCount.get();
+	}
+	
+	/*
+	 * Immutable, so it can be replaced atomically
+	 */
+	static private class Index {
+		final List<Vehicle> vehicles;
+		final Map<String, Vehicle> byVIN = new HashMap<>();
+		final Map<String, Vehicle> byId = new HashMap<>();
+		
+		Index(List<Vehicle> vehicles) {
+			this.vehicles = Collections.unmodifiableList(vehicles);
+			for (Vehicle vehicle : vehicles) {
+				byVIN.put(vehicle.vin, vehicle);
+				byId.put(vehicle.id, vehicle);
+			}
+		}
+	}
+}
@@ -24,23 +24,36 @@ import com.google.gson.JsonObject;
 
 public class ChargeState {
 	private static final String BATTERY_LEVEL = "battery_level";
+	private static final String CHARGING_STATE = "charging_state";
 	final public Integer batteryLevel;
+	final public String chargingState; // e.g. "Disconnected", "Charging", "Complete"
 	final public JsonObject jsonObject;
 	
 	public ChargeState(JsonObject jsonObject) {
 		this.jsonObject = jsonObject;
 		this.batteryLevel = (jsonObject.get(BATTERY_LEVEL).isJsonNull() ? null : jsonObject.get(BATTERY_LEVEL).getAsInt());
+		this.chargingState = (!jsonObject.has(CHARGING_STATE) || jsonObject.get(CHARGING_STATE).isJsonNull() ? null : jsonObject.get(CHARGING_STATE).getAsString());
 	}
 	
 	public ChargeState(int batteryLevel) {
+		this(batteryLevel, null);
+	}
+	
+	public ChargeState(int batteryLevel, String chargingState) {
 		this.jsonObject = new JsonObject();
 		this.batteryLevel = batteryLevel;
+		this.chargingState = chargingState;
+	}
+	
+	public boolean isCharging() {
+		return "Charging".equalsIgnoreCase(chargingState);
 	}
 	
 	@Override
 	public String toString() {
 		return super.toString()
 		     + ", batteryLevel=" + batteryLevel
+		     + ", chargingState=" + chargingState
 		     + ", json=" + jsonObject;
 	}
 }
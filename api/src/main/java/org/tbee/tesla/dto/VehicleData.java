@@ -0,0 +1,71 @@
+package org.tbee.tesla.dto;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * The result of the vehicle_data call; multiple states in one request.
+ * A state is null if it was not requested (or not returned).
+ */
+public class VehicleData {
+	public static final String CHARGE_STATE = "charge_state";
+	public static final String CLIMATE_STATE = "climate_state";
+	public static final String DRIVE_STATE = "drive_state";
+	public static final String GUI_SETTINGS = "gui_settings";
+	
+	final public ChargeState chargeState;
+	final public ClimateState climateState;
+	final public DriveState driveState;
+	final public GUISettings guiSettings;
+	final public JsonObject jsonObject;
+	
+	public VehicleData(JsonObject jsonObject) {
+		this.jsonObject = jsonObject;
+		this.chargeState = (isObject(jsonObject, CHARGE_STATE) ? new ChargeState(jsonObject.getAsJsonObject(CHARGE_STATE)) : null);
+		this.climateState = (isObject(jsonObject, CLIMATE_STATE) ? new ClimateState(jsonObject.getAsJsonObject(CLIMATE_STATE)) : null);
+		this.driveState = (isObject(jsonObject, DRIVE_STATE) ? new DriveState(jsonObject.getAsJsonObject(DRIVE_STATE)) : null);
+		this.guiSettings = (isObject(jsonObject, GUI_SETTINGS) ? new GUISettings(jsonObject.getAsJsonObject(GUI_SETTINGS)) : null);
+	}
+	
+	public VehicleData(ChargeState chargeState, ClimateState climateState, DriveState driveState, GUISettings guiSettings) {
+		this.jsonObject = new JsonObject();
+		this.chargeState = chargeState;
+		this.climateState = climateState;
+		this.driveState = driveState;
+		this.guiSettings = guiSettings;
+	}
+	
+	private static boolean isObject(JsonObject jsonObject, String name) {
+		JsonElement jsonElement = jsonObject.get(name);
+		return jsonElement != null && jsonElement.isJsonObject();
+	}
+	
+	@Override
+	public String toString() {
+		return super.toString()
+		     + ", chargeState=" + (chargeState != null)
+		     + ", climateState=" + (climateState != null)
+		     + ", driveState=" + (driveState != null)
+		     + ", guiSettings=" + (guiSettings != null);
+	}
+}
@@ -0,0 +1,108 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.Tokens;
+
+public class CommandPipelineTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void prepareCarTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			CommandPipeline commandPipeline = new CommandPipeline()
+					.wakeUp(10_000, 100)
+					.stage(Command.setTemps(21.0, 21.0))
+					.stage(Command.startAutoConditioning(), Command.heatSeat(0, 3), Command.heatSeat(1, 3), Command.heatSteeringWheel(true));
+			
+			// WHEN
+			List<CommandResult> commandResults = teslaAPI.doCommands("1", commandPipeline);
+			
+			// THEN
+			Assert.assertEquals(5, commandResults.size());
+			Assert.assertEquals("set_temps", commandResults.get(0).command.name);
+			Assert.assertEquals("remote_steering_wheel_heater_request", commandResults.get(4).command.name);
+			commandResults.forEach(commandResult -> Assert.assertTrue(commandResult.isOk()));
+			Assert.assertEquals(2 + 5, localOwnerAPI.getRequestCount()); // wake_up + drive_state + commands
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void wakeUpSleepTimeTest() {
+		// GIVEN
+		CommandPipeline commandPipeline = new CommandPipeline();
+		
+		// WHEN THEN wake up attempts without a pause in between are rejected
+		for (int sleepTimeInMS : new int[] {0, -1}) {
+			try {
+				commandPipeline.wakeUp(10_000, sleepTimeInMS);
+				Assert.fail("should fail");
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		Assert.assertFalse(commandPipeline.isWakeUp());
+		Assert.assertTrue(commandPipeline.wakeUp(10_000, 1).isWakeUp());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void failingCommandTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			CommandPipeline commandPipeline = new CommandPipeline()
+					.stage(Command.flashLights())
+					.stage(new Command("../unknown", ""))
+					.stage(Command.lockDoors());
+			
+			// WHEN
+			List<CommandResult> commandResults = teslaAPI.doCommands("1", commandPipeline);
+			
+			// THEN the failure does not stop the pipeline
+			Assert.assertTrue(commandResults.get(0).isOk());
+			Assert.assertEquals("request failed with HTTP 404", commandResults.get(1).reason);
+			Assert.assertTrue(commandResults.get(2).isOk());
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.slf4j.helpers.NOPMDCAdapter;
+import org.tbee.tesla.dto.DriveState;
+import org.tbee.tesla.dto.Tokens;
+
+/**
+ * Many threads using one TeslaAPI at the same time, while the tokens are replaced underneath them.
+ */
+public class ConcurrencyStressTest {
+
+	static final int THREADS = 16;
+	static final int CALLS_PER_THREAD = 100;
+
+	/**
+	 * 
+	 */
+	@Test
+	public void credentialsTest() throws Exception {
+		ExecutorService executorService = Executors.newFixedThreadPool(THREADS + 1);
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setCoalesceRequests(false);
+			teslaAPI.setTokens(new Tokens("A0", "R0"));
+			Set<String> authorizationHeaders = ConcurrentHashMap.newKeySet();
+			authorizationHeaders.add("Bearer A0");
+			CountDownLatch startLatch = new CountDownLatch(1);
+			
+			// WHEN many threads make requests, while another thread keeps replacing the tokens
+			List<Future<Integer>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(executorService.submit(() -> {
+					startLatch.await();
+					int okCnt = 0;
+					for (int j = 0; j < CALLS_PER_THREAD; j++) {
+						DriveState driveState = (j % 2 == 0 ? teslaAPI.getDriveState("1") : teslaAPI.getDriveStateAsync("1").get());
+						okCnt += ("P".equals(driveState.shiftState) ? 1 : 0);
+					}
+					return okCnt;
+				}));
+			}
+			Future<?> swapFuture = executorService.submit(() -> {
+				startLatch.await();
+				for (int i = 1; i <= 200; i++) {
+					authorizationHeaders.add("Bearer A" + i);
+					teslaAPI.setTokens(new Tokens("A" + i, "R" + i));
+				}
+				return null;
+			});
+			startLatch.countDown();
+			
+			// THEN all requests succeeded and only ever used tokens that were actually set
+			for (Future<Integer> future : futures) {
+				Assert.assertEquals(CALLS_PER_THREAD, future.get(30, TimeUnit.SECONDS).intValue());
+			}
+			swapFuture.get(30, TimeUnit.SECONDS);
+			Assert.assertTrue(authorizationHeaders.containsAll(localOwnerAPI.getAuthorizationHeaders()));
+			Assert.assertEquals("A200", teslaAPI.getTokens().accessToken);
+			Assert.assertEquals("R200", teslaAPI.getTokens().refreshToken);
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void unauthorizedTest() throws Exception {
+		ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN the refresh provides whatever access token the server accepts
+			AtomicInteger refreshCount = new AtomicInteger(0);
+			AtomicInteger round = new AtomicInteger(0);
+			teslaAPI.setTokensRefresher((tokens) -> {
+				refreshCount.incrementAndGet();
+				return new Tokens("A" + round.get(), tokens.refreshToken);
+			});
+			teslaAPI.setTokens(new Tokens("A0", "R"));
+			teslaAPI.setCoalesceRequests(false);
+			
+			for (int i = 1; i <= 10; i++) {
+				// WHEN the server revokes the access token, and many threads hit that at the same time
+				round.set(i);
+				localOwnerAPI.setAccessToken("A" + i);
+				CountDownLatch startLatch = new CountDownLatch(1);
+				List<Future<DriveState>> futures = new ArrayList<>();
+				for (int j = 0; j < THREADS * 4; j++) {
+					futures.add(executorService.submit(() -> {
+						startLatch.await();
+						return teslaAPI.getDriveState("1");
+					}));
+				}
+				startLatch.countDown();
+				
+				// THEN all succeed with one refresh per revocation
+				for (Future<DriveState> future : futures) {
+					Assert.assertEquals("P", future.get(30, TimeUnit.SECONDS).shiftState);
+				}
+				Assert.assertEquals(i, refreshCount.get());
+				Assert.assertEquals("A" + i, teslaAPI.getTokens().accessToken);
+			}
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void logContextTest() throws Exception {
+		if (MDC.getMDCAdapter() == null || MDC.getMDCAdapter() instanceof NOPMDCAdapter) {
+			return; // no slf4j binding with MDC support on the classpath, nothing to propagate
+		}
+		ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(1);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setCoalesceRequests(false); // coalesced callers share the handling of the first caller, and thus its context
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			CountDownLatch startLatch = new CountDownLatch(1);
+			
+			// WHEN every call is made with its own MDC
+			List<Future<List<String>>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				String threadId = "t" + i;
+				futures.add(executorService.submit(() -> {
+					startLatch.await();
+					List<CompletableFuture<String>> callFutures = new ArrayList<>();
+					for (int j = 0; j < CALLS_PER_THREAD; j++) {
+						String callId = threadId + "-" + j;
+						String vehicleId = "" + j;
+						MDC.put("call", callId);
+						callFutures.add(teslaAPI.getDriveStateAsync(vehicleId).thenApply((driveState) -> {
+							String mdcCallId = MDC.get("call");
+							String mdcVehicleId = MDC.get(LogContext.MDC_VEHICLE_ID);
+							return (callId.equals(mdcCallId) && vehicleId.equals(mdcVehicleId) ? "" : callId + " got " + mdcCallId + "/" + mdcVehicleId);
+						}));
+						MDC.remove("call");
+					}
+					List<String> errors = new ArrayList<>();
+					for (CompletableFuture<String> callFuture : callFutures) {
+						String error = callFuture.get();
+						if (!error.isEmpty()) {
+							errors.add(error);
+						}
+					}
+					return errors;
+				}));
+			}
+			startLatch.countDown();
+			
+			// THEN the response of each call was handled with the context of that call, also when handled on a dispatcher thread
+			for (Future<List<String>> future : futures) {
+				Assert.assertEquals(List.of(), future.get(30, TimeUnit.SECONDS));
+			}
+		}
+		finally {
+			executorService.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.ChargeState;
+import org.tbee.tesla.dto.DriveState;
+
+import com.google.gson.JsonObject;
+
+public class DtoRegistryTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void standardDtoTest() {
+		// GIVEN
+		JsonObject jsonObject = new JsonObject();
+		jsonObject.addProperty("shift_state", "D");
+		
+		// WHEN
+		DriveState driveState = DtoRegistry.factory("drive_state", DriveState.class).apply(jsonObject);
+		
+		// THEN
+		Assert.assertEquals("D", driveState.shiftState);
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void thirdPartyDtoTest() {
+		// GIVEN
+		DtoRegistry.register("vehicle_state", VehicleState.class, VehicleState::new);
+		JsonObject jsonObject = new JsonObject();
+		jsonObject.addProperty("locked", true);
+		
+		// WHEN
+		VehicleState vehicleState = DtoRegistry.factory("vehicle_state", VehicleState.class).apply(jsonObject);
+		
+		// THEN
+		Assert.assertTrue(vehicleState.locked);
+	}
+	static class VehicleState {
+		final boolean locked;
+		VehicleState(JsonObject jsonObject) {
+			locked = jsonObject.get("locked").getAsBoolean();
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void wrongTypeTest() {
+		DtoRegistry.factory("drive_state", ChargeState.class);
+	}
+
+	/**
+	 * 
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void notRegisteredTest() {
+		DtoRegistry.factory("does_not_exist", ChargeState.class);
+	}
+}
@@ -0,0 +1,89 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.tbee.tesla.dto.ChargeState;
+import org.tbee.tesla.dto.Tokens;
+
+/**
+ * Runs 10k concurrent blocking getChargeState calls against a LocalOwnerAPI, once on a bounded platform pool and once on the per-task executor.
+ * The per-task executor only uses virtual threads when running on Java 21+ from the (multi-release) jar, e.g.:
+ * 		java -cp target/TeslaAPI-3.0.0-SNAPSHOT.jar:target/test-classes:... org.tbee.tesla.ExecutionModeBenchmark
+ */
+public class ExecutionModeBenchmark {
+	
+	static final int NUMBER_OF_CALLS = 10_000;
+	static final int SERVER_DELAY_IN_MS = 50;
+	static final int MAX_CONCURRENT_REQUESTS = 1_000;
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("java " + System.getProperty("java.version") + ", virtual threads supported: " + TeslaExecutors.isVirtualThreadsSupported());
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(SERVER_DELAY_IN_MS);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			teslaTransport.setMaxConcurrentRequests(MAX_CONCURRENT_REQUESTS);
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			
+			// warmup
+			run(teslaAPI, TeslaExecutors.newBoundedExecutor(TeslaExecutors.DEFAULT_POOL_SIZE), NUMBER_OF_CALLS / 10);
+			
+			// measure
+			report("bounded platform pool", run(teslaAPI, TeslaExecutors.newBoundedExecutor(TeslaExecutors.DEFAULT_POOL_SIZE), NUMBER_OF_CALLS));
+			report(TeslaExecutors.isVirtualThreadsSupported() ? "virtual thread per task" : "per task (fallback)", run(teslaAPI, TeslaExecutors.newPerTaskExecutor(), NUMBER_OF_CALLS));
+		}
+	}
+	
+	/* */
+	static long[] run(TeslaAPI teslaAPI, ExecutorService executorService, int numberOfCalls) throws Exception {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		threadMXBean.resetPeakThreadCount();
+		long startNanos = System.nanoTime();
+		List<Future<ChargeState>> futures = new ArrayList<>();
+		for (int i = 0; i < numberOfCalls; i++) {
+			String vehicleId = "" + i;
+			futures.add(executorService.submit(() -> teslaAPI.getChargeState(vehicleId)));
+		}
+		int failed = 0;
+		for (Future<ChargeState> future : futures) {
+			if (future.get() == null) {
+				failed++;
+			}
+		}
+		long durationNanos = System.nanoTime() - startNanos;
+		executorService.shutdown();
+		return new long[] {durationNanos, threadMXBean.getPeakThreadCount(), failed};
+	}
+	
+	/* */
+	static void report(String label, long[] result) {
+		long durationMs = result[0] / 1_000_000;
+		System.out.println(String.format("%-25s calls=%d duration=%,d ms throughput=%,d calls/s peak platform threads=%d failed=%d", label, NUMBER_OF_CALLS, durationMs, NUMBER_OF_CALLS * 1000L / Math.max(1, durationMs), result[1], result[2]));
+	}
+}
@@ -0,0 +1,203 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.tbee.tesla.dto.Tokens;
+
+public class FileTokenStoreTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void reopenTest() throws Exception {
+		// GIVEN
+		Path path = Files.createTempFile("tokens", ".dat");
+		Instant createdAt = Instant.ofEpochMilli(1_600_000_000_000L);
+		try (
+			FileTokenStore fileTokenStore = new FileTokenStore(path);
+		) {
+			fileTokenStore.store("account1", new Tokens("A1", "R1", createdAt, 3600));
+			fileTokenStore.store("account2", new Tokens("A2", "R2"));
+			fileTokenStore.store("account1", new Tokens("A1b", "R1", createdAt, 3600));
+			fileTokenStore.store("account3", new Tokens("A3", "R3"));
+			fileTokenStore.remove("account3");
+		}
+		
+		// WHEN
+		try (
+			FileTokenStore fileTokenStore = new FileTokenStore(path);
+		) {
+			// THEN
+			Assert.assertEquals("A1b", fileTokenStore.load("account1").accessToken);
+			Assert.assertEquals(createdAt.plusSeconds(3600), fileTokenStore.load("account1").expiresAt);
+			Assert.assertEquals("R2", fileTokenStore.load("account2").refreshToken);
+			Assert.assertNull(fileTokenStore.load("account2").expiresAt);
+			Assert.assertNull(fileTokenStore.load("account3"));
+			Assert.assertEquals(2, fileTokenStore.size());
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void incompleteRecordTest() throws Exception {
+		// GIVEN a crash while writing the last record
+		Path path = Files.createTempFile("tokens", ".dat");
+		try (
+			FileTokenStore fileTokenStore = new FileTokenStore(path);
+		) {
+			fileTokenStore.store("account1", new Tokens("A1", "R1"));
+			fileTokenStore.store("account2", new Tokens("A2", "R2"));
+		}
+		long size = Files.size(path);
+		byte[] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length - 3), StandardOpenOption.TRUNCATE_EXISTING);
+		
+		// WHEN
+		try (
+			FileTokenStore fileTokenStore = new FileTokenStore(path);
+		) {
+			// THEN the incomplete record is dropped, and the store can be used
+			Assert.assertEquals("A1", fileTokenStore.load("account1").accessToken);
+			Assert.assertNull(fileTokenStore.load("account2"));
+			fileTokenStore.store("account2", new Tokens("A2", "R2"));
+		}
+		try (
+			FileTokenStore fileTokenStore = new FileTokenStore(path);
+		) {
+			Assert.assertEquals("A2", fileTokenStore.load("account2").accessToken);
+			Assert.assertEquals(size, Files.size(path));
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void compactionTest() throws Exception {
+		// GIVEN
+		Path path = Files.createTempFile("tokens", ".dat");
+		try (
+			FileTokenStore fileTokenStore = new FileTokenStore(path);
+		) {
+			fileTokenStore.setForceWrites(false);
+			
+			// WHEN refreshing the same accounts many times
+			for (int i = 0; i < 5000; i++) {
+				fileTokenStore.store("account" + (i % 10), new Tokens("A" + i, "R"));
+			}
+		}
+		
+		// THEN the file only contains a fraction of the records 
+		try (
+			FileTokenStore fileTokenStore = new FileTokenStore(path);
+		) {
+			Assert.assertEquals("A4999", fileTokenStore.load("account9").accessToken);
+			Assert.assertTrue(Files.size(path) < 1000 * 30);
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void permissionsTest() throws Exception {
+		// GIVEN a file system with POSIX permissions, and a store that does not exist yet
+		Path directory = Files.createTempDirectory("tokens");
+		Path path = directory.resolve("tokens.dat");
+		Assume.assumeTrue(path.getFileSystem().supportedFileAttributeViews().contains("posix"));
+		try (
+			FileTokenStore fileTokenStore = new FileTokenStore(path);
+		) {
+			fileTokenStore.setForceWrites(false);
+			
+			// WHEN it is created and compacted
+			fileTokenStore.store("account1", new Tokens("A1", "R1"));
+			Assert.assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+			for (int i = 0; i < 2000; i++) {
+				fileTokenStore.store("account1", new Tokens("A" + i, "R1"));
+			}
+			
+			// THEN only the owner can read the refresh tokens
+			Assert.assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+			try (
+				Stream<Path> files = Files.list(directory);
+			) {
+				Assert.assertEquals(1, files.count()); // no temporary file left
+			}
+		}
+		finally {
+			Files.delete(path);
+			Files.delete(directory);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void teslaAPITest() throws Exception {
+		Path path = Files.createTempFile("tokens", ".dat");
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			FileTokenStore fileTokenStore = new FileTokenStore(path);
+		) {
+			// GIVEN
+			fileTokenStore.store("account1", new Tokens("A1", "R1"));
+			teslaAPI.setTokenStore(fileTokenStore, "account1");
+			teslaAPI.setTokensRefresher((tokens) -> new Tokens("A2", tokens.refreshToken));
+			
+			// WHEN
+			teslaAPI.getVehicles();
+			teslaAPI.refreshTokens();
+			
+			// THEN the tokens were loaded on first use, and written back after the refresh
+			Assert.assertEquals("A2", fileTokenStore.load("account1").accessToken);
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
+}
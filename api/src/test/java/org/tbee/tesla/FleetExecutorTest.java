@@ -0,0 +1,112 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.Tokens;
+
+public class FleetExecutorTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void fanOutTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(20);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI1 = new TeslaAPI(teslaTransport);
+			TeslaAPI teslaAPI2 = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI1.setTokens(new Tokens("A1", "R1"));
+			teslaAPI2.setTokens(new Tokens("A2", "R2"));
+			List<FleetExecutor.Target> targets = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				targets.add(new FleetExecutor.Target(i % 5 == 0 ? teslaAPI2 : teslaAPI1, "" + i));
+			}
+			ConcurrentHashMap<String, FleetExecutor.Result> results = new ConcurrentHashMap<>();
+			
+			// WHEN
+			FleetStatistics fleetStatistics = new FleetExecutor(8, 3).execute(targets, Command.setSentryMode(true), (result) -> results.put(result.target.vehicleId, result));
+			
+			// THEN
+			Assert.assertEquals(50, results.size());
+			Assert.assertEquals(50, fleetStatistics.successCount);
+			Assert.assertEquals(0, fleetStatistics.failureCount);
+			Assert.assertTrue(fleetStatistics.getLatencyPercentileInNanos(50.0) > 0);
+			Assert.assertEquals(50, localOwnerAPI.getRequestCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void limitsTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(20);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			List<FleetExecutor.Target> targets = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				targets.add(new FleetExecutor.Target(teslaAPI, "" + i));
+			}
+			
+			// WHEN
+			FleetStatistics fleetStatistics = new FleetExecutor(10, 2).execute(targets, Command.flashLights(), null);
+			
+			// THEN the per account limit is the lowest
+			Assert.assertEquals(20, fleetStatistics.successCount);
+			Assert.assertEquals(2, localOwnerAPI.getMaxConcurrentRequestCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void failureTest() throws Exception {
+		// GIVEN
+		try (
+			TeslaAPI teslaAPI = new TeslaAPI(); // no tokens
+		) {
+			List<FleetExecutor.Target> targets = new ArrayList<>();
+			for (int i = 0; i < 10_000; i++) {
+				targets.add(new FleetExecutor.Target(teslaAPI, "" + i));
+			}
+			
+			// WHEN
+			FleetStatistics fleetStatistics = new FleetExecutor(100, 10).execute(targets, Command.flashLights(), null);
+			
+			// THEN
+			Assert.assertEquals(10_000, fleetStatistics.failureCount);
+		}
+	}
+}
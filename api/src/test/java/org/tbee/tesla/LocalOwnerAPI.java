@@ -0,0 +1,209 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A minimal in-process stand-in for the owner API, serving canned responses, for benchmarks and tests that should not touch Tesla.
+ */
+public class LocalOwnerAPI implements AutoCloseable {
+
+	static final String VEHICLES = "{\"response\":[{\"id\":12345678901234567,\"vehicle_id\":1234567890,\"vin\":\"5YJ3E7EB0KF000001\",\"display_name\":\"Tarah\",\"option_codes\":\"AD15,MDL3,PBSB,RENA,BT37,ID3W,RF3G,S3PB,DRLH,DV2W,W39B,APF0,COUS,BC3B,CH07,PC30,FC3P,FG31,GLFR,HL31,HM31,IL31,LTPB,MR31,FM3B,RS3H,SA3P,STCP,SC04,SU3C,T3CA,TW00,TM00,UT3P,WR00,AU3P,APH3,AF00,ZCST,MI00,CDM0\",\"color\":null,\"access_type\":\"OWNER\",\"tokens\":[\"1234567890abcdef\",\"abcdef1234567890\"],\"state\":\"online\",\"in_service\":false,\"id_s\":\"12345678901234567\",\"calendar_enabled\":true,\"api_version\":13,\"backseat_token\":null,\"backseat_token_updated_at\":null}],\"count\":1}";
+	static final String CHARGE_STATE = "{\"response\":{\"battery_heater_on\":false,\"battery_level\":64,\"battery_range\":167.96,\"charge_current_request\":48,\"charge_current_request_max\":48,\"charge_enable_request\":true,\"charge_energy_added\":12.41,\"charge_limit_soc\":90,\"charge_limit_soc_max\":100,\"charge_limit_soc_min\":50,\"charge_limit_soc_std\":90,\"charge_miles_added_ideal\":50.0,\"charge_miles_added_rated\":50.0,\"charge_port_cold_weather_mode\":false,\"charge_port_door_open\":false,\"charge_port_latch\":\"Engaged\",\"charge_rate\":0.0,\"charge_to_max_range\":false,\"charger_actual_current\":0,\"charger_phases\":null,\"charger_pilot_current\":48,\"charger_power\":0,\"charger_voltage\":0,\"charging_state\":\"Disconnected\",\"conn_charge_cable\":\"<invalid>\",\"est_battery_range\":118.38,\"fast_charger_brand\":\"<invalid>\",\"fast_charger_present\":false,\"fast_charger_type\":\"<invalid>\",\"ideal_battery_range\":167.96,\"managed_charging_active\":false,\"managed_charging_start_time\":null,\"managed_charging_user_canceled\":false,\"max_range_charge_counter\":0,\"minutes_to_full_charge\":0,\"not_enough_power_to_heat\":null,\"scheduled_charging_pending\":false,\"scheduled_charging_start_time\":null,\"time_to_full_charge\":0.0,\"timestamp\":1565873014580,\"trip_charging\":false,\"usable_battery_level\":64,\"user_charge_enable_request\":null}}";
+	static final String CLIMATE_STATE = "{\"response\":{\"battery_heater\":false,\"battery_heater_no_power\":null,\"climate_keeper_mode\":\"off\",\"defrost_mode\":0,\"driver_temp_setting\":21.6,\"fan_status\":0,\"inside_temp\":null,\"is_auto_conditioning_on\":null,\"is_climate_on\":false,\"is_front_defroster_on\":false,\"is_preconditioning\":false,\"is_rear_defroster_on\":false,\"left_temp_direction\":null,\"max_avail_temp\":28.0,\"min_avail_temp\":15.0,\"outside_temp\":null,\"passenger_temp_setting\":21.6,\"remote_heater_control_enabled\":false,\"right_temp_direction\":null,\"seat_heater_left\":0,\"seat_heater_right\":0,\"side_mirror_heaters\":false,\"timestamp\":1565873014580,\"wiper_blade_heater\":false}}";
+	static final String DRIVE_STATE = "{\"response\":{\"gps_as_of\":1565873014,\"heading\":71,\"latitude\":51.823154,\"longitude\":5.786151,\"native_latitude\":51.823154,\"native_location_supported\":1,\"native_longitude\":5.786151,\"native_type\":\"wgs\",\"power\":0,\"shift_state\":\"P\",\"speed\":null,\"timestamp\":1565873014580}}";
+	static final String GUI_SETTINGS = "{\"response\":{\"gui_24_hour_time\":true,\"gui_charge_rate_units\":\"km/hr\",\"gui_distance_units\":\"km/hr\",\"gui_range_display\":\"Rated\",\"gui_temperature_units\":\"C\",\"show_range_units\":false,\"timestamp\":1565873014580}}";
+	static final String VEHICLE_DATA = "{\"response\":{\"id\":12345678901234567,\"vin\":\"5YJ3E7EB0KF000001\",\"state\":\"online\""
+			+ ",\"charge_state\":" + inner(CHARGE_STATE)
+			+ ",\"climate_state\":" + inner(CLIMATE_STATE)
+			+ ",\"drive_state\":" + inner(DRIVE_STATE)
+			+ ",\"gui_settings\":" + inner(GUI_SETTINGS)
+			+ "}}";
+	static final String COMMAND = "{\"response\":{\"reason\":\"\",\"result\":true}}";
+	static final String WAKE_UP = "{\"response\":{\"id\":12345678901234567,\"state\":\"online\"}}";
+	static final String TOKEN = "{\"access_token\":\"SecretRefreshedAccessToken\",\"token_type\":\"bearer\",\"expires_in\":3888000,\"created_at\":1565873014}";
+
+	/* strip the {"response": ... } */
+	static private String inner(String response) {
+		return response.substring("{\"response\":".length(), response.length() - 1);
+	}
+
+	private final HttpServer httpServer;
+	private final ExecutorService executorService;
+	private final AtomicInteger requestCount = new AtomicInteger(0);
+	private final AtomicInteger concurrentRequestCount = new AtomicInteger(0);
+	private final AtomicInteger maxConcurrentRequestCount = new AtomicInteger(0);
+	private final AtomicInteger throttleCount = new AtomicInteger(0);
+	private volatile String vehicleState = "online";
+	private volatile String accessToken = null;
+	private final Set<String> authorizationHeaders = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param delayInMS how long each response takes, to simulate the latency of the real API
+	 */
+	public LocalOwnerAPI(int delayInMS) throws IOException {
+		httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1000);
+		httpServer.createContext("/", exchange -> handle(exchange, delayInMS));
+		executorService = Executors.newCachedThreadPool();
+		httpServer.setExecutor(executorService);
+		httpServer.start();
+	}
+
+	/**
+	 * @return the url base to construct a TeslaTransport with
+	 */
+	public String getUrlBase() {
+		return "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/";
+	}
+
+	/**
+	 * @return the number of requests received
+	 */
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return the highest number of requests that were being handled at the same time
+	 */
+	public int getMaxConcurrentRequestCount() {
+		return maxConcurrentRequestCount.get();
+	}
+
+	/**
+	 * @param state the state the vehicles list reports, e.g. "asleep"
+	 */
+	public void setVehicleState(String state) {
+		vehicleState = state;
+	}
+
+	/**
+	 * @param accessToken only accept requests with this access token, others get HTTP 401; null accepts all
+	 */
+	public void setAccessToken(String accessToken) {
+		this.accessToken = accessToken;
+	}
+
+	/**
+	 * @return the distinct authorization headers that were received
+	 */
+	public Set<String> getAuthorizationHeaders() {
+		return authorizationHeaders;
+	}
+
+	/**
+	 * Answer the next requests with HTTP 429 and a Retry-After of 0 seconds
+	 * @param count the number of requests to throttle
+	 */
+	public void throttle(int count) {
+		throttleCount.set(count);
+	}
+
+	/* */
+	private void handle(HttpExchange exchange, int delayInMS) throws IOException {
+		requestCount.incrementAndGet();
+		String authorizationHeader = exchange.getRequestHeaders().getFirst("Authorization");
+		if (authorizationHeader != null) {
+			authorizationHeaders.add(authorizationHeader);
+		}
+		maxConcurrentRequestCount.accumulateAndGet(concurrentRequestCount.incrementAndGet(), Math::max);
+		try {
+			respond(exchange, delayInMS);
+		}
+		finally {
+			concurrentRequestCount.decrementAndGet();
+		}
+	}
+
+	/* */
+	private void respond(HttpExchange exchange, int delayInMS) throws IOException {
+		exchange.getRequestBody().readAllBytes();
+		if (delayInMS > 0) {
+			try {
+				Thread.sleep(delayInMS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (throttleCount.getAndUpdate(c -> c > 0 ? c - 1 : 0) > 0) {
+			exchange.getResponseHeaders().add("Retry-After", "0");
+			exchange.sendResponseHeaders(429, -1);
+			exchange.close();
+			return;
+		}
+
+		String path = exchange.getRequestURI().getPath();
+		if (path.endsWith("/oauth2/v1/token")) {
+			respond(exchange, 200, TOKEN);
+			return;
+		}
+
+		String accessToken = this.accessToken;
+		if (accessToken != null && !("Bearer " + accessToken).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+			exchange.sendResponseHeaders(401, -1);
+			exchange.close();
+			return;
+		}
+
+		String content = path.endsWith("/charge_state") ? CHARGE_STATE
+		               : path.endsWith("/climate_state") ? CLIMATE_STATE
+		               : path.endsWith("/drive_state") ? DRIVE_STATE
+		               : path.endsWith("/gui_settings") ? GUI_SETTINGS
+		               : path.endsWith("/vehicle_data") ? VEHICLE_DATA
+		               : path.endsWith("/wake_up") ? WAKE_UP
+		               : path.contains("/command/") ? COMMAND
+		               : path.endsWith("/vehicles/") || path.endsWith("/vehicles") ? VEHICLES.replace("\"state\":\"online\"", "\"state\":\"" + vehicleState + "\"")
+		               : null;
+		respond(exchange, content == null ? 404 : 200, content == null ? "{\"error\":\"not found\"}" : content);
+	}
+
+	/* */
+	private void respond(HttpExchange exchange, int status, String content) throws IOException {
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (
+			OutputStream outputStream = exchange.getResponseBody();
+		) {
+			outputStream.write(bytes);
+		}
+	}
+
+	@Override
+	public void close() {
+		httpServer.stop(0);
+		executorService.shutdownNow();
+	}
+}
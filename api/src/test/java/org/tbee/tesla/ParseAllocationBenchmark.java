@@ -0,0 +1,120 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.tbee.tesla.dto.ChargeState;
+import org.tbee.tesla.dto.DriveState;
+import org.tbee.tesla.dto.Vehicle;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+/**
+ * Measures the bytes allocated per parsed response: the old way (body to String, String to JsonObject tree, DTO via reflection) versus the streaming ResponseParser.
+ * Run as a plain java main on a HotSpot JVM (it uses com.sun.management.ThreadMXBean).
+ */
+public class ParseAllocationBenchmark {
+	
+	static final int ITERATIONS = 100_000;
+	static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+	static final Gson gson = new Gson();
+	
+	public static void main(String[] args) throws Exception {
+		byte[] chargeState = LocalOwnerAPI.CHARGE_STATE.getBytes(StandardCharsets.UTF_8);
+		byte[] driveState = LocalOwnerAPI.DRIVE_STATE.getBytes(StandardCharsets.UTF_8);
+		byte[] vehicles = LocalOwnerAPI.VEHICLES.getBytes(StandardCharsets.UTF_8);
+		byte[] command = LocalOwnerAPI.COMMAND.getBytes(StandardCharsets.UTF_8);
+		
+		compare("charge_state", 
+				() -> oldState(ResponseBody.create(chargeState, JSON), ChargeState.class), 
+				() -> ResponseParser.parseObject(ResponseBody.create(chargeState, JSON), ChargeState::new));
+		compare("drive_state", 
+				() -> oldState(ResponseBody.create(driveState, JSON), DriveState.class), 
+				() -> ResponseParser.parseObject(ResponseBody.create(driveState, JSON), DriveState::new));
+		compare("vehicles", 
+				() -> oldVehicles(ResponseBody.create(vehicles, JSON)), 
+				() -> ResponseParser.parseArray(ResponseBody.create(vehicles, JSON), Vehicle::new));
+		compare("command", 
+				() -> oldCommand(ResponseBody.create(command, JSON)), 
+				() -> ResponseParser.parseCommandResponse(ResponseBody.create(command, JSON)).reason);
+	}
+	
+	/* the implementation before the streaming parser */
+	static <T> T oldState(ResponseBody responseBody, Class<T> clazz) throws Exception {
+		String responseBodyContent = responseBody.string();
+		JsonObject responseJsonObject = gson.fromJson(responseBodyContent, JsonObject.class);
+		responseJsonObject = responseJsonObject.get("response").getAsJsonObject();
+		return clazz.getConstructor(JsonObject.class).newInstance(responseJsonObject);
+	}
+	
+	/* the implementation before the streaming parser */
+	static List<Vehicle> oldVehicles(ResponseBody responseBody) throws Exception {
+		String responseBodyContent = responseBody.string();
+		JsonObject responseJsonObject = gson.fromJson(responseBodyContent, JsonObject.class);
+		List<Vehicle> vehicles = new ArrayList<>();
+		responseJsonObject.get("response").getAsJsonArray().forEach((jsonElement) -> vehicles.add(new Vehicle(jsonElement.getAsJsonObject())));
+		return vehicles;
+	}
+	
+	/* the implementation before the streaming parser */
+	static String oldCommand(ResponseBody responseBody) throws Exception {
+		String responseBodyContent = responseBody.string();
+		JsonObject responseJsonObject = gson.fromJson(responseBodyContent, JsonObject.class);
+		responseJsonObject = responseJsonObject.get("response").getAsJsonObject();
+		responseJsonObject.get("result").getAsBoolean();
+		return responseJsonObject.get("reason").getAsString();
+	}
+	
+	/* */
+	static void compare(String label, Callable<?> before, Callable<?> after) throws Exception {
+		long bytesBefore = allocatedBytesPerCall(before);
+		long bytesAfter = allocatedBytesPerCall(after);
+		System.out.println(String.format("%-15s before=%,7d bytes/call after=%,7d bytes/call (%d%%)", label, bytesBefore, bytesAfter, (bytesAfter * 100) / bytesBefore));
+	}
+	
+	/* */
+	static long allocatedBytesPerCall(Callable<?> callable) throws Exception {
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		
+		// warmup, so the JIT has done its work (e.g. escape analysis)
+		for (int i = 0; i < ITERATIONS; i++) {
+			callable.call();
+		}
+		
+		// measure
+		long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < ITERATIONS; i++) {
+			callable.call();
+		}
+		long allocatedAfter = threadMXBean.getThreadAllocatedBytes(threadId);
+		return (allocatedAfter - allocatedBefore) / ITERATIONS;
+	}
+}
@@ -0,0 +1,215 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.DriveState;
+import org.tbee.tesla.dto.Tokens;
+
+public class RateLimiterTest {
+	
+	static private final long SECOND = 1_000_000_000L;
+
+	/**
+	 * 
+	 */
+	@Test
+	public void unlimitedTest() {
+		// GIVEN
+		RateLimiter rateLimiter = new RateLimiter();
+		long now = System.nanoTime();
+		
+		// WHEN
+		long waitNanos = 0;
+		for (int i = 0; i < 1000; i++) {
+			waitNanos += rateLimiter.reserve(now);
+		}
+		
+		// THEN
+		Assert.assertEquals(0, waitNanos);
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void burstTest() {
+		// GIVEN
+		RateLimiter rateLimiter = new RateLimiter();
+		rateLimiter.setRate(2.0, 3);
+		long now = System.nanoTime() + 10 * SECOND;
+		
+		// WHEN
+		long wait1 = rateLimiter.reserve(now);
+		long wait2 = rateLimiter.reserve(now);
+		long wait3 = rateLimiter.reserve(now);
+		long wait4 = rateLimiter.reserve(now);
+		long wait5 = rateLimiter.reserve(now);
+		
+		// THEN the burst is immediate, after that 2 per second
+		Assert.assertEquals(0, wait1);
+		Assert.assertEquals(0, wait2);
+		Assert.assertEquals(0, wait3);
+		Assert.assertEquals(SECOND / 2, wait4);
+		Assert.assertEquals(SECOND, wait5);
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void throttledTest() {
+		// GIVEN
+		RateLimiter rateLimiter = new RateLimiter();
+		rateLimiter.setRate(10.0, 1);
+		long now = System.nanoTime() + 10 * SECOND;
+		
+		// WHEN
+		rateLimiter.throttled(now, 5 * SECOND);
+		
+		// THEN it pauses and halves the rate
+		Assert.assertEquals(5 * SECOND, rateLimiter.reserve(now));
+		Assert.assertEquals(5.0, rateLimiter.getCurrentRate(), 0.001);
+		Assert.assertEquals(1, rateLimiter.getThrottleEventCount());
+		
+		// and recovers slowly
+		for (int i = 0; i < 10; i++) {
+			rateLimiter.succeeded();
+		}
+		Assert.assertEquals(6.0, rateLimiter.getCurrentRate(), 0.001);
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void retryAfterTest() {
+		ZonedDateTime now = ZonedDateTime.of(2021, 10, 21, 7, 28, 0, 0, ZoneOffset.UTC);
+		Assert.assertEquals(Duration.ofSeconds(120), TeslaRateLimiting.retryAfter("120", now));
+		Assert.assertEquals(Duration.ofSeconds(30), TeslaRateLimiting.retryAfter("Thu, 21 Oct 2021 07:28:30 GMT", now));
+		Assert.assertEquals(TeslaRateLimiting.DEFAULT_RETRY_AFTER, TeslaRateLimiting.retryAfter(null, now));
+		Assert.assertEquals(TeslaRateLimiting.DEFAULT_RETRY_AFTER, TeslaRateLimiting.retryAfter("soon", now));
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void retryOn429Test() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			localOwnerAPI.throttle(2);
+			
+			// WHEN
+			DriveState driveState = teslaAPI.getDriveState("1");
+			
+			// THEN
+			Assert.assertEquals("P", driveState.shiftState);
+			Assert.assertEquals(3, localOwnerAPI.getRequestCount());
+			Assert.assertEquals(2, teslaAPI.getRateLimiting().getAccountRateLimiter().getThrottleEventCount());
+			Assert.assertEquals(0, teslaTransport.getHostRateLimiter("127.0.0.1").getThrottleEventCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void throttledAccountDoesNotSlowDownOthersTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI1 = new TeslaAPI(teslaTransport);
+			TeslaAPI teslaAPI2 = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN two accounts on a transport with a host limit of 20 requests per second
+			teslaTransport.setHostRateLimit(20.0, 1);
+			teslaAPI1.setTokens(new Tokens("A", "R"));
+			teslaAPI2.setTokens(new Tokens("A", "R"));
+			RateLimiter hostRateLimiter = teslaTransport.getHostRateLimiter("127.0.0.1");
+			
+			// WHEN the first account is throttled
+			localOwnerAPI.throttle(3);
+			teslaAPI1.getDriveState("1");
+			
+			// THEN only the first account backs off, the second one keeps the full rate: 10 requests take about 0.5 second, not 1 second
+			long startNanos = System.nanoTime();
+			for (int i = 0; i < 10; i++) {
+				Assert.assertEquals("P", teslaAPI2.getDriveState("1").shiftState);
+			}
+			long durationInMS = (System.nanoTime() - startNanos) / 1_000_000;
+			Assert.assertEquals(3, teslaAPI1.getRateLimiting().getAccountRateLimiter().getThrottleEventCount());
+			Assert.assertEquals(0, teslaAPI2.getRateLimiting().getAccountRateLimiter().getThrottleEventCount());
+			Assert.assertEquals(0, hostRateLimiter.getThrottleEventCount());
+			Assert.assertEquals(20.0, hostRateLimiter.getCurrentRate(), 0.001);
+			Assert.assertTrue("" + durationInMS, durationInMS < 750);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void throttledAccountDoesNotStarveOthersTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI1 = new TeslaAPI(teslaTransport);
+			TeslaAPI teslaAPI2 = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN two accounts on a transport that runs 2 requests at a time, and the first account is limited to 1 request per second
+			teslaTransport.setMaxConcurrentRequests(2);
+			teslaAPI1.setTokens(new Tokens("A", "R"));
+			teslaAPI1.setCoalesceRequests(false);
+			teslaAPI1.getRateLimiting().getAccountRateLimiter().setRate(1.0, 1);
+			teslaAPI2.setTokens(new Tokens("A", "R"));
+			List<CompletableFuture<DriveState>> futures = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(teslaAPI1.getDriveStateAsync("1"));
+			}
+			
+			// WHEN
+			long startNanos = System.nanoTime();
+			DriveState driveState = teslaAPI2.getDriveState("1");
+			
+			// THEN the waiting requests of the first account do not hold the second one up
+			Assert.assertEquals("P", driveState.shiftState);
+			Assert.assertTrue(System.nanoTime() - startNanos < SECOND / 2);
+			Assert.assertEquals(9, teslaAPI1.getRateLimiting().getAccountRateLimiter().getQueueLength());
+			Assert.assertEquals(0, teslaTransport.okHttpClient.dispatcher().queuedCallsCount());
+			futures.forEach(future -> future.cancel(true));
+			Assert.assertEquals(0, teslaAPI1.getRateLimiting().getAccountRateLimiter().getQueueLength());
+		}
+	}
+}
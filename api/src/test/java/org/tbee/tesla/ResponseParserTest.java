@@ -0,0 +1,114 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.ResponseParser.CommandResponse;
+import org.tbee.tesla.dto.ChargeState;
+import org.tbee.tesla.dto.Vehicle;
+import org.tbee.tesla.dto.VehicleData;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+public class ResponseParserTest {
+	
+	static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+	/**
+	 * 
+	 */
+	@Test
+	public void parseObjectTest() throws IOException {
+		// WHEN
+		ChargeState chargeState = ResponseParser.parseObject(ResponseBody.create(LocalOwnerAPI.CHARGE_STATE, JSON), ChargeState::new);
+		
+		// THEN
+		Assert.assertEquals(Integer.valueOf(64), chargeState.batteryLevel);
+		Assert.assertEquals("Disconnected", chargeState.jsonObject.get("charging_state").getAsString());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void parseArrayTest() throws IOException {
+		// WHEN
+		List<Vehicle> vehicles = ResponseParser.parseArray(ResponseBody.create(LocalOwnerAPI.VEHICLES, JSON), Vehicle::new);
+		
+		// THEN
+		Assert.assertEquals(1, vehicles.size());
+		Assert.assertEquals("5YJ3E7EB0KF000001", vehicles.get(0).vin);
+		Assert.assertTrue(vehicles.get(0).isOnline());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void parseVehicleDataTest() throws IOException {
+		// WHEN
+		VehicleData vehicleData = ResponseParser.parseObject(ResponseBody.create("{\"response\":{\"id\":1,\"charge_state\":{\"battery_level\":80},\"drive_state\":{\"shift_state\":null}}}", JSON), VehicleData::new);
+		
+		// THEN
+		Assert.assertEquals(Integer.valueOf(80), vehicleData.chargeState.batteryLevel);
+		Assert.assertEquals("", vehicleData.driveState.shiftState);
+		Assert.assertNull(vehicleData.climateState);
+		Assert.assertNull(vehicleData.guiSettings);
+	}
+
+	/**
+	 * The response member does not have to be the first
+	 */
+	@Test
+	public void parseCommandResponseTest() throws IOException {
+		// WHEN
+		CommandResponse commandResponse = ResponseParser.parseCommandResponse(ResponseBody.create("{\"error\":null,\"response\":{\"reason\":\"already_set\",\"result\":false}}", JSON));
+		
+		// THEN
+		Assert.assertFalse(commandResponse.result);
+		Assert.assertEquals("already_set", commandResponse.reason);
+	}
+
+	/**
+	 * Characters outside the BMP are decoded to surrogate pairs
+	 */
+	@Test
+	public void parseUnicodeTest() throws IOException {
+		// WHEN
+		List<Vehicle> vehicles = ResponseParser.parseArray(ResponseBody.create("{\"response\":[{\"id\":1,\"vin\":\"V\",\"state\":\"asleep\",\"display_name\":\"Tarah 🚗 é\"}]}", JSON), Vehicle::new);
+		
+		// THEN
+		Assert.assertEquals("Tarah 🚗 é", vehicles.get(0).displayName);
+	}
+
+	/**
+	 * 
+	 */
+	@Test(expected = IOException.class)
+	public void noResponseTest() throws IOException {
+		ResponseParser.parseObject(ResponseBody.create("{\"error\":\"vehicle unavailable\"}", JSON), ChargeState::new);
+	}
+}
@@ -0,0 +1,123 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.DriveState;
+import org.tbee.tesla.dto.Tokens;
+
+public class SingleFlightTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void joinTest() throws Exception {
+		// GIVEN
+		SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		AtomicInteger callCount = new AtomicInteger(0);
+		CompletableFuture<String> call = new CompletableFuture<>();
+		
+		// WHEN
+		CompletableFuture<String> future1 = singleFlight.execute("1/drive_state", () -> {callCount.incrementAndGet(); return call;});
+		CompletableFuture<String> future2 = singleFlight.execute("1/drive_state", () -> {callCount.incrementAndGet(); return call;});
+		call.complete("P");
+		
+		// THEN
+		Assert.assertEquals(1, callCount.get());
+		Assert.assertEquals("P", future1.get());
+		Assert.assertEquals("P", future2.get());
+		Assert.assertEquals(1, singleFlight.getJoinedCount());
+		Assert.assertEquals(0, singleFlight.size());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void noJoinAfterCompletionTest() throws Exception {
+		// GIVEN
+		SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		AtomicInteger callCount = new AtomicInteger(0);
+		singleFlight.execute("1/drive_state", () -> {callCount.incrementAndGet(); return CompletableFuture.completedFuture("P");}).get();
+		
+		// WHEN
+		singleFlight.execute("1/drive_state", () -> {callCount.incrementAndGet(); return CompletableFuture.completedFuture("D");}).get();
+		
+		// THEN
+		Assert.assertEquals(2, callCount.get());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void cancelTest() throws Exception {
+		// GIVEN
+		SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		CompletableFuture<String> call = new CompletableFuture<>();
+		CompletableFuture<String> future1 = singleFlight.execute("1/drive_state", () -> call);
+		CompletableFuture<String> future2 = singleFlight.execute("1/drive_state", () -> call);
+		
+		// WHEN
+		future1.cancel(true);
+		
+		// THEN only when all callers have cancelled, the call is cancelled
+		Assert.assertFalse(call.isCancelled());
+		future2.cancel(true);
+		Assert.assertTrue(call.isCancelled());
+		Assert.assertEquals(0, singleFlight.size());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void teslaAPITest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(200);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			
+			// WHEN
+			List<CompletableFuture<DriveState>> futures = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(teslaAPI.getDriveStateAsync("1"));
+			}
+			
+			// THEN
+			for (CompletableFuture<DriveState> future : futures) {
+				Assert.assertEquals("P", future.get().shiftState);
+			}
+			Assert.assertEquals(1, localOwnerAPI.getRequestCount());
+			Assert.assertEquals(9, teslaAPI.getCoalescedRequestCount());
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.DriveState;
+import org.tbee.tesla.dto.Tokens;
+
+
+public class StateCacheTest {
+	
+	private final AtomicLong nanoClock = new AtomicLong(0);
+
+	/**
+	 * 
+	 */
+	@Test
+	public void ttlTest() {
+		// GIVEN
+		StateCache stateCache = new StateCache(100, nanoClock::get);
+		stateCache.setTtl("gui_settings", Duration.ofSeconds(10));
+		stateCache.put("1", "gui_settings", "settings");
+		
+		// WHEN
+		nanoClock.set(Duration.ofSeconds(9).toNanos());
+		String before = stateCache.get("1", "gui_settings", String.class);
+		nanoClock.set(Duration.ofSeconds(11).toNanos());
+		String after = stateCache.get("1", "gui_settings", String.class);
+		
+		// THEN
+		Assert.assertEquals("settings", before);
+		Assert.assertNull(after);
+		Assert.assertEquals(1, stateCache.getHitCount());
+		Assert.assertEquals(1, stateCache.getMissCount());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void noTtlTest() {
+		// GIVEN
+		StateCache stateCache = new StateCache(100, nanoClock::get);
+		
+		// WHEN
+		stateCache.put("1", "drive_state", "state");
+		
+		// THEN
+		Assert.assertNull(stateCache.get("1", "drive_state", String.class));
+		Assert.assertEquals(0, stateCache.size());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void invalidateTest() {
+		// GIVEN
+		StateCache stateCache = new StateCache(100, nanoClock::get);
+		stateCache.setTtl("gui_settings", Duration.ofSeconds(10));
+		stateCache.setTtl("drive_state", Duration.ofSeconds(10));
+		stateCache.put("1", "gui_settings", "settings1");
+		stateCache.put("1", "drive_state", "state1");
+		stateCache.put("2", "gui_settings", "settings2");
+		
+		// WHEN
+		stateCache.invalidate("1");
+		
+		// THEN
+		Assert.assertNull(stateCache.get("1", "gui_settings", String.class));
+		Assert.assertNull(stateCache.get("1", "drive_state", String.class));
+		Assert.assertEquals("settings2", stateCache.get("2", "gui_settings", String.class));
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void evictionTest() {
+		// GIVEN
+		StateCache stateCache = new StateCache(10, nanoClock::get);
+		stateCache.setTtl("gui_settings", Duration.ofSeconds(10));
+		
+		// WHEN
+		for (int i = 0; i < 20; i++) {
+			stateCache.put("" + i, "gui_settings", "settings");
+		}
+		
+		// THEN
+		Assert.assertTrue(stateCache.size() <= 10);
+		Assert.assertEquals(20 - stateCache.size(), stateCache.getEvictionCount());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void teslaAPITest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			StateCache stateCache = new StateCache(100);
+			stateCache.setTtl("drive_state", Duration.ofMinutes(1));
+			teslaAPI.setStateCache(stateCache);
+			
+			// WHEN
+			DriveState driveState1 = teslaAPI.getDriveState("1");
+			DriveState driveState2 = teslaAPI.getDriveState("1");
+			
+			// THEN
+			Assert.assertNotNull(driveState1);
+			Assert.assertSame(driveState1, driveState2);
+			Assert.assertEquals(1, stateCache.getHitCount());
+			Assert.assertEquals(1, stateCache.getMissCount());
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.ChargeState;
+import org.tbee.tesla.dto.Tokens;
+import org.tbee.tesla.dto.Vehicle;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+public class TeslaCassetteTest {
+	
+	static final String NO_SERVER = "http://127.0.0.1:1/";
+
+	/**
+	 * 
+	 */
+	@Test
+	public void recordAndReplayTest() throws Exception {
+		Path path = Files.createTempFile("tesla", ".cassette");
+		try {
+			// GIVEN a recording
+			record(path, 0);
+			
+			// WHEN replaying without a server
+			try (
+				TeslaCassette teslaCassette = new TeslaCassette(path, TeslaCassette.Mode.REPLAY);
+				TeslaTransport teslaTransport = new TeslaTransport(NO_SERVER, NO_SERVER, teslaCassette);
+				TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			) {
+				teslaAPI.setTokens(new Tokens("A", "R"));
+				List<Vehicle> vehicles = teslaAPI.getVehicles();
+				ChargeState chargeState = teslaAPI.getChargeState(vehicles.get(0).id);
+				
+				// THEN
+				Assert.assertEquals(3, teslaCassette.size());
+				Assert.assertEquals("5YJ3E7EB0KF000001", vehicles.get(0).vin);
+				Assert.assertEquals(64, chargeState.batteryLevel.intValue());
+				Assert.assertNull(teslaAPI.flashLights(vehicles.get(0).id));
+			}
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void redactTest() throws Exception {
+		Path path = Files.createTempFile("tesla", ".cassette");
+		try {
+			// GIVEN a recording of a token refresh
+			try (
+				LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+				TeslaCassette teslaCassette = new TeslaCassette(path, TeslaCassette.Mode.RECORD);
+				TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase(), localOwnerAPI.getUrlBase(), teslaCassette);
+				TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			) {
+				teslaAPI.setTokens(new Tokens("SecretAccessToken", "SecretRefreshToken"));
+				Assert.assertEquals("SecretRefreshedAccessToken", teslaAPI.refreshTokens().accessToken);
+				teslaAPI.getVehicles();
+			}
+			
+			// WHEN replayed
+			try (
+				TeslaCassette teslaCassette = new TeslaCassette(path, TeslaCassette.Mode.REPLAY);
+				TeslaTransport teslaTransport = new TeslaTransport(NO_SERVER, NO_SERVER, teslaCassette);
+				TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			) {
+				teslaAPI.setTokens(new Tokens("A", "R"));
+				Tokens tokens = teslaAPI.refreshTokens();
+				Vehicle vehicle = teslaAPI.getVehicles().get(0);
+				
+				// THEN neither the access token nor the vehicle tokens were recorded, and the redacted token can still be used
+				Assert.assertEquals(TeslaCassette.REDACTED, tokens.accessToken);
+				Assert.assertEquals(0, vehicle.jsonObject.getAsJsonArray("tokens").size());
+			}
+			Assert.assertEquals("{\"access_token\":\"REDACTED\",\"tokens\":[]}", TeslaCassette.redact("{\"access_token\":\"abc\",\"tokens\":[\"x\",\"y\"]}"));
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void speedTest() throws Exception {
+		Path path = Files.createTempFile("tesla", ".cassette");
+		try {
+			// GIVEN a recording of a slow server
+			record(path, 200);
+			try (
+				TeslaCassette teslaCassette = new TeslaCassette(path, TeslaCassette.Mode.REPLAY);
+				TeslaTransport teslaTransport = new TeslaTransport(NO_SERVER, NO_SERVER, teslaCassette);
+				TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			) {
+				teslaAPI.setTokens(new Tokens("A", "R"));
+				
+				// WHEN replayed without delay
+				long startNanos = System.nanoTime();
+				teslaAPI.getVehicles();
+				long fastInMS = (System.nanoTime() - startNanos) / 1_000_000;
+				
+				// WHEN replayed in real time
+				teslaCassette.setSpeed(1.0);
+				startNanos = System.nanoTime();
+				teslaAPI.getVehicles();
+				long realTimeInMS = (System.nanoTime() - startNanos) / 1_000_000;
+				
+				// THEN
+				Assert.assertTrue("" + fastInMS, fastInMS < 150);
+				Assert.assertTrue("" + realTimeInMS, realTimeInMS >= 200);
+			}
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void concurrencyTest() throws Exception {
+		Path path = Files.createTempFile("tesla", ".cassette");
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		try {
+			// GIVEN a replay of one exchange at a time, without delay
+			record(path, 0);
+			try (
+				TeslaCassette teslaCassette = new TeslaCassette(path, TeslaCassette.Mode.REPLAY);
+			) {
+				teslaCassette.setConcurrency(1);
+				OkHttpClient okHttpClient = new OkHttpClient.Builder().addInterceptor(teslaCassette).build();
+				Request request = new Request.Builder().url(NO_SERVER + "api/1/vehicles/").build();
+				
+				// WHEN a second exchange is replayed while the body of the first is still open
+				Future<String> future;
+				try (
+					Response response = okHttpClient.newCall(request).execute();
+				) {
+					future = executorService.submit(() -> {
+						try (
+							Response secondResponse = okHttpClient.newCall(request).execute();
+						) {
+							return secondResponse.body().string();
+						}
+					});
+					
+					// THEN it waits until the first body is closed
+					Thread.sleep(200);
+					Assert.assertFalse(future.isDone());
+					Assert.assertTrue(response.body().string().contains("5YJ3E7EB0KF000001"));
+				}
+				Assert.assertTrue(future.get(1, TimeUnit.SECONDS).contains("5YJ3E7EB0KF000001"));
+			}
+		}
+		finally {
+			executorService.shutdownNow();
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void notOnCassetteTest() throws Exception {
+		Path path = Files.createTempFile("tesla", ".cassette");
+		try {
+			// GIVEN
+			record(path, 0);
+			try (
+				TeslaCassette teslaCassette = new TeslaCassette(path, TeslaCassette.Mode.REPLAY);
+				TeslaTransport teslaTransport = new TeslaTransport(NO_SERVER, NO_SERVER, teslaCassette);
+				TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			) {
+				teslaAPI.setTokens(new Tokens("A", "R"));
+				
+				// WHEN
+				try {
+					teslaAPI.getDriveState("12345678901234567");
+					Assert.fail("should not be on the cassette");
+				}
+				// THEN
+				catch (RuntimeException e) {
+					// expected
+				}
+			}
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void unclosedRecordingTest() throws Exception {
+		Path path = Files.createTempFile("tesla", ".cassette");
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+		) {
+			// GIVEN a recording that was not closed, so it has no index
+			TeslaCassette recordingCassette = new TeslaCassette(path, TeslaCassette.Mode.RECORD);
+			try (
+				TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase(), localOwnerAPI.getUrlBase(), recordingCassette);
+				TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			) {
+				teslaAPI.setTokens(new Tokens("A", "R"));
+				teslaAPI.getVehicles();
+				teslaAPI.getVehicles();
+			}
+			
+			// WHEN
+			try (
+				TeslaCassette teslaCassette = new TeslaCassette(path, TeslaCassette.Mode.REPLAY);
+			) {
+				// THEN
+				Assert.assertEquals(2, teslaCassette.size());
+			}
+			recordingCassette.close();
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
+	
+	/* record a vehicles list, a charge state and a command */
+	static private void record(Path path, int delayInMS) throws IOException {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(delayInMS);
+			TeslaCassette teslaCassette = new TeslaCassette(path, TeslaCassette.Mode.RECORD);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase(), localOwnerAPI.getUrlBase(), teslaCassette);
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			teslaAPI.setTokens(new Tokens("SecretAccessToken", "R"));
+			String vehicleId = teslaAPI.getVehicles().get(0).id;
+			teslaAPI.getChargeState(vehicleId);
+			teslaAPI.flashLights(vehicleId);
+		}
+	}
+}
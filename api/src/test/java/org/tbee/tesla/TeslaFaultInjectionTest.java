@@ -0,0 +1,301 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.TeslaFaultInjection.Fault;
+import org.tbee.tesla.TeslaFaultInjection.Latency;
+import org.tbee.tesla.dto.DriveState;
+import org.tbee.tesla.dto.Tokens;
+
+public class TeslaFaultInjectionTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void vehicleUnavailableTest() throws Exception {
+		TeslaFaultInjection teslaFaultInjection = new TeslaFaultInjection(1);
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase(), localOwnerAPI.getUrlBase(), teslaFaultInjection);
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN the charge state is never available
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaFaultInjection.setEndpointRate("charge_state", Fault.VEHICLE_UNAVAILABLE, 1.0);
+			
+			// WHEN
+			String vehicleId = teslaAPI.getVehicles().get(0).id;
+			
+			// THEN only the charge state fails, without reaching the server
+			Assert.assertNull(teslaAPI.getChargeState(vehicleId));
+			Assert.assertNotNull(teslaAPI.getDriveState(vehicleId));
+			Assert.assertEquals(1, teslaFaultInjection.getInjectedCount(Fault.VEHICLE_UNAVAILABLE));
+			Assert.assertEquals(2, localOwnerAPI.getRequestCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void tooManyRequestsTest() throws Exception {
+		TeslaFaultInjection teslaFaultInjection = new TeslaFaultInjection(1);
+		InMemoryTeslaMetrics metrics = new InMemoryTeslaMetrics();
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase(), localOwnerAPI.getUrlBase(), teslaFaultInjection);
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN every request is throttled
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaAPI.setMetrics(metrics);
+			teslaAPI.getRateLimiting().setMaxRetries(2);
+			teslaFaultInjection.setRate(Fault.TOO_MANY_REQUESTS, 1.0);
+			teslaFaultInjection.setRetryAfter(Duration.ZERO);
+			
+			// WHEN
+			List<?> vehicles = teslaAPI.getVehicles();
+			
+			// THEN the rate limiting retried the injected 429s
+			Assert.assertTrue(vehicles.isEmpty());
+			Assert.assertEquals(3, teslaFaultInjection.getInjectedCount(Fault.TOO_MANY_REQUESTS));
+			Assert.assertEquals(2, metrics.getRetryCount("vehicles"));
+			Assert.assertEquals(0, localOwnerAPI.getRequestCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void droppedConnectionTest() throws Exception {
+		TeslaFaultInjection teslaFaultInjection = new TeslaFaultInjection(1);
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase(), localOwnerAPI.getUrlBase(), teslaFaultInjection);
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN the responses of commands are lost
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaFaultInjection.setEndpointRate("command/flash_lights", Fault.DROPPED_CONNECTION, 1.0);
+			
+			// WHEN
+			try {
+				teslaAPI.flashLights("1");
+				Assert.fail("should fail");
+			}
+			catch (RuntimeException e) {
+				// expected
+			}
+			
+			// THEN the command did reach the server
+			Assert.assertEquals(1, localOwnerAPI.getRequestCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void latencyTest() throws Exception {
+		TeslaFaultInjection teslaFaultInjection = new TeslaFaultInjection(1);
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase(), localOwnerAPI.getUrlBase(), teslaFaultInjection);
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaFaultInjection.setEndpointLatency("vehicles", Latency.fixed(Duration.ofMillis(200)));
+			
+			// WHEN
+			long startNanos = System.nanoTime();
+			teslaAPI.getVehicles();
+			long durationInMS = (System.nanoTime() - startNanos) / 1_000_000;
+			
+			// THEN
+			Assert.assertTrue("" + durationInMS, durationInMS >= 200);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void latencyAsyncTest() throws Exception {
+		TeslaFaultInjection teslaFaultInjection = new TeslaFaultInjection(1);
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase(), localOwnerAPI.getUrlBase(), teslaFaultInjection);
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN only one request at a time
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaAPI.setCoalesceRequests(false);
+			teslaTransport.setMaxConcurrentRequests(1);
+			teslaFaultInjection.setEndpointLatency("drive_state", Latency.fixed(Duration.ofMillis(200)));
+			
+			// WHEN 5 calls are made at once
+			long startNanos = System.nanoTime();
+			List<CompletableFuture<DriveState>> futures = new ArrayList<>();
+			for (int i = 0; i < 5; i++) {
+				futures.add(teslaAPI.getDriveStateAsync("1"));
+			}
+			for (CompletableFuture<DriveState> future : futures) {
+				Assert.assertNotNull(future.get());
+			}
+			long durationInMS = (System.nanoTime() - startNanos) / 1_000_000;
+			
+			// THEN the latencies passed at the same time, they did not occupy the one request slot one after the other
+			Assert.assertTrue("" + durationInMS, durationInMS >= 200 && durationInMS < 800);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void disabledTest() throws Exception {
+		TeslaFaultInjection teslaFaultInjection = new TeslaFaultInjection(1);
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase(), localOwnerAPI.getUrlBase(), teslaFaultInjection);
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaFaultInjection.setRate(Fault.SERVICE_UNAVAILABLE, 1.0);
+			
+			// WHEN
+			teslaFaultInjection.setEnabled(false);
+			
+			// THEN
+			Assert.assertEquals(1, teslaAPI.getVehicles().size());
+			Assert.assertEquals(0, teslaFaultInjection.getInjectedCount(Fault.SERVICE_UNAVAILABLE));
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void repeatableTest() {
+		// GIVEN two injections with the same seed
+		List<Fault> faults1 = faults(new TeslaFaultInjection(42));
+		List<Fault> faults2 = faults(new TeslaFaultInjection(42));
+		
+		// THEN they inject the same pattern
+		Assert.assertEquals(faults1, faults2);
+		Assert.assertTrue(faults1.contains(Fault.VEHICLE_UNAVAILABLE));
+		Assert.assertTrue(faults1.contains(null));
+	}
+	
+	/* */
+	static private List<Fault> faults(TeslaFaultInjection teslaFaultInjection) {
+		teslaFaultInjection.setRate(Fault.VEHICLE_UNAVAILABLE, 0.3);
+		teslaFaultInjection.setRate(Fault.SERVICE_UNAVAILABLE, 0.1);
+		Random random = new Random(42);
+		List<Fault> faults = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			faults.add(teslaFaultInjection.decide("charge_state", random.nextDouble()));
+		}
+		return faults;
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void ratesTest() {
+		// GIVEN
+		TeslaFaultInjection teslaFaultInjection = new TeslaFaultInjection(1);
+		teslaFaultInjection.setRate(Fault.VEHICLE_UNAVAILABLE, 0.5);
+		teslaFaultInjection.setEndpointRate("wake_up", Fault.VEHICLE_UNAVAILABLE, 0.0);
+		teslaFaultInjection.setEndpointRate("wake_up", Fault.SERVICE_UNAVAILABLE, 0.2);
+		
+		// WHEN THEN the endpoint rates override the defaults
+		Assert.assertEquals(Fault.VEHICLE_UNAVAILABLE, teslaFaultInjection.decide("vehicles", 0.4));
+		Assert.assertNull(teslaFaultInjection.decide("vehicles", 0.6));
+		Assert.assertEquals(Fault.SERVICE_UNAVAILABLE, teslaFaultInjection.decide("wake_up", 0.1));
+		Assert.assertNull(teslaFaultInjection.decide("wake_up", 0.4));
+		
+		// WHEN THEN the rates cannot add up to more than 1.0, and the previous rates still apply
+		try {
+			teslaFaultInjection.setRate(Fault.TOO_MANY_REQUESTS, 0.6);
+			Assert.fail("should fail");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertNull(teslaFaultInjection.decide("vehicles", 0.6));
+		Assert.assertNull(teslaFaultInjection.decide("wake_up", 0.4));
+		
+		// WHEN THEN also not with an endpoint's rates on top of the defaults
+		teslaFaultInjection.setEndpointRate("charge_state", Fault.SERVICE_UNAVAILABLE, 0.4);
+		try {
+			teslaFaultInjection.setRate(Fault.VEHICLE_UNAVAILABLE, 0.7);
+			Assert.fail("should fail");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			teslaFaultInjection.setEndpointRate("charge_state", Fault.SERVICE_UNAVAILABLE, 0.6);
+			Assert.fail("should fail");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertNull(teslaFaultInjection.decide("vehicles", 0.6));
+		Assert.assertEquals(Fault.SERVICE_UNAVAILABLE, teslaFaultInjection.decide("charge_state", 0.8));
+		Assert.assertNull(teslaFaultInjection.decide("charge_state", 0.95));
+		Assert.assertNull(teslaFaultInjection.decide("wake_up", 0.4));
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void logNormalTest() {
+		// GIVEN
+		Latency latency = Latency.logNormal(Duration.ofMillis(100), Duration.ofMillis(1000));
+		Random random = new Random(1);
+		
+		// WHEN
+		LatencyHistogram latencyHistogram = new LatencyHistogram();
+		for (int i = 0; i < 100_000; i++) {
+			latencyHistogram.record(latency.nextInNanos(random));
+		}
+		
+		// THEN within the precision of the histogram
+		Assert.assertEquals(100.0, latencyHistogram.getPercentileInNanos(50.0) / 1_000_000.0, 5.0);
+		Assert.assertEquals(1000.0, latencyHistogram.getPercentileInNanos(99.0) / 1_000_000.0, 60.0);
+	}
+}
@@ -0,0 +1,87 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.tbee.tesla.TestUtil.assertContains;
+import static org.tbee.tesla.TestUtil.assertNotContains;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import okhttp3.Request;
+
+public class TeslaHttpLoggingTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void redactJsonTest() {
+		// WHEN
+		String s = TeslaHttpLogging.redact("{\"grant_type\":\"refresh_token\",\"refresh_token\":\"secretRefresh\",\"access_token\" : \"secretAccess\",\"expires_in\":3600}");
+		
+		// THEN
+		assertNotContains(s, "secretRefresh");
+		assertNotContains(s, "secretAccess");
+		assertContains(s, "\"grant_type\":\"refresh_token\"");
+		assertContains(s, "\"expires_in\":3600");
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void redactFormTest() {
+		// WHEN
+		String s = TeslaHttpLogging.redact("identity=someone%40example.com&credential=secretPassword&transaction_id=123");
+		
+		// THEN
+		assertNotContains(s, "secretPassword");
+		assertContains(s, "identity=someone%40example.com");
+		assertContains(s, "transaction_id=123");
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void redactQueryTest() {
+		// WHEN
+		String s = TeslaHttpLogging.redact("--> GET https://auth.tesla.com/void/callback?code=secretCode&state=123");
+		
+		// THEN
+		assertNotContains(s, "secretCode");
+		assertContains(s, "state=123");
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void endpointAndVehicleTest() {
+		// GIVEN
+		Request request = new Request.Builder().url("https://owner-api.teslamotors.com/api/1/vehicles/123/data_request/charge_state").build();
+		
+		// THEN
+		Assert.assertEquals("charge_state", TeslaHttpLogging.endpoint(request));
+		Assert.assertEquals("123", TeslaHttpLogging.vehicleId(request));
+	}
+}
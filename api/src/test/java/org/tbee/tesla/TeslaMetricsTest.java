@@ -0,0 +1,195 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.DriveState;
+import org.tbee.tesla.dto.Tokens;
+
+public class TeslaMetricsTest {
+	
+	static private final long MS = 1_000_000L;
+
+	/**
+	 * 
+	 */
+	@Test
+	public void histogramBucketsTest() {
+		// GIVEN values over the whole range
+		for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 7) {
+			// WHEN
+			int index = LatencyHistogram.index(value);
+			
+			// THEN the value is in its bucket, and the bucket is small relative to the value
+			Assert.assertTrue(value <= LatencyHistogram.upperBound(index));
+			Assert.assertTrue(index == 0 || value > LatencyHistogram.upperBound(index - 1));
+			Assert.assertTrue(LatencyHistogram.upperBound(index) - value <= value / LatencyHistogram.SUB_BUCKET_COUNT);
+		}
+		Assert.assertTrue(LatencyHistogram.index(Long.MAX_VALUE) < LatencyHistogram.BUCKET_COUNT);
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void histogramPercentileTest() {
+		// GIVEN
+		LatencyHistogram latencyHistogram = new LatencyHistogram();
+		
+		// WHEN 1..1000 ms
+		for (int i = 1; i <= 1000; i++) {
+			latencyHistogram.record(i * MS);
+		}
+		
+		// THEN within the precision of the buckets
+		Assert.assertEquals(1000, latencyHistogram.getCount());
+		assertAbout(500 * MS, latencyHistogram.getPercentileInNanos(50.0));
+		assertAbout(990 * MS, latencyHistogram.getPercentileInNanos(99.0));
+		Assert.assertEquals(1000 * MS, latencyHistogram.getPercentileInNanos(100.0));
+		Assert.assertEquals(1000 * MS, latencyHistogram.getMaxInNanos());
+		Assert.assertEquals(500500 * MS / 1000, latencyHistogram.getMeanInNanos());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void histogramCoordinatedOmissionTest() {
+		// GIVEN a sender that sends every 10ms
+		LatencyHistogram latencyHistogram = new LatencyHistogram();
+		
+		// WHEN 99 requests take 1ms, and one stalls the sender for 1 second
+		for (int i = 0; i < 99; i++) {
+			latencyHistogram.record(1 * MS, 10 * MS);
+		}
+		latencyHistogram.record(1000 * MS, 10 * MS);
+		
+		// THEN the 99 requests that could not be sent during the stall are accounted for, so the p90 is not 1ms
+		Assert.assertEquals(99 + 1 + 99, latencyHistogram.getCount());
+		Assert.assertTrue(latencyHistogram.getPercentileInNanos(90.0) > 500 * MS);
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void requestsTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			InMemoryTeslaMetrics metrics = new InMemoryTeslaMetrics();
+			teslaAPI.setMetrics(metrics);
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			
+			// WHEN
+			teslaAPI.getVehicles();
+			teslaAPI.getDriveState("1");
+			localOwnerAPI.throttle(1);
+			teslaAPI.getChargeState("1");
+			teslaAPI.setChargeLimit("1", 80);
+			String shiftState = teslaAPI.wakeUp("1", 1000, 10);
+			teslaAPI.setTokensRefresher((tokens) -> { throw new RuntimeException("refresh failed"); });
+			localOwnerAPI.setAccessToken("other");
+			teslaAPI.getGUISettings("1");
+			
+			// THEN
+			Assert.assertEquals("[charge_state, command/set_charge_limit, drive_state, gui_settings, vehicles, wake_up]", metrics.getEndpoints().toString());
+			Assert.assertEquals(1, metrics.getStatusCount("vehicles", 200));
+			Assert.assertEquals(2, metrics.getStatusCount("drive_state", 200)); // one by the wake up
+			Assert.assertEquals(1, metrics.getRetryCount("charge_state"));
+			Assert.assertEquals(0, metrics.getErrorCount("charge_state"));
+			Assert.assertEquals(1, metrics.getErrorCount("gui_settings"));
+			Assert.assertEquals(1, metrics.getStatusCount("gui_settings", 401));
+			Assert.assertEquals(1, metrics.getLoginFailureCount("refresh"));
+			Assert.assertEquals(LocalOwnerAPI.VEHICLES.length(), metrics.getBytesIn("vehicles"));
+			Assert.assertTrue(metrics.getBytesOut("command/set_charge_limit") > 0);
+			Assert.assertEquals(1, metrics.getLatencyHistogram("command/set_charge_limit").getCount());
+			Assert.assertEquals("P", shiftState);
+			Assert.assertEquals(1, metrics.getWakeUpHistogram().getCount());
+			Assert.assertEquals(1, metrics.getWakeUpAttemptCount());
+			Assert.assertEquals(0, metrics.getWakeUpFailureCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void queuedLatencyTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(50);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN only one request at a time
+			InMemoryTeslaMetrics metrics = new InMemoryTeslaMetrics();
+			teslaAPI.setMetrics(metrics);
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaAPI.setCoalesceRequests(false);
+			teslaTransport.setMaxConcurrentRequests(1);
+			
+			// WHEN 10 calls are made at once
+			List<CompletableFuture<DriveState>> futures = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(teslaAPI.getDriveStateAsync("1"));
+			}
+			for (CompletableFuture<DriveState> future : futures) {
+				future.get();
+			}
+			
+			// THEN the time waiting in the queue is included: the last call took about 10 x 50ms, not 50ms
+			LatencyHistogram latencyHistogram = metrics.getLatencyHistogram("drive_state");
+			Assert.assertEquals(10, latencyHistogram.getCount());
+			Assert.assertTrue(latencyHistogram.getMaxInNanos() >= 400 * MS);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void endpointTest() {
+		Assert.assertEquals("vehicles", endpoint("https://owner-api.teslamotors.com/api/1/vehicles/"));
+		Assert.assertEquals("vehicle", endpoint("https://owner-api.teslamotors.com/api/1/vehicles/123"));
+		Assert.assertEquals("charge_state", endpoint("https://owner-api.teslamotors.com/api/1/vehicles/123/data_request/charge_state"));
+		Assert.assertEquals("wake_up", endpoint("https://owner-api.teslamotors.com/api/1/vehicles/123/wake_up"));
+		Assert.assertEquals("command/set_temps", endpoint("https://owner-api.teslamotors.com/api/1/vehicles/123/command/set_temps"));
+		Assert.assertEquals("auth/token", endpoint("https://auth.tesla.com/oauth2/v3/token"));
+	}
+	
+	/* */
+	private String endpoint(String url) {
+		return TeslaMetricsInterceptor.endpoint(new okhttp3.Request.Builder().url(url).build());
+	}
+	
+	/* */
+	private void assertAbout(long expected, long actual) {
+		Assert.assertTrue(expected + " vs " + actual, Math.abs(expected - actual) <= expected / LatencyHistogram.SUB_BUCKET_COUNT);
+	}
+}
@@ -0,0 +1,85 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Random;
+
+import org.tbee.tesla.dto.Tokens;
+
+/**
+ * Measures how long a restart takes to get the tokens of 10k accounts from a FileTokenStore.
+ * Run as a plain java main.
+ */
+public class TokenStoreBenchmark {
+	
+	static final int NUMBER_OF_ACCOUNTS = 10_000;
+	static final int ACCESS_TOKEN_LENGTH = 1200; // about the size of a JWT issued by Tesla
+
+	public static void main(String[] args) throws Exception {
+		Path path = Files.createTempFile("tokens", ".dat");
+		try {
+			// Fill the store
+			long startNanos = System.nanoTime();
+			try (
+				FileTokenStore fileTokenStore = new FileTokenStore(path);
+			) {
+				fileTokenStore.setForceWrites(false);
+				Random random = new Random(0);
+				for (int i = 0; i < NUMBER_OF_ACCOUNTS; i++) {
+					fileTokenStore.store("account" + i, new Tokens(randomToken(random, ACCESS_TOKEN_LENGTH), randomToken(random, 64), Instant.now(), 8 * 3600));
+				}
+			}
+			System.out.println("store " + NUMBER_OF_ACCOUNTS + " accounts: " + (System.nanoTime() - startNanos) / 1_000_000 + "ms, file size " + Files.size(path) / 1024 + "KB");
+			
+			// Restart: each measurement opens the store anew, like a fresh process would
+			for (int run = 0; run < 5; run++) {
+				startNanos = System.nanoTime();
+				try (
+					FileTokenStore fileTokenStore = new FileTokenStore(path);
+				) {
+					int found = 0;
+					for (int i = 0; i < NUMBER_OF_ACCOUNTS; i++) {
+						if (fileTokenStore.load("account" + i) != null) {
+							found++;
+						}
+					}
+					System.out.println("load " + found + " accounts: " + (System.nanoTime() - startNanos) / 1_000_000 + "ms");
+				}
+			}
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
+	
+	/* */
+	static String randomToken(Random random, int length) {
+		String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+		StringBuilder stringBuilder = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			stringBuilder.append(chars.charAt(random.nextInt(chars.length())));
+		}
+		return stringBuilder.toString();
+	}
+}
@@ -0,0 +1,223 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.DriveState;
+import org.tbee.tesla.dto.Tokens;
+
+public class TokensRefreshTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void backgroundRefreshTest() throws Exception {
+		try (
+			TeslaAPI teslaAPI = new TeslaAPI();
+		) {
+			// GIVEN tokens that are valid for 1 second, refreshed after 0.2 seconds
+			teslaAPI.setTokensRefresher((tokens) -> new Tokens("A2", tokens.refreshToken, Instant.now(), 3600));
+			teslaAPI.setTokensRefreshFraction(0.2);
+			CompletableFuture<Tokens> refreshedTokens = new CompletableFuture<>();
+			teslaAPI.setTokensListener((tokens) -> {
+				if (tokens.accessToken.equals("A2")) {
+					refreshedTokens.complete(tokens);
+				}
+			});
+			
+			// WHEN
+			teslaAPI.setTokens(new Tokens("A1", "R", Instant.now(), 1));
+			
+			// THEN
+			Assert.assertEquals("A2", refreshedTokens.get(2, TimeUnit.SECONDS).accessToken);
+			Assert.assertEquals("A2", teslaAPI.getTokens().accessToken);
+			Assert.assertEquals("R", teslaAPI.getTokens().refreshToken);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void expiredTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN expired tokens and no background refresh
+			AtomicInteger refreshCount = new AtomicInteger(0);
+			teslaAPI.setTokensRefresher((tokens) -> {
+				refreshCount.incrementAndGet();
+				return new Tokens("A2", tokens.refreshToken, Instant.now(), 3600);
+			});
+			teslaAPI.setTokens(new Tokens("A1", "R", Instant.now().minusSeconds(7200), 3600));
+			
+			// WHEN
+			DriveState driveState = teslaAPI.getDriveState("1");
+			teslaAPI.getDriveState("1");
+			
+			// THEN the tokens were refreshed once, before the request
+			Assert.assertEquals("P", driveState.shiftState);
+			Assert.assertEquals(1, refreshCount.get());
+			Assert.assertEquals("A2", teslaAPI.getTokens().accessToken);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void expiredAsyncTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN expired tokens and a refresh that takes a while
+			CountDownLatch refreshLatch = new CountDownLatch(1);
+			teslaAPI.setTokensRefresher((tokens) -> {
+				try {
+					refreshLatch.await();
+				}
+				catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				return new Tokens("A2", tokens.refreshToken, Instant.now(), 3600);
+			});
+			teslaAPI.setTokens(new Tokens("A1", "R", Instant.now().minusSeconds(7200), 3600));
+			
+			// WHEN
+			CompletableFuture<DriveState> future = teslaAPI.getDriveStateAsync("1");
+			
+			// THEN the calling thread did not wait for the refresh, the request is sent when it completes
+			Assert.assertFalse(future.isDone());
+			Assert.assertEquals(0, localOwnerAPI.getRequestCount());
+			refreshLatch.countDown();
+			Assert.assertEquals("P", future.get(2, TimeUnit.SECONDS).shiftState);
+			Assert.assertEquals("A2", teslaAPI.getTokens().accessToken);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void unauthorizedTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(50);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN the access token was revoked
+			AtomicInteger refreshCount = new AtomicInteger(0);
+			teslaAPI.setTokensRefresher((tokens) -> {
+				refreshCount.incrementAndGet();
+				return new Tokens("A2", tokens.refreshToken, Instant.now(), 3600);
+			});
+			teslaAPI.setTokens(new Tokens("A1", "R"));
+			teslaAPI.setCoalesceRequests(false);
+			localOwnerAPI.setAccessToken("A2");
+			
+			// WHEN many requests fail at the same time
+			List<CompletableFuture<DriveState>> futures = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				futures.add(teslaAPI.getDriveStateAsync("1"));
+			}
+			
+			// THEN all are retried with the tokens of one refresh
+			for (CompletableFuture<DriveState> future : futures) {
+				Assert.assertEquals("P", future.get().shiftState);
+			}
+			Assert.assertEquals(1, refreshCount.get());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void unauthorizedRefreshTokenRevokedTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(50);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN the access token and the refresh token were revoked
+			AtomicInteger refreshCount = new AtomicInteger(0);
+			teslaAPI.setTokensRefresher((tokens) -> {
+				refreshCount.incrementAndGet();
+				throw new RuntimeException("invalid_grant");
+			});
+			teslaAPI.setTokens(new Tokens("A1", "R"));
+			teslaAPI.setCoalesceRequests(false);
+			localOwnerAPI.setAccessToken("A2");
+			
+			// WHEN many requests fail at the same time
+			List<CompletableFuture<DriveState>> futures = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				futures.add(teslaAPI.getDriveStateAsync("1"));
+			}
+			
+			// THEN all get the outcome of one refresh
+			for (CompletableFuture<DriveState> future : futures) {
+				Assert.assertNull(future.get());
+			}
+			Assert.assertEquals(1, refreshCount.get());
+			Assert.assertEquals(20, localOwnerAPI.getRequestCount());
+			Assert.assertEquals("A1", teslaAPI.getTokens().accessToken);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void unauthorizedRefreshFailsTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN the refresh does not help
+			teslaAPI.setTokensRefresher((tokens) -> new Tokens("A3", tokens.refreshToken));
+			teslaAPI.setTokens(new Tokens("A1", "R"));
+			localOwnerAPI.setAccessToken("A2");
+			
+			// WHEN
+			DriveState driveState = teslaAPI.getDriveState("1");
+			
+			// THEN it is retried only once
+			Assert.assertNull(driveState);
+			Assert.assertEquals(2, localOwnerAPI.getRequestCount());
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.tbee.tesla.dto.Tokens;
+
+/**
+ * Compares heap use and open sockets of 1000 accounts, each with a private transport, against 1000 accounts on one shared transport.
+ * Run as a plain java main, no live account is needed: the calls go to a LocalOwnerAPI.
+ */
+public class TransportBenchmark {
+	
+	static final int NUMBER_OF_ACCOUNTS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+		) {
+			String urlBase = localOwnerAPI.getUrlBase();
+			measure("private transport", urlBase, false);
+			measure("shared transport", urlBase, true);
+		}
+	}
+	
+	/* */
+	static void measure(String label, String urlBase, boolean shared) {
+		long heapBefore = usedHeap();
+		Set<TeslaTransport> teslaTransports = new LinkedHashSet<>();
+		List<TeslaAPI> teslaAPIs = new ArrayList<>();
+		TeslaTransport sharedTeslaTransport = (shared ? new TeslaTransport(urlBase) : null);
+		for (int i = 0; i < NUMBER_OF_ACCOUNTS; i++) {
+			TeslaTransport teslaTransport = (shared ? sharedTeslaTransport : new TeslaTransport(urlBase));
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			teslaAPI.setTokens(new Tokens("A" + i, "R" + i));
+			teslaAPI.getVehicles();
+			teslaTransports.add(teslaTransport);
+			teslaAPIs.add(teslaAPI);
+		}
+		long heapAfter = usedHeap();
+		int sockets = teslaTransports.stream().mapToInt(TeslaTransport::getConnectionCount).sum();
+		System.out.println(String.format("%-20s accounts=%d transports=%d heap=%,d bytes (%,d per account) sockets=%d", label, NUMBER_OF_ACCOUNTS, teslaTransports.size(), heapAfter - heapBefore, (heapAfter - heapBefore) / NUMBER_OF_ACCOUNTS, sockets));
+		
+		// cleanup
+		teslaTransports.forEach(TeslaTransport::close);
+		teslaAPIs.forEach(TeslaAPI::close);
+	}
+	
+	/* */
+	static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,157 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.Tokens;
+import org.tbee.tesla.dto.VehicleData;
+
+public class VehiclePollerTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void asleepTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			localOwnerAPI.setVehicleState("asleep");
+			List<VehicleData> vehicleDatas = new ArrayList<>();
+			VehiclePoller vehiclePoller = new VehiclePoller(teslaAPI, (vehicle, vehicleData) -> vehicleDatas.add(vehicleData));
+			
+			// WHEN
+			vehiclePoller.pollAsync().get();
+			
+			// THEN only the vehicles list was requested
+			Assert.assertEquals(1, localOwnerAPI.getRequestCount());
+			Assert.assertEquals(1, vehicleDatas.size());
+			Assert.assertNull(vehicleDatas.get(0));
+			Assert.assertEquals(1, vehiclePoller.getAvoidedByStateCount());
+			Assert.assertEquals(0, vehiclePoller.getDataCallCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void onlineTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			List<VehicleData> vehicleDatas = new ArrayList<>();
+			VehiclePoller vehiclePoller = new VehiclePoller(teslaAPI, (vehicle, vehicleData) -> vehicleDatas.add(vehicleData), VehicleData.DRIVE_STATE, VehicleData.CHARGE_STATE);
+			
+			// WHEN
+			vehiclePoller.pollAsync().get();
+			
+			// THEN
+			Assert.assertEquals(2, localOwnerAPI.getRequestCount());
+			Assert.assertEquals("P", vehicleDatas.get(0).driveState.shiftState);
+			Assert.assertEquals(1, vehiclePoller.getDataCallCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void sleepWindowTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN a parked vehicle
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			AtomicLong clock = new AtomicLong(0);
+			VehiclePoller vehiclePoller = new VehiclePoller(teslaAPI, (vehicle, vehicleData) -> {}, clock::get, VehicleData.DRIVE_STATE, VehicleData.CHARGE_STATE);
+			vehiclePoller.setIdleBeforeSleepWindow(Duration.ofMinutes(10));
+			vehiclePoller.setSleepWindow(Duration.ofMinutes(20));
+			
+			// WHEN polling every minute for 40 minutes
+			for (int i = 0; i <= 40; i++) {
+				clock.set(Duration.ofMinutes(i).toMillis());
+				vehiclePoller.pollAsync().get();
+			}
+			
+			// THEN the data was fetched for 0-10, not for 11-29, again for 30-40 (and then the window starts again)
+			Assert.assertEquals(22, vehiclePoller.getDataCallCount());
+			Assert.assertEquals(19, vehiclePoller.getAvoidedBySleepWindowCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void vehiclesFailedTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN a parked vehicle in its sleep window
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			AtomicLong clock = new AtomicLong(0);
+			VehiclePoller vehiclePoller = new VehiclePoller(teslaAPI, (vehicle, vehicleData) -> {}, clock::get, VehicleData.DRIVE_STATE, VehicleData.CHARGE_STATE);
+			vehiclePoller.setIdleBeforeSleepWindow(Duration.ofMinutes(10));
+			vehiclePoller.setSleepWindow(Duration.ofMinutes(20));
+			for (int i = 0; i <= 10; i++) {
+				clock.set(Duration.ofMinutes(i).toMillis());
+				vehiclePoller.pollAsync().get();
+			}
+			
+			// WHEN the vehicles list fails once (throttled, including the retries)
+			localOwnerAPI.throttle(teslaAPI.getRateLimiting().getMaxRetries() + 1);
+			clock.set(Duration.ofMinutes(11).toMillis());
+			try {
+				vehiclePoller.pollAsync().get();
+				Assert.fail("should fail");
+			}
+			catch (ExecutionException e) {
+				// expected
+			}
+			clock.set(Duration.ofMinutes(12).toMillis());
+			vehiclePoller.pollAsync().get();
+			
+			// THEN the sleep window survived, the vehicle was not polled as if it were new
+			Assert.assertEquals(11, vehiclePoller.getDataCallCount());
+			Assert.assertEquals(1, vehiclePoller.getAvoidedBySleepWindowCount());
+		}
+	}
+}
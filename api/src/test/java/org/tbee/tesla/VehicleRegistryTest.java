@@ -0,0 +1,118 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.Tokens;
+import org.tbee.tesla.dto.Vehicle;
+
+public class VehicleRegistryTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void lookupTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			VehicleRegistry vehicleRegistry = new VehicleRegistry(teslaAPI);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			
+			// WHEN
+			Vehicle vehicle = null;
+			for (int i = 0; i < 1000; i++) {
+				vehicle = vehicleRegistry.getByVIN("5YJ3E7EB0KF000001");
+			}
+			
+			// THEN only the first lookup made a request
+			Assert.assertEquals("12345678901234567", vehicle.id);
+			Assert.assertSame(vehicle, vehicleRegistry.getById("12345678901234567"));
+			Assert.assertNull(vehicleRegistry.getByVIN("unknown"));
+			Assert.assertEquals(1, localOwnerAPI.getRequestCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void refreshTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			VehicleRegistry vehicleRegistry = new VehicleRegistry(teslaAPI);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			Vehicle vehicle1 = vehicleRegistry.getById("12345678901234567");
+			
+			// WHEN
+			vehicleRegistry.refresh();
+			Vehicle vehicle2 = vehicleRegistry.getById("12345678901234567");
+			localOwnerAPI.setVehicleState("asleep");
+			vehicleRegistry.refresh();
+			Vehicle vehicle3 = vehicleRegistry.getById("12345678901234567");
+			
+			// THEN an unchanged vehicle is reused
+			Assert.assertSame(vehicle1, vehicle2);
+			Assert.assertNotSame(vehicle2, vehicle3);
+			Assert.assertTrue(vehicle3.isAsleep());
+			Assert.assertEquals(1, vehicleRegistry.getReusedCount());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void failedRefreshTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			VehicleRegistry vehicleRegistry = new VehicleRegistry(teslaAPI);
+		) {
+			// GIVEN
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaAPI.getRateLimiting().setMaxRetries(0);
+			vehicleRegistry.refresh();
+			localOwnerAPI.throttle(1);
+			
+			// WHEN
+			try {
+				vehicleRegistry.refresh();
+				Assert.fail();
+			}
+			catch (RuntimeException e) {
+				// expected
+			}
+			
+			// THEN the previous list remains
+			Assert.assertNotNull(vehicleRegistry.getByVIN("5YJ3E7EB0KF000001"));
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.dto.Tokens;
+
+public class WakeUpTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void backoffTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN the first two attempts fail
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaAPI.getRateLimiting().setMaxRetries(0);
+			localOwnerAPI.throttle(4);
+			
+			// WHEN
+			String shiftState = teslaAPI.wakeUpAsync("1", Duration.ofSeconds(10), Duration.ofMillis(10), Duration.ofMillis(100)).get();
+			
+			// THEN
+			Assert.assertEquals("P", shiftState);
+			Assert.assertEquals(6, localOwnerAPI.getRequestCount()); // 3x wake_up + drive_state
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void timeoutTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN all attempts fail
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaAPI.getRateLimiting().setMaxRetries(0);
+			localOwnerAPI.throttle(Integer.MAX_VALUE);
+			
+			// WHEN
+			String shiftState = teslaAPI.wakeUpAsync("1", Duration.ofMillis(300), Duration.ofMillis(10), Duration.ofMillis(1000)).get();
+			
+			// THEN
+			Assert.assertNull(shiftState);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void cancelTest() throws Exception {
+		try (
+			LocalOwnerAPI localOwnerAPI = new LocalOwnerAPI(0);
+			TeslaTransport teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN all attempts fail
+			teslaAPI.setTokens(new Tokens("A", "R"));
+			teslaAPI.getRateLimiting().setMaxRetries(0);
+			localOwnerAPI.throttle(Integer.MAX_VALUE);
+			CompletableFuture<String> future = teslaAPI.wakeUpAsync("1", Duration.ofSeconds(60), Duration.ofMillis(100), Duration.ofMillis(100));
+			Thread.sleep(50);
+			
+			// WHEN
+			future.cancel(true);
+			int requestCount = localOwnerAPI.getRequestCount();
+			Thread.sleep(300);
+			
+			// THEN no more attempts are made
+			Assert.assertTrue(future.isCancelled());
+			Assert.assertEquals(requestCount, localOwnerAPI.getRequestCount());
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI-benchmarks
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with JMH's GC profiler always on, so every benchmark reports its allocation per operation (gc.alloc.rate.norm, in bytes).
+ * Unlike time, the allocation per operation hardly depends on the machine, so it can be held against a baseline to catch regressions.
+ * 
+ * - The arguments are JMH's, e.g. "RoundTrip" to only run those benchmarks, or "-f 3" for more forks.
+ * - The results are also written as JSON to jmh-result.json.
+ * - -DwriteBaseline=allocation-baseline.properties writes the measured allocations as the new baseline.
+ * - -Dbaseline=allocation-baseline.properties compares against the baseline, and exits with 1 if a benchmark allocates more than the tolerance above it.
+ *   -DbaselineTolerance=0.1 sets the tolerance as a fraction (default 10%), with a minimum of 16 bytes to absorb noise in tiny allocations.
+ * 
+ * Example usage:
+ * 		mvn -pl benchmarks -am package -DskipTests
+ * 		java -Dbaseline=benchmarks/allocation-baseline.properties -jar benchmarks/target/benchmarks.jar
+ */
+public class BenchmarkRunner {
+	
+	static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+	static final double MIN_TOLERANCE_IN_BYTES = 16.0;
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("jmh-result.json")
+				.build();
+		Collection<RunResult> runResults = new Runner(options).run();
+		
+		// Collect the allocations
+		Map<String, Double> allocations = new TreeMap<>();
+		for (RunResult runResult : runResults) {
+			Double allocation = allocation(runResult);
+			if (allocation != null) {
+				allocations.put(label(runResult), allocation);
+			}
+		}
+		
+		String writeBaseline = System.getProperty("writeBaseline");
+		if (writeBaseline != null) {
+			writeBaseline(writeBaseline, allocations);
+		}
+		String baseline = System.getProperty("baseline");
+		if (baseline != null) {
+			double tolerance = Double.parseDouble(System.getProperty("baselineTolerance", "0.1"));
+			if (!compareBaseline(baseline, allocations, tolerance)) {
+				System.exit(1);
+			}
+		}
+	}
+	
+	/*
+	 * The benchmark name plus its parameters, e.g. "org.tbee.tesla.ResponseParserBenchmark.getState:endpoint=charge_state"
+	 */
+	static private String label(RunResult runResult) {
+		StringBuilder label = new StringBuilder(runResult.getParams().getBenchmark());
+		for (String key : runResult.getParams().getParamsKeys()) {
+			label.append(":").append(key).append("=").append(runResult.getParams().getParam(key));
+		}
+		return label.toString();
+	}
+	
+	/*
+	 * The allocation per operation in bytes, older JMH versions prefix the profiler's metrics with a dot
+	 */
+	static private Double allocation(RunResult runResult) {
+		for (Map.Entry<String, Result> entry : runResult.getSecondaryResults().entrySet()) {
+			if (entry.getKey().equals(ALLOCATION_METRIC) || entry.getKey().equals("·" + ALLOCATION_METRIC)) {
+				return entry.getValue().getScore();
+			}
+		}
+		return null;
+	}
+	
+	/* */
+	static private void writeBaseline(String filename, Map<String, Double> allocations) throws IOException {
+		Properties properties = new Properties();
+		allocations.forEach((label, allocation) -> properties.setProperty(label, String.format(Locale.US, "%.1f", allocation)));
+		try (
+			Writer writer = new FileWriter(filename);
+		) {
+			properties.store(writer, "Allocation per operation in bytes (" + ALLOCATION_METRIC + "), written by BenchmarkRunner");
+		}
+		System.out.println("Baseline written to " + filename);
+	}
+	
+	/*
+	 * @return false if a benchmark regressed
+	 */
+	static private boolean compareBaseline(String filename, Map<String, Double> allocations, double tolerance) throws IOException {
+		Properties properties = new Properties();
+		try (
+			Reader reader = new FileReader(filename);
+		) {
+			properties.load(reader);
+		}
+		
+		boolean ok = true;
+		for (Map.Entry<String, Double> entry : allocations.entrySet()) {
+			String baselineValue = properties.getProperty(entry.getKey());
+			if (baselineValue == null) {
+				System.out.println("NEW        " + entry.getKey() + ": " + Math.round(entry.getValue()) + " bytes/op");
+				continue;
+			}
+			double baselineAllocation = Double.parseDouble(baselineValue);
+			double limit = baselineAllocation + Math.max(MIN_TOLERANCE_IN_BYTES, baselineAllocation * tolerance);
+			boolean regressed = entry.getValue() > limit;
+			ok &= !regressed;
+			System.out.println((regressed ? "REGRESSION " : "OK         ") + entry.getKey() + ": " + Math.round(entry.getValue()) + " bytes/op, baseline " + Math.round(baselineAllocation));
+		}
+		return ok;
+	}
+}
@@ -0,0 +1,80 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI-benchmarks
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/**
+ * What doCommand does before the call is made: create the command (formatting its JSON body) and build the request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+	
+	static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+	static final String URL = TeslaAPI.URL_BASE + TeslaAPI.URL_VERSION + TeslaAPI.URL_VEHICLES + "12345678901234567/command/";
+	
+	public double temp = 21.5; // not final, so the formatting cannot be constant folded
+	public int percent = 80;
+	
+	@Benchmark
+	public Request setTemps() {
+		return request(Command.setTemps(temp, temp));
+	}
+	
+	@Benchmark
+	public Request setChargeLimit() {
+		return request(Command.setChargeLimit(percent));
+	}
+	
+	@Benchmark
+	public Request flashLights() {
+		return request(Command.flashLights());
+	}
+	
+	/* same as TeslaAPI.doCommandAsync */
+	private Request request(Command command) {
+		return new Request.Builder()
+                .url(URL + command.name)
+                .header(TeslaAPI.HEADER_AUTHORIZATION, "Bearer 1234567890abcdef")
+				.post(RequestBody.create(command.bodyContent, JSON))
+                .build();
+	}
+}
@@ -0,0 +1,59 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI-benchmarks
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The PKCE code verifier and challenge, computed at every login.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginHelperBenchmark {
+	
+	private final TeslaLoginHelper teslaLoginHelper = new TeslaLoginHelper(null, ""); // the HTTP client is not used
+	private final String codeVerifier = teslaLoginHelper.generateCodeVerifier();
+	
+	@Benchmark
+	public String generateCodeVerifier() {
+		return teslaLoginHelper.generateCodeVerifier();
+	}
+	
+	@Benchmark
+	public String computeChallenge() {
+		return teslaLoginHelper.computeChallenge(codeVerifier);
+	}
+}
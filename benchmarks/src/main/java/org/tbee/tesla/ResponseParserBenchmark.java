@@ -0,0 +1,89 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI-benchmarks
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tbee.tesla.dto.Vehicle;
+
+import com.google.gson.JsonObject;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+/**
+ * The JSON to DTO construction of getState (per endpoint, via the DtoRegistry) and the parse of getVehicles.
+ * A fresh ResponseBody is created per invocation, as OkHttp does per response, so its cost is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParserBenchmark {
+	
+	static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+	
+	@Param({"charge_state", "climate_state", "drive_state", "gui_settings"})
+	public String endpoint;
+	
+	private byte[] stateBytes;
+	private Function<JsonObject, Object> stateFactory;
+	private byte[] vehiclesBytes;
+	
+	@Setup
+	public void setup() {
+		String state = endpoint.equals("charge_state") ? LocalOwnerAPI.CHARGE_STATE
+		             : endpoint.equals("climate_state") ? LocalOwnerAPI.CLIMATE_STATE
+		             : endpoint.equals("drive_state") ? LocalOwnerAPI.DRIVE_STATE
+		             : LocalOwnerAPI.GUI_SETTINGS;
+		stateBytes = state.getBytes(StandardCharsets.UTF_8);
+		stateFactory = DtoRegistry.factory(endpoint, Object.class);
+		vehiclesBytes = LocalOwnerAPI.VEHICLES.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	@Benchmark
+	public Object getState() throws IOException {
+		return ResponseParser.parseObject(ResponseBody.create(stateBytes, JSON), stateFactory);
+	}
+	
+	@Benchmark
+	public List<Vehicle> getVehicles() throws IOException {
+		return ResponseParser.parseArray(ResponseBody.create(vehiclesBytes, JSON), Vehicle::new);
+	}
+}
@@ -0,0 +1,89 @@
+package org.tbee.tesla;
+
+/*-
+ * #%L
+ * TeslaAPI-benchmarks
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tbee.tesla.dto.ChargeState;
+import org.tbee.tesla.dto.Tokens;
+
+/**
+ * A full request: from the TeslaAPI method, through OkHttp and the loopback network, to an in-process server, and back to the DTO.
+ * The server responds without delay, so this measures the client side overhead (plus the server's, which is the same for every run).
+ * Note that the allocation per operation includes that of the server, since it runs in the same JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+	
+	private LocalOwnerAPI localOwnerAPI;
+	private TeslaTransport teslaTransport;
+	private TeslaAPI teslaAPI;
+	
+	@Setup
+	public void setup() throws Exception {
+		localOwnerAPI = new LocalOwnerAPI(0);
+		teslaTransport = new TeslaTransport(localOwnerAPI.getUrlBase());
+		teslaAPI = new TeslaAPI(teslaTransport);
+		teslaAPI.setTokens(new Tokens("A", "R"));
+		teslaAPI.setCoalesceRequests(false); // every invocation should make a request
+	}
+	
+	@TearDown
+	public void tearDown() {
+		teslaAPI.close();
+		teslaTransport.close();
+		localOwnerAPI.close();
+	}
+	
+	@Benchmark
+	public ChargeState getChargeState() {
+		return teslaAPI.getChargeState("1");
+	}
+	
+	@Benchmark
+	public String flashLights() {
+		return teslaAPI.flashLights("1");
+	}
+	
+	@Benchmark
+	@Threads(8)
+	public ChargeState getChargeStateConcurrent() {
+		return teslaAPI.getChargeState("1");
+	}
+}
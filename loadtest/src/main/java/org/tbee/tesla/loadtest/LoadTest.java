@@ -0,0 +1,236 @@
+package org.tbee.tesla.loadtest;
+
+/*-
+ * #%L
+ * TeslaAPI-loadtest
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.tbee.tesla.TeslaAPI;
+import org.tbee.tesla.TeslaMetrics;
+import org.tbee.tesla.TeslaTransport;
+import org.tbee.tesla.dto.Vehicle;
+import org.tbee.tesla.simulator.SimulatedAccount;
+import org.tbee.tesla.simulator.TeslaSimulator;
+
+/**
+ * Drives a fleet of simulated accounts and vehicles through a mix of operations using the real TeslaAPI client, and reports the throughput, latencies and JVM behavior.
+ * 
+ * - All accounts share one TeslaTransport, each has its own TeslaAPI, as a fleet application would.
+ * - A closed loop keeps a fixed number of operations in flight, an open loop sends at a fixed rate and measures the latency from when an operation should have been sent (so a stall is not hidden by sending less).
+ * - After the warm up the measurements start over.
+ * 
+ * Run from Maven with: 
+ * 		mvn -pl loadtest -am verify -Ploadtest -DskipTests -Dscenario=scenarios/mixed.properties -Dloadtest.jvmArgs="-Xmx512m -XX:+UseZGC"
+ */
+public class LoadTest {
+	
+	static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+	private final Scenario scenario;
+	private final List<Target> targets = new ArrayList<>();
+	private volatile LoadTestReport report;
+	private volatile boolean running;
+	private final AtomicInteger inFlightCount = new AtomicInteger(0);
+	
+	/**
+	 * 
+	 */
+	public LoadTest(Scenario scenario) {
+		this.scenario = scenario;
+	}
+	
+	/**
+	 * Run the scenario against an in-process simulator
+	 */
+	public LoadTestReport run() throws IOException {
+		try (
+			TeslaSimulator teslaSimulator = new TeslaSimulator();
+			TeslaTransport teslaTransport = new TeslaTransport(teslaSimulator.getUrlBase(), teslaSimulator.getAuthUrlBase());
+		) {
+			teslaTransport.setMaxConcurrentRequests(scenario.maxConcurrentRequests);
+			teslaSimulator.setTokenLifetime(scenario.simulatorTokenLifetime);
+			teslaSimulator.setFallAsleepAfter(scenario.simulatorFallAsleepAfter);
+			List<TeslaAPI> teslaAPIs = setup(teslaSimulator, teslaTransport);
+			try {
+				// the latency is only added after the setup, so logging in many accounts does not take long
+				teslaSimulator.setLatency(scenario.simulatorLatency);
+				teslaSimulator.setTimeScale(scenario.simulatorTimeScale);
+				
+				// warm up
+				report = new LoadTestReport(scenario);
+				teslaAPIs.forEach(teslaAPI -> teslaAPI.setMetrics(report.metrics));
+				drive(scenario.warmup);
+				
+				// measure
+				report = new LoadTestReport(scenario);
+				teslaAPIs.forEach(teslaAPI -> teslaAPI.setMetrics(report.metrics));
+				report.start();
+				drive(scenario.duration);
+				report.stop();
+				teslaAPIs.forEach(teslaAPI -> teslaAPI.setMetrics(TeslaMetrics.NOOP));
+				return report;
+			}
+			finally {
+				teslaAPIs.forEach(TeslaAPI::close);
+			}
+		}
+	}
+	
+	/*
+	 * Create the accounts and log in
+	 */
+	private List<TeslaAPI> setup(TeslaSimulator teslaSimulator, TeslaTransport teslaTransport) {
+		List<TeslaAPI> teslaAPIs = new ArrayList<>();
+		List<SimulatedAccount> simulatedAccounts = teslaSimulator.createAccounts(scenario.accounts, scenario.vehiclesPerAccount);
+		for (SimulatedAccount simulatedAccount : simulatedAccounts) {
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+			teslaAPIs.add(teslaAPI);
+			teslaAPI.setLogPrefix(simulatedAccount.email + ": ");
+			teslaAPI.login(simulatedAccount.getAuthorizationCode());
+			for (Vehicle vehicle : teslaAPI.getVehicles()) {
+				targets.add(new Target(teslaAPI, vehicle.id));
+			}
+		}
+		return teslaAPIs;
+	}
+	
+	/*
+	 * Send operations for the duration, then wait for the ones in flight
+	 */
+	private void drive(Duration duration) {
+		running = true;
+		long endNanos = System.nanoTime() + duration.toNanos();
+		if (scenario.rate > 0) {
+			driveOpenLoop(endNanos);
+		}
+		else {
+			for (int i = 0; i < scenario.concurrency; i++) {
+				Random random = new Random(scenario.seed + i);
+				inFlightCount.incrementAndGet();
+				next(random, endNanos);
+			}
+			LockSupport.parkNanos(Math.max(0, endNanos - System.nanoTime()));
+		}
+		running = false;
+		
+		// drain
+		long drainEndNanos = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+		while (inFlightCount.get() > 0 && System.nanoTime() < drainEndNanos) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+	
+	/*
+	 * Closed loop: when an operation completes, the next one is started.
+	 * Operations that complete immediately (e.g. a failure before the request is sent) are looped over instead of recursed into.
+	 */
+	private void next(Random random, long endNanos) {
+		while (running && System.nanoTime() < endNanos) {
+			LoadTestReport report = this.report;
+			Operation operation = scenario.pick(random.nextDouble());
+			long startNanos = System.nanoTime();
+			CompletableFuture<?> future = start(operation, random);
+			if (!future.isDone()) {
+				future.whenComplete((result, throwable) -> {
+					report.record(operation, System.nanoTime() - startNanos, throwable != null || operation.isFailure(result));
+					next(random, endNanos);
+				});
+				return;
+			}
+			report.record(operation, System.nanoTime() - startNanos, future.isCompletedExceptionally() || operation.isFailure(future.getNow(null)));
+		}
+		inFlightCount.decrementAndGet();
+	}
+	
+	/*
+	 * Open loop: operations are sent at a fixed rate, if the sending falls behind, it catches up.
+	 * The latency is measured from the moment the operation should have been sent.
+	 */
+	private void driveOpenLoop(long endNanos) {
+		Random random = new Random(scenario.seed);
+		long intervalInNanos = (long)(1_000_000_000.0 / scenario.rate);
+		long intendedNanos = System.nanoTime();
+		while (intendedNanos < endNanos) {
+			long waitNanos = intendedNanos - System.nanoTime();
+			if (waitNanos > 0) {
+				LockSupport.parkNanos(waitNanos);
+				continue;
+			}
+			LoadTestReport report = this.report;
+			Operation operation = scenario.pick(random.nextDouble());
+			long startNanos = intendedNanos;
+			inFlightCount.incrementAndGet();
+			start(operation, random).whenComplete((result, throwable) -> {
+				report.record(operation, System.nanoTime() - startNanos, throwable != null || operation.isFailure(result));
+				inFlightCount.decrementAndGet();
+			});
+			intendedNanos += intervalInNanos;
+		}
+	}
+	
+	/* */
+	private CompletableFuture<?> start(Operation operation, Random random) {
+		Target target = targets.get(random.nextInt(targets.size()));
+		try {
+			return operation.start(target.teslaAPI, target.vehicleId, random);
+		}
+		catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+	
+	/* */
+	static private final class Target {
+		final TeslaAPI teslaAPI;
+		final String vehicleId;
+		
+		Target(TeslaAPI teslaAPI, String vehicleId) {
+			this.teslaAPI = teslaAPI;
+			this.vehicleId = vehicleId;
+		}
+	}
+	
+	/**
+	 * Usage: LoadTest [scenario file] [report file]
+	 */
+	public static void main(String[] args) throws IOException {
+		Path scenarioPath = Paths.get(args.length > 0 ? args[0] : "scenarios/mixed.properties");
+		Scenario scenario = Scenario.load(scenarioPath);
+		Path reportPath = Paths.get(args.length > 1 ? args[1] : "target/loadtest/" + scenario.name + ".properties");
+		
+		System.out.println("Running " + scenario);
+		TeslaSimulator.enableTcpNoDelay();
+		LoadTestReport report = new LoadTest(scenario).run();
+		report.print(System.out);
+		report.write(reportPath);
+		System.out.println("Report written to " + reportPath.toAbsolutePath());
+	}
+}
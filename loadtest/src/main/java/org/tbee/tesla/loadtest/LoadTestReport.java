@@ -0,0 +1,277 @@
+package org.tbee.tesla.loadtest;
+
+/*-
+ * #%L
+ * TeslaAPI-loadtest
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.tbee.tesla.InMemoryTeslaMetrics;
+import org.tbee.tesla.LatencyHistogram;
+
+/**
+ * The results of a load test run: the throughput and latency per operation, the HTTP statuses per endpoint, and the JVM's threads, heap and GC.
+ * 
+ * Note that when the simulator runs in the same JVM (which is the default) the JVM figures include it. 
+ * That is fine for comparing client changes or JVM flags, because the simulator's share is the same in every run.
+ */
+public class LoadTestReport {
+
+	final Scenario scenario;
+	private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+	private final Map<Operation, LongAdder> failures = new EnumMap<>(Operation.class);
+	private final LatencyHistogram totalLatency = new LatencyHistogram();
+	final InMemoryTeslaMetrics metrics = new InMemoryTeslaMetrics();
+	
+	// JVM
+	private long startNanos;
+	private long elapsedNanos;
+	private long gcCountAtStart;
+	private long gcTimeAtStart;
+	private long gcCount;
+	private long gcTimeInMillis;
+	private int peakThreadCount;
+	private int threadCount;
+	private long peakHeapInBytes;
+	
+	/*
+	 * 
+	 */
+	LoadTestReport(Scenario scenario) {
+		this.scenario = scenario;
+		for (Operation operation : Operation.values()) {
+			latencies.put(operation, new LatencyHistogram());
+			failures.put(operation, new LongAdder());
+		}
+	}
+	
+	/*
+	 * Called from many threads at the same time
+	 */
+	void record(Operation operation, long latencyInNanos, boolean failed) {
+		latencies.get(operation).record(latencyInNanos);
+		totalLatency.record(latencyInNanos);
+		if (failed) {
+			failures.get(operation).increment();
+		}
+	}
+	
+	/*
+	 * Start measuring the JVM
+	 */
+	void start() {
+		ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+		for (MemoryPoolMXBean memoryPoolMXBean : ManagementFactory.getMemoryPoolMXBeans()) {
+			memoryPoolMXBean.resetPeakUsage();
+		}
+		gcCountAtStart = gcCount();
+		gcTimeAtStart = gcTime();
+		startNanos = System.nanoTime();
+	}
+	
+	/*
+	 * Stop measuring the JVM
+	 */
+	void stop() {
+		elapsedNanos = System.nanoTime() - startNanos;
+		gcCount = gcCount() - gcCountAtStart;
+		gcTimeInMillis = gcTime() - gcTimeAtStart;
+		peakThreadCount = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+		threadCount = ManagementFactory.getThreadMXBean().getThreadCount();
+		peakHeapInBytes = 0;
+		for (MemoryPoolMXBean memoryPoolMXBean : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (memoryPoolMXBean.getType() == MemoryType.HEAP) {
+				peakHeapInBytes += memoryPoolMXBean.getPeakUsage().getUsed(); // the sum of the peaks per pool is an upper bound of the actual peak
+			}
+		}
+	}
+	
+	/* a collector that does not report returns -1 */
+	static private long gcCount() {
+		return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(c -> c > 0).sum();
+	}
+	static private long gcTime() {
+		return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(t -> t > 0).sum();
+	}
+	
+	/**
+	 * @return the number of completed operations
+	 */
+	public long getCount() {
+		return totalLatency.getCount();
+	}
+	
+	/**
+	 * @return the number of operations that completed exceptionally, or with an error result (e.g. the HTTP 408 of a sleeping vehicle), see Operation
+	 */
+	public long getFailureCount() {
+		return failures.values().stream().mapToLong(LongAdder::sum).sum();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getFailureCount(Operation operation) {
+		return failures.get(operation).sum();
+	}
+	
+	/**
+	 * @return completed operations per second
+	 */
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0.0 : getCount() * 1_000_000_000.0 / elapsedNanos;
+	}
+	
+	/**
+	 * @return the latency of all operations
+	 */
+	public LatencyHistogram getLatencyHistogram() {
+		return totalLatency;
+	}
+	
+	/**
+	 * 
+	 */
+	public LatencyHistogram getLatencyHistogram(Operation operation) {
+		return latencies.get(operation);
+	}
+	
+	/**
+	 * @return the HTTP level metrics, per endpoint
+	 */
+	public InMemoryTeslaMetrics getMetrics() {
+		return metrics;
+	}
+	
+	public int getPeakThreadCount() {
+		return peakThreadCount;
+	}
+	
+	public long getPeakHeapInBytes() {
+		return peakHeapInBytes;
+	}
+	
+	public long getGcCount() {
+		return gcCount;
+	}
+	
+	public long getGcTimeInMillis() {
+		return gcTimeInMillis;
+	}
+	
+	/**
+	 * Print a human readable report
+	 */
+	public void print(PrintStream printStream) {
+		printStream.println(String.format(Locale.US, "Scenario %s: %d accounts x %d vehicles, %s, %.1fs"
+				, scenario.name, scenario.accounts, scenario.vehiclesPerAccount
+				, scenario.rate > 0 ? "open loop at " + scenario.rate + "/s" : "closed loop with " + scenario.concurrency + " in flight"
+				, elapsedNanos / 1_000_000_000.0));
+		printStream.println(String.format(Locale.US, "%-16s %10s %8s %10s %10s %10s %10s %10s", "operation", "count", "failed", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+		for (Operation operation : Operation.values()) {
+			if (latencies.get(operation).getCount() > 0) {
+				printLine(printStream, operation.key, latencies.get(operation), failures.get(operation).sum());
+			}
+		}
+		printLine(printStream, "total", totalLatency, getFailureCount());
+		printStream.println();
+		printStream.println(String.format(Locale.US, "%-24s %10s %10s %10s %10s", "endpoint", "requests", "errors", "retries", "p99 ms"));
+		for (String endpoint : metrics.getEndpoints()) {
+			LatencyHistogram latencyHistogram = metrics.getLatencyHistogram(endpoint);
+			printStream.println(String.format(Locale.US, "%-24s %10d %10d %10d %10.1f", endpoint, latencyHistogram.getCount(), metrics.getErrorCount(endpoint), metrics.getRetryCount(endpoint), millis(latencyHistogram.getPercentileInNanos(99.0))));
+		}
+		printStream.println();
+		printStream.println(String.format(Locale.US, "threads: %d peak, %d at the end; heap: %.1f MB peak; gc: %d collections, %d ms", peakThreadCount, threadCount, peakHeapInBytes / 1_048_576.0, gcCount, gcTimeInMillis));
+	}
+	
+	/* */
+	private void printLine(PrintStream printStream, String name, LatencyHistogram latencyHistogram, long failed) {
+		printStream.println(String.format(Locale.US, "%-16s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f"
+				, name, latencyHistogram.getCount(), failed, elapsedNanos == 0 ? 0.0 : latencyHistogram.getCount() * 1_000_000_000.0 / elapsedNanos
+				, millis(latencyHistogram.getPercentileInNanos(50.0)), millis(latencyHistogram.getPercentileInNanos(99.0)), millis(latencyHistogram.getPercentileInNanos(99.9)), millis(latencyHistogram.getMaxInNanos())));
+	}
+	
+	/* */
+	static private double millis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+	
+	/**
+	 * The report as properties, so runs can be compared with a diff or a script
+	 */
+	public Properties toProperties() {
+		Properties properties = new Properties();
+		properties.setProperty("scenario", scenario.name);
+		properties.setProperty("elapsed.ms", String.valueOf(elapsedNanos / 1_000_000));
+		properties.setProperty("throughput", String.format(Locale.US, "%.1f", getThroughput()));
+		addLatencies(properties, "total", totalLatency, getFailureCount());
+		for (Operation operation : Operation.values()) {
+			addLatencies(properties, operation.key, latencies.get(operation), failures.get(operation).sum());
+		}
+		properties.setProperty("jvm.threads.peak", String.valueOf(peakThreadCount));
+		properties.setProperty("jvm.heap.peak.bytes", String.valueOf(peakHeapInBytes));
+		properties.setProperty("jvm.gc.count", String.valueOf(gcCount));
+		properties.setProperty("jvm.gc.time.ms", String.valueOf(gcTimeInMillis));
+		return properties;
+	}
+	
+	/* */
+	private void addLatencies(Properties properties, String prefix, LatencyHistogram latencyHistogram, long failed) {
+		properties.setProperty(prefix + ".count", String.valueOf(latencyHistogram.getCount()));
+		properties.setProperty(prefix + ".failed", String.valueOf(failed));
+		properties.setProperty(prefix + ".p50.ms", String.format(Locale.US, "%.3f", millis(latencyHistogram.getPercentileInNanos(50.0))));
+		properties.setProperty(prefix + ".p99.ms", String.format(Locale.US, "%.3f", millis(latencyHistogram.getPercentileInNanos(99.0))));
+		properties.setProperty(prefix + ".p999.ms", String.format(Locale.US, "%.3f", millis(latencyHistogram.getPercentileInNanos(99.9))));
+		properties.setProperty(prefix + ".max.ms", String.format(Locale.US, "%.3f", millis(latencyHistogram.getMaxInNanos())));
+	}
+	
+	/**
+	 * Write the report as properties
+	 */
+	public void write(Path path) {
+		try {
+			if (path.getParent() != null) {
+				Files.createDirectories(path.getParent());
+			}
+			try (
+				Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+			) {
+				toProperties().store(writer, "TeslaAPI load test " + scenario.name);
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.tbee.tesla.loadtest;
+
+/*-
+ * #%L
+ * TeslaAPI-loadtest
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.tbee.tesla.TeslaAPI;
+
+/**
+ * The operations a load test sends, through the asynchronous methods of TeslaAPI, so the client does not need a thread per operation in flight.
+ */
+public enum Operation {
+	GET_VEHICLES("getVehicles") {
+		@Override
+		CompletableFuture<?> start(TeslaAPI teslaAPI, String vehicleId, Random random) {
+			return teslaAPI.getVehiclesAsync();
+		}
+		@Override
+		boolean isFailure(Object result) {
+			return result == null || ((List<?>)result).isEmpty(); // the simulated accounts always have vehicles
+		}
+	},
+	GET_CHARGE_STATE("getChargeState") {
+		@Override
+		CompletableFuture<?> start(TeslaAPI teslaAPI, String vehicleId, Random random) {
+			return teslaAPI.getChargeStateAsync(vehicleId);
+		}
+		@Override
+		boolean isFailure(Object result) {
+			return result == null;
+		}
+	},
+	WAKE_UP("wakeUp") {
+		@Override
+		CompletableFuture<?> start(TeslaAPI teslaAPI, String vehicleId, Random random) {
+			return teslaAPI.wakeUpAsync(vehicleId);
+		}
+		@Override
+		boolean isFailure(Object result) {
+			return result != null; // the error
+		}
+	},
+	COMMAND("command") {
+		@Override
+		CompletableFuture<?> start(TeslaAPI teslaAPI, String vehicleId, Random random) {
+			switch (random.nextInt(4)) {
+				case 0: return teslaAPI.flashLightsAsync(vehicleId);
+				case 1: return teslaAPI.setChargeLimitAsync(vehicleId, 80 + random.nextInt(11));
+				case 2: return teslaAPI.startAutoConditioningAsync(vehicleId);
+				default: return teslaAPI.stopAutoConditioningAsync(vehicleId);
+			}
+		}
+		@Override
+		boolean isFailure(Object result) {
+			return result != null; // the error
+		}
+	};
+	
+	/**
+	 * The name used in the scenario files and the report
+	 */
+	final public String key;
+	
+	/* */
+	private Operation(String key) {
+		this.key = key;
+	}
+	
+	/*
+	 * 
+	 */
+	abstract CompletableFuture<?> start(TeslaAPI teslaAPI, String vehicleId, Random random);
+	
+	/*
+	 * The asynchronous methods do not fail on an HTTP error (e.g. the 408 of a sleeping vehicle), they return no vehicles, no state, or an error string instead.
+	 * @return true if the result of the operation is such an error
+	 */
+	abstract boolean isFailure(Object result);
+}
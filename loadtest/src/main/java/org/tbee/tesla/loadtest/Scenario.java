@@ -0,0 +1,148 @@
+package org.tbee.tesla.loadtest;
+
+/*-
+ * #%L
+ * TeslaAPI-loadtest
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The settings of a load test run, read from a properties file, see the scenarios directory for examples.
+ * 
+ * Properties not present in the file have the default shown below:
+ * 		accounts=10
+ * 		vehiclesPerAccount=10
+ * 		warmup=PT10S
+ * 		duration=PT30S
+ * 		concurrency=32                  # the number of operations in flight (closed loop)
+ * 		rate=0                          # operations per second (open loop), 0 sends the next operation as soon as one completes (closed loop)
+ * 		                                # in an open loop the operations are sent regardless of how many are in flight, the latency is measured from when they should have been sent
+ * 		seed=1
+ * 		mix.getVehicles=10              # the relative weights of the operations
+ * 		mix.getChargeState=70
+ * 		mix.wakeUp=10
+ * 		mix.command=10
+ * 		transport.maxConcurrentRequests=64
+ * 		simulator.latency=PT0.05S       # the average response time of the simulator
+ * 		simulator.timeScale=60
+ * 		simulator.tokenLifetime=PT8H    # in simulated time
+ * 		simulator.fallAsleepAfter=PT15M # in simulated time, a parked vehicle without requests falls asleep, and only answers a wake up until it is awake again
+ */
+public class Scenario {
+
+	final String name;
+	final int accounts;
+	final int vehiclesPerAccount;
+	final Duration warmup;
+	final Duration duration;
+	final int concurrency;
+	final double rate;
+	final long seed;
+	final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+	final int maxConcurrentRequests;
+	final Duration simulatorLatency;
+	final double simulatorTimeScale;
+	final Duration simulatorTokenLifetime;
+	final Duration simulatorFallAsleepAfter;
+	
+	/**
+	 * @param name used in the report
+	 */
+	public Scenario(String name, Properties properties) {
+		this.name = name;
+		this.accounts = Integer.parseInt(properties.getProperty("accounts", "10"));
+		this.vehiclesPerAccount = Integer.parseInt(properties.getProperty("vehiclesPerAccount", "10"));
+		this.warmup = Duration.parse(properties.getProperty("warmup", "PT10S"));
+		this.duration = Duration.parse(properties.getProperty("duration", "PT30S"));
+		this.concurrency = Integer.parseInt(properties.getProperty("concurrency", "32"));
+		this.rate = Double.parseDouble(properties.getProperty("rate", "0"));
+		this.seed = Long.parseLong(properties.getProperty("seed", "1"));
+		this.mix.put(Operation.GET_VEHICLES, Integer.parseInt(properties.getProperty("mix." + Operation.GET_VEHICLES.key, "10")));
+		this.mix.put(Operation.GET_CHARGE_STATE, Integer.parseInt(properties.getProperty("mix." + Operation.GET_CHARGE_STATE.key, "70")));
+		this.mix.put(Operation.WAKE_UP, Integer.parseInt(properties.getProperty("mix." + Operation.WAKE_UP.key, "10")));
+		this.mix.put(Operation.COMMAND, Integer.parseInt(properties.getProperty("mix." + Operation.COMMAND.key, "10")));
+		this.maxConcurrentRequests = Integer.parseInt(properties.getProperty("transport.maxConcurrentRequests", "64"));
+		this.simulatorLatency = Duration.parse(properties.getProperty("simulator.latency", "PT0.05S"));
+		this.simulatorTimeScale = Double.parseDouble(properties.getProperty("simulator.timeScale", "60"));
+		this.simulatorTokenLifetime = Duration.parse(properties.getProperty("simulator.tokenLifetime", "PT8H"));
+		this.simulatorFallAsleepAfter = Duration.parse(properties.getProperty("simulator.fallAsleepAfter", "PT15M"));
+		
+		if (accounts < 1 || vehiclesPerAccount < 1 || concurrency < 1) {
+            throw new IllegalArgumentException("accounts, vehiclesPerAccount and concurrency must be at least 1");
+		}
+		if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("The mix must contain at least one operation");
+		}
+	}
+	
+	/**
+	 * Read a scenario file, the name of the scenario is the file name without extension
+	 */
+	public static Scenario load(Path path) {
+		Properties properties = new Properties();
+		try (
+			Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+		) {
+			properties.load(reader);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		String name = path.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+		return new Scenario(name, properties);
+	}
+	
+	/*
+	 * Pick an operation according to the mix
+	 * @param value between 0.0 (inclusive) and 1.0 (exclusive)
+	 */
+	Operation pick(double value) {
+		int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+		double threshold = value * total;
+		int cumulative = 0;
+		for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+			cumulative += entry.getValue();
+			if (threshold < cumulative) {
+				return entry.getKey();
+			}
+		}
+		throw new IllegalStateException("Value out of range: " + value);
+	}
+	
+	@Override
+	public String toString() {
+		return super.toString()
+			 + ", name=" + name
+		     + ", accounts=" + accounts
+		     + ", vehiclesPerAccount=" + vehiclesPerAccount
+		     + ", duration=" + duration
+		     + ", concurrency=" + concurrency
+		     + ", rate=" + rate
+		     + ", mix=" + mix;
+	}
+}
@@ -0,0 +1,136 @@
+package org.tbee.tesla.loadtest;
+
+/*-
+ * #%L
+ * TeslaAPI-loadtest
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoadTestTest {
+
+	/**
+	 * 
+	 */
+	@Test
+	public void closedLoopTest() throws Exception {
+		// GIVEN
+		Scenario scenario = scenario("rate", "0");
+		
+		// WHEN
+		LoadTestReport report = new LoadTest(scenario).run();
+		
+		// THEN all operations were sent and completed
+		Assert.assertTrue(report.getCount() > 0);
+		Assert.assertEquals(0, report.getFailureCount());
+		for (Operation operation : Operation.values()) {
+			Assert.assertTrue(operation.key, report.getLatencyHistogram(operation).getCount() > 0);
+		}
+		Assert.assertTrue(report.getThroughput() > 0.0);
+		Assert.assertTrue(report.getPeakThreadCount() > 0);
+		Assert.assertTrue(report.getPeakHeapInBytes() > 0);
+		Assert.assertTrue(report.getMetrics().getEndpoints().contains("charge_state"));
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void openLoopTest() throws Exception {
+		// GIVEN 200 operations per second for 1 second
+		Scenario scenario = scenario("rate", "200");
+		
+		// WHEN
+		LoadTestReport report = new LoadTest(scenario).run();
+		
+		// THEN
+		Assert.assertEquals(200, report.getCount(), 2);
+		Assert.assertEquals(0, report.getFailureCount());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void sleepingVehiclesTest() throws Exception {
+		// GIVEN vehicles that fall asleep as soon as they are parked, and are not woken up
+		Scenario scenario = scenario("simulator.fallAsleepAfter", "PT0S", "mix.getVehicles", "0", "mix.wakeUp", "0", "mix.command", "0");
+		
+		// WHEN
+		LoadTestReport report = new LoadTest(scenario).run();
+		
+		// THEN the charge states, which the simulator answers with an HTTP 408, count as failed
+		long count = report.getLatencyHistogram(Operation.GET_CHARGE_STATE).getCount();
+		Assert.assertTrue(count > 0);
+		Assert.assertEquals(count, report.getFailureCount(Operation.GET_CHARGE_STATE));
+		Assert.assertEquals(count, report.getFailureCount());
+		Assert.assertTrue(report.getMetrics().getStatusCount("charge_state", 408) > 0); // fewer than the operations, concurrent requests for the same vehicle are coalesced
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void reportTest() throws Exception {
+		// GIVEN
+		Scenario scenario = scenario("rate", "0");
+		
+		// WHEN
+		Properties properties = new LoadTest(scenario).run().toProperties();
+		
+		// THEN
+		Assert.assertEquals("test", properties.getProperty("scenario"));
+		Assert.assertNotNull(properties.getProperty("total.p999.ms"));
+		Assert.assertNotNull(properties.getProperty("getChargeState.p50.ms"));
+		Assert.assertNotNull(properties.getProperty("jvm.gc.time.ms"));
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void mixTest() {
+		// GIVEN
+		Scenario scenario = scenario("mix.getVehicles", "0");
+		
+		// WHEN THEN the weights are 0, 70, 10, 10 of 90 
+		Assert.assertEquals(Operation.GET_CHARGE_STATE, scenario.pick(0.0));
+		Assert.assertEquals(Operation.GET_CHARGE_STATE, scenario.pick(69.0 / 90));
+		Assert.assertEquals(Operation.WAKE_UP, scenario.pick(71.0 / 90));
+		Assert.assertEquals(Operation.COMMAND, scenario.pick(0.999));
+	}
+	
+	/* a short scenario, with the settings as key value pairs */
+	static private Scenario scenario(String... keysAndValues) {
+		Properties properties = new Properties();
+		properties.setProperty("accounts", "2");
+		properties.setProperty("vehiclesPerAccount", "2");
+		properties.setProperty("warmup", "PT0.2S");
+		properties.setProperty("duration", "PT1S");
+		properties.setProperty("concurrency", "4");
+		properties.setProperty("simulator.latency", "PT0.005S");
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return new Scenario("test", properties);
+	}
+}
@@ -0,0 +1,72 @@
+package org.tbee.tesla.simulator;
+
+/*-
+ * #%L
+ * TeslaAPI-simulator
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A simulated Tesla account, owning one or more vehicles.
+ * 
+ * Login using the authorization code, e.g. teslaAPI.login(simulatedAccount.getAuthorizationCode()).
+ * Unlike the real auth server, the code can be used more than once, so many clients can log in to the same account.
+ */
+public class SimulatedAccount {
+
+	final public String email;
+	private final String authorizationCode = UUID.randomUUID().toString();
+	private final List<SimulatedVehicle> vehicles = new CopyOnWriteArrayList<>();
+	
+	/*
+	 * 
+	 */
+	SimulatedAccount(String email) {
+		this.email = email;
+	}
+	
+	/**
+	 * 
+	 */
+	public String getAuthorizationCode() {
+		return authorizationCode;
+	}
+	
+	/**
+	 * 
+	 */
+	public List<SimulatedVehicle> getVehicles() {
+		return vehicles;
+	}
+	
+	/* */
+	void addVehicle(SimulatedVehicle vehicle) {
+		vehicles.add(vehicle);
+	}
+	
+	@Override
+	public String toString() {
+		return super.toString()
+			 + ", email=" + email
+		     + ", vehicles=" + vehicles.size();
+	}
+}
@@ -0,0 +1,336 @@
+package org.tbee.tesla.simulator;
+
+/*-
+ * #%L
+ * TeslaAPI-simulator
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.Locale;
+import java.util.Random;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A simulated vehicle: it parks and drives, charges when the battery gets low, falls asleep when left alone, and takes a while to wake up.
+ * 
+ * - The state is not updated by a thread, but computed from the (simulated) time when the vehicle is accessed, so a simulator can hold many vehicles.
+ * - Each vehicle has its own random generator, seeded with its id, so a simulation with the same settings is reproducible.
+ *   It is only drawn from at the drive / park transitions and on a wake up, not on every access, so how often a vehicle is polled does not change its course.
+ * - Like a real vehicle, any API request other than the vehicles list keeps it awake.
+ */
+public class SimulatedVehicle {
+	
+	static final double DRAIN_PER_HOUR_DRIVING = 20.0; // percent
+	static final double LOW_BATTERY = 50.0; // percent, plug in after driving if below
+	static final long HOUR = 3_600_000_000_000L;
+	static final int SPEED = 31; // miles per hour, as the API reports
+	
+	final public long id;
+	final public long vehicleId;
+	final public String vin;
+	final public String displayName;
+	
+	final SimulatedAccount account;
+	private final TeslaSimulator simulator;
+	private final Random random;
+	
+	// State, guarded by this
+	private boolean asleep = false;
+	private long wakingUntil = -1;
+	private long lastActivity;
+	private long lastUpdate;
+	private boolean driving = false;
+	private long nextTransition; // from parked to driving or vice versa
+	private double batteryLevel;
+	private int chargeLimit = 90;
+	private boolean pluggedIn = false;
+	private boolean chargingStopped = false;
+	private boolean climateOn = false;
+	private double driverTemp = 21.0;
+	private double passengerTemp = 21.0;
+	private boolean locked = true;
+	private boolean sentryMode = false;
+	private double odometer; // miles
+	private double latitude;
+	private double longitude;
+	private int heading;
+	
+	/*
+	 * 
+	 */
+	SimulatedVehicle(TeslaSimulator simulator, SimulatedAccount account, long id, long now) {
+		this.simulator = simulator;
+		this.account = account;
+		this.id = id;
+		this.vehicleId = 1_000_000_000L + id;
+		this.vin = String.format("5YJ3E7EB0KF%06d", id % 1_000_000);
+		this.displayName = "Car " + id;
+		this.random = new Random(id);
+		this.batteryLevel = 40.0 + random.nextInt(50);
+		this.odometer = 1000.0 + random.nextInt(50_000);
+		this.latitude = 51.0 + random.nextDouble();
+		this.longitude = 5.0 + random.nextDouble();
+		this.lastActivity = now;
+		this.lastUpdate = now;
+		this.nextTransition = now + simulator.randomParkDuration(random);
+	}
+	
+	/*
+	 * Bring the state up to the given time
+	 */
+	private void update(long now) {
+		if (now <= lastUpdate) {
+			return;
+		}
+		
+		// Walk through the drive / park transitions, if there were any since the last update
+		while (now >= nextTransition) {
+			progress(nextTransition);
+			if (driving) {
+				driving = false;
+				pluggedIn = (batteryLevel < LOW_BATTERY);
+				chargingStopped = false;
+				nextTransition += simulator.randomParkDuration(random);
+			}
+			else {
+				driving = true;
+				pluggedIn = false;
+				asleep = false;
+				wakingUntil = -1;
+				heading = random.nextInt(360);
+				nextTransition += simulator.randomDriveDuration(random);
+			}
+		}
+		progress(now);
+	}
+	
+	/*
+	 * Progress the continuous state (battery, position, sleep) to the given time, without a drive / park transition in between
+	 */
+	private void progress(long time) {
+		long elapsed = time - lastUpdate;
+		if (elapsed <= 0) {
+			return;
+		}
+		double hours = (double)elapsed / HOUR;
+		if (driving) {
+			batteryLevel = Math.max(0.0, batteryLevel - DRAIN_PER_HOUR_DRIVING * hours);
+			latitude += 0.5 * hours * Math.cos(Math.toRadians(heading));
+			longitude += 0.5 * hours * Math.sin(Math.toRadians(heading));
+			odometer += SPEED * hours;
+			lastActivity = time;
+		}
+		else if (isCharging()) {
+			batteryLevel = Math.min(chargeLimit, batteryLevel + simulator.getChargeRatePerHour() * hours);
+			lastActivity = time;
+		}
+		
+		// Wake up or fall asleep
+		if (wakingUntil >= 0 && time >= wakingUntil) {
+			asleep = false;
+			wakingUntil = -1;
+			lastActivity = time;
+		}
+		if (!asleep && !driving && !isCharging() && time - lastActivity >= simulator.getFallAsleepAfterInNanos()) {
+			asleep = true;
+		}
+		lastUpdate = time;
+	}
+	
+	/* */
+	private boolean isCharging() {
+		return pluggedIn && !chargingStopped && batteryLevel < chargeLimit;
+	}
+	
+	/* */
+	private String chargingState() {
+		return !pluggedIn ? "Disconnected"
+		     : chargingStopped ? "Stopped"
+		     : batteryLevel >= chargeLimit ? "Complete"
+		     : "Charging";
+	}
+	
+	/**
+	 * @return "asleep", "waking" or "online"
+	 */
+	public synchronized String getState(long now) {
+		update(now);
+		return asleep ? (wakingUntil >= 0 ? "waking" : "asleep") : "online";
+	}
+	
+	/**
+	 * Start waking up, if asleep.
+	 * @return the state
+	 */
+	public synchronized String wakeUp(long now) {
+		update(now);
+		if (asleep && wakingUntil < 0) {
+			wakingUntil = now + simulator.randomWakeUpDuration(random);
+		}
+		return getState(now);
+	}
+	
+	/**
+	 * An API request (other than the vehicles list) keeps the vehicle awake.
+	 * @return false if the vehicle is asleep, and thus cannot be reached
+	 */
+	public synchronized boolean touch(long now) {
+		update(now);
+		if (asleep) {
+			return false;
+		}
+		lastActivity = now;
+		return true;
+	}
+	
+	/**
+	 * Plug in the charge cable, e.g. for testing.
+	 */
+	public synchronized void plugIn(long now) {
+		update(now);
+		pluggedIn = true;
+		chargingStopped = false;
+	}
+	
+	public synchronized double getBatteryLevel(long now) {
+		update(now);
+		return batteryLevel;
+	}
+	
+	public synchronized boolean isDriving(long now) {
+		update(now);
+		return driving;
+	}
+	
+	/**
+	 * Execute a command
+	 * @return the reason if the command failed, null if it succeeded
+	 */
+	public synchronized String command(long now, String command, JsonObject body) {
+		update(now);
+		switch (command) {
+			case "charge_start": 
+				if (!pluggedIn) return "disconnected";
+				if (batteryLevel >= chargeLimit) return "complete";
+				if (!chargingStopped) return "is_charging";
+				chargingStopped = false; 
+				return null;
+			case "charge_stop": 
+				if (!isCharging()) return "not_charging";
+				chargingStopped = true; 
+				return null;
+			case "set_charge_limit": 
+				int percent = body.get("percent").getAsInt();
+				if (percent == chargeLimit) return "already_set";
+				chargeLimit = percent;
+				return null;
+			case "auto_conditioning_start": climateOn = true; return null;
+			case "auto_conditioning_stop": climateOn = false; return null;
+			case "set_temps": 
+				driverTemp = body.get("driver_temp").getAsDouble(); 
+				passengerTemp = body.get("passenger_temp").getAsDouble(); 
+				return null;
+			case "door_lock": locked = true; return null;
+			case "door_unlock": locked = false; return null;
+			case "set_sentry_mode": sentryMode = body.get("on").getAsBoolean(); return null;
+			case "flash_lights": 
+			case "honk_horn": 
+			case "set_preconditioning_max": 
+			case "window_control": 
+			case "sun_roof_control": 
+			case "remote_seat_heater_request": 
+			case "remote_steering_wheel_heater_request": 
+				return null;
+			default: 
+				return "not_supported";
+		}
+	}
+	
+	/*
+	 * The entry in the vehicles list
+	 */
+	synchronized String vehicleJson(long now) {
+		return "{\"id\":" + id 
+		     + ",\"vehicle_id\":" + vehicleId 
+		     + ",\"vin\":\"" + vin + "\"" 
+		     + ",\"display_name\":\"" + displayName + "\"" 
+		     + ",\"option_codes\":\"AD15,MDL3,PBSB,RENA,BT37\""
+		     + ",\"color\":null"
+		     + ",\"access_type\":\"OWNER\""
+		     + ",\"state\":\"" + getState(now) + "\"" 
+		     + ",\"in_service\":false"
+		     + ",\"id_s\":\"" + id + "\""
+		     + ",\"calendar_enabled\":true"
+		     + ",\"api_version\":13"
+		     + "}";
+	}
+	
+	/* */
+	synchronized String chargeStateJson(long now) {
+		update(now);
+		boolean charging = isCharging();
+		return String.format(Locale.US, "{\"battery_level\":%d,\"battery_range\":%.2f,\"charge_limit_soc\":%d,\"charging_state\":\"%s\",\"charge_port_door_open\":%s,\"charger_power\":%d,\"charge_rate\":%.1f,\"timestamp\":%d}"
+				, (int)batteryLevel, batteryLevel * 2.6, chargeLimit, chargingState(), pluggedIn, charging ? 11 : 0, charging ? simulator.getChargeRatePerHour() * 2.6 : 0.0, simulator.currentTimeMillis());
+	}
+	
+	/* */
+	synchronized String climateStateJson(long now) {
+		update(now);
+		return String.format(Locale.US, "{\"driver_temp_setting\":%.1f,\"passenger_temp_setting\":%.1f,\"inside_temp\":%.1f,\"outside_temp\":%.1f,\"is_climate_on\":%s,\"is_auto_conditioning_on\":%s,\"is_rear_defroster_on\":false,\"timestamp\":%d}"
+				, driverTemp, passengerTemp, climateOn ? driverTemp : 15.0, 12.0, climateOn, climateOn, simulator.currentTimeMillis());
+	}
+	
+	/* */
+	synchronized String driveStateJson(long now) {
+		update(now);
+		return String.format(Locale.US, "{\"latitude\":%.6f,\"longitude\":%.6f,\"heading\":%d,\"shift_state\":\"%s\",\"speed\":%s,\"power\":%d,\"gps_as_of\":%d,\"timestamp\":%d}"
+				, latitude, longitude, heading, driving ? "D" : "P", driving ? String.valueOf(SPEED) : "null", driving ? 15 : 0, simulator.currentTimeMillis() / 1000, simulator.currentTimeMillis());
+	}
+	
+	/* */
+	synchronized String vehicleStateJson(long now) {
+		update(now);
+		return String.format(Locale.US, "{\"locked\":%s,\"odometer\":%.6f,\"sentry_mode\":%s,\"vehicle_name\":\"%s\",\"timestamp\":%d}"
+				, locked, odometer, sentryMode, displayName, simulator.currentTimeMillis());
+	}
+	
+	/* */
+	synchronized String guiSettingsJson(long now) {
+		return "{\"gui_24_hour_time\":true,\"gui_charge_rate_units\":\"km/hr\",\"gui_distance_units\":\"km/hr\",\"gui_range_display\":\"Rated\",\"gui_temperature_units\":\"C\",\"timestamp\":" + simulator.currentTimeMillis() + "}";
+	}
+	
+	/* */
+	synchronized String vehicleDataJson(long now) {
+		String vehicleJson = vehicleJson(now);
+		return vehicleJson.substring(0, vehicleJson.length() - 1)
+			 + ",\"charge_state\":" + chargeStateJson(now)
+			 + ",\"climate_state\":" + climateStateJson(now)
+			 + ",\"drive_state\":" + driveStateJson(now)
+			 + ",\"gui_settings\":" + guiSettingsJson(now)
+			 + ",\"vehicle_state\":" + vehicleStateJson(now)
+			 + "}";
+	}
+	
+	@Override
+	public String toString() {
+		return super.toString()
+			 + ", id=" + id
+		     + ", vin=" + vin;
+	}
+}
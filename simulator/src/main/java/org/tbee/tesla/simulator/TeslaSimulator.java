@@ -0,0 +1,617 @@
+package org.tbee.tesla.simulator;
+
+/*-
+ * #%L
+ * TeslaAPI-simulator
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local, stateful stand-in for the owner API and the auth server, for integration and load tests that should not touch Tesla.
+ * 
+ * - It serves the endpoints that TeslaAPI uses: the vehicles list, wake_up, data_request/*, vehicle_data, command/* and the token endpoints of the authorization code login and the token refresh.
+ * - The vehicles are stateful: they fall asleep when left alone (and then answer HTTP 408), take a while to wake up, drive and park, and charge when the battery gets low, see SimulatedVehicle.
+ * - The tokens expire, after which the owner API answers HTTP 401 until the tokens are refreshed.
+ * - Time can be sped up, so a day of driving and charging takes minutes.
+ * - The state of a vehicle is computed when it is accessed, and responses are delayed on a scheduler instead of a sleeping thread, so one simulator can serve 100k vehicles.
+ * 
+ * It runs in-process, or standalone using the main method.
+ * 
+ * Example usage:
+ * 		try (
+ * 			TeslaSimulator teslaSimulator = new TeslaSimulator();
+ * 			TeslaTransport teslaTransport = new TeslaTransport(teslaSimulator.getUrlBase(), teslaSimulator.getAuthUrlBase());
+ * 			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+ * 		) {
+ * 			SimulatedAccount simulatedAccount = teslaSimulator.createAccount(2);
+ * 			teslaAPI.login(simulatedAccount.getAuthorizationCode());
+ * 			List<Vehicle> vehicles = teslaAPI.getVehicles();
+ * 		}
+ */
+public class TeslaSimulator implements AutoCloseable {
+	
+	static final long ID_BASE = 10_000_000_000_000_000L;
+	static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+	private final HttpServer httpServer;
+	private final ExecutorService executorService;
+	private final ScheduledExecutorService scheduler;
+	private final LongSupplier nanoClock;
+	private final long startEpochMillis = System.currentTimeMillis();
+	
+	// State
+	private final List<SimulatedAccount> accounts = Collections.synchronizedList(new ArrayList<>());
+	private final Map<Long, SimulatedVehicle> vehicles = new ConcurrentHashMap<>();
+	private final Map<String, Grant> ssoTokens = new ConcurrentHashMap<>();
+	private final Map<String, Grant> refreshTokens = new ConcurrentHashMap<>();
+	private final Map<String, Grant> ownerTokens = new ConcurrentHashMap<>();
+	private final Map<String, SimulatedAccount> authorizationCodes = new ConcurrentHashMap<>();
+	private final AtomicLong vehicleSequence = new AtomicLong(0);
+	private final AtomicInteger requestCount = new AtomicInteger(0);
+	private volatile Clock clock; // replaced, under the lock of this, when the time scale changes
+	
+	// Settings
+	private volatile long tokenLifetimeInNanos = Duration.ofHours(8).toNanos();
+	private volatile long latencyInNanos = 0;
+	private volatile long parkDurationInNanos = Duration.ofHours(4).toNanos();
+	private volatile long driveDurationInNanos = Duration.ofMinutes(30).toNanos();
+	private volatile long wakeUpDurationInNanos = Duration.ofSeconds(20).toNanos();
+	private volatile long fallAsleepAfterInNanos = Duration.ofMinutes(15).toNanos();
+	private volatile double chargeRatePerHour = 15.0;
+	
+	/**
+	 * Turn on TCP_NODELAY in the JDK's HTTP server, unless the sun.net.httpserver.nodelay system property was already set.
+	 * The HTTP server writes the headers and the body of a response separately, so with Nagle's algorithm on the body waits for the client's delayed ACK, which adds tens of milliseconds to every response that has a body.
+	 * This is a JVM wide setting that is read when the first HTTP server is created, so it must be called before any simulator (or other HttpServer) is started.
+	 */
+	public static void enableTcpNoDelay() {
+		if (System.getProperty(NODELAY_PROPERTY) == null) {
+			System.setProperty(NODELAY_PROPERTY, "true");
+		}
+	}
+	
+	/**
+	 * Start a simulator on a free port
+	 */
+	public TeslaSimulator() throws IOException {
+		this(0);
+	}
+	
+	/**
+	 * @param port 0 for a free port
+	 */
+	public TeslaSimulator(int port) throws IOException {
+		this(port, System::nanoTime);
+	}
+	
+	/*
+	 * @param nanoClock for testing, so time can be moved forward without waiting
+	 */
+	TeslaSimulator(int port, LongSupplier nanoClock) throws IOException {
+		this.nanoClock = nanoClock;
+		this.clock = new Clock(nanoClock.getAsLong(), 0, 1.0);
+		
+		AtomicInteger threadCnt = new AtomicInteger(0);
+		executorService = Executors.newFixedThreadPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()), (runnable) -> {
+			Thread thread = new Thread(runnable, "TeslaSimulator " + threadCnt.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler = Executors.newScheduledThreadPool(2, (runnable) -> {
+			Thread thread = new Thread(runnable, "TeslaSimulator Latency " + threadCnt.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1000);
+		httpServer.createContext("/", this::handle);
+		httpServer.setExecutor(executorService);
+		httpServer.start();
+	}
+	
+	/**
+	 * @return the url base to construct a TeslaTransport with
+	 */
+	public String getUrlBase() {
+		return "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/";
+	}
+	
+	/**
+	 * @return the auth url base to construct a TeslaTransport with
+	 */
+	public String getAuthUrlBase() {
+		return getUrlBase() + "auth/";
+	}
+	
+	/**
+	 * @return the number of requests received
+	 */
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+	
+	/**
+	 * How much faster than real time the simulated time runs, e.g. 60.0 makes a simulated hour take a minute. Default is 1.0.
+	 * Changing the scale does not change the simulated time that has already passed.
+	 */
+	public synchronized void setTimeScale(double timeScale) {
+		if (timeScale <= 0.0) {
+            throw new IllegalArgumentException("Time scale must be positive");
+		}
+		long nanos = nanoClock.getAsLong();
+		clock = new Clock(nanos, clock.simulatedNanos(nanos), timeScale);
+	}
+	public double getTimeScale() {
+		return clock.timeScale;
+	}
+	
+	/**
+	 * How long (in simulated time) an access token is valid, default is 8 hours.
+	 */
+	public void setTokenLifetime(Duration duration) {
+		this.tokenLifetimeInNanos = duration.toNanos();
+	}
+	
+	/**
+	 * The average time (in real time) a response takes, the actual latency varies between half and one and a half times this. Default is none.
+	 */
+	public void setLatency(Duration duration) {
+		this.latencyInNanos = duration.toNanos();
+	}
+	
+	/**
+	 * The average time (in simulated time) a vehicle is parked between drives, default is 4 hours.
+	 */
+	public void setParkDuration(Duration duration) {
+		this.parkDurationInNanos = duration.toNanos();
+	}
+	
+	/**
+	 * The average time (in simulated time) a drive takes, default is 30 minutes.
+	 */
+	public void setDriveDuration(Duration duration) {
+		this.driveDurationInNanos = duration.toNanos();
+	}
+	
+	/**
+	 * The average time (in simulated time) a vehicle takes to wake up, default is 20 seconds.
+	 */
+	public void setWakeUpDuration(Duration duration) {
+		this.wakeUpDurationInNanos = duration.toNanos();
+	}
+	
+	/**
+	 * The time (in simulated time) after which a parked vehicle that is not charging falls asleep, if there are no requests for it. Default is 15 minutes.
+	 */
+	public void setFallAsleepAfter(Duration duration) {
+		this.fallAsleepAfterInNanos = duration.toNanos();
+	}
+	
+	/**
+	 * How many percent per hour (in simulated time) the battery charges, default is 15.
+	 */
+	public void setChargeRatePerHour(double percent) {
+		this.chargeRatePerHour = percent;
+	}
+	
+	/* */
+	double getChargeRatePerHour() {
+		return chargeRatePerHour;
+	}
+	
+	/* */
+	long getFallAsleepAfterInNanos() {
+		return fallAsleepAfterInNanos;
+	}
+	
+	/* between half and one and a half times the average */
+	long randomParkDuration(Random random) {
+		return vary(parkDurationInNanos, random);
+	}
+	long randomDriveDuration(Random random) {
+		return vary(driveDurationInNanos, random);
+	}
+	long randomWakeUpDuration(Random random) {
+		return vary(wakeUpDurationInNanos, random);
+	}
+	static private long vary(long average, Random random) {
+		return Math.max(1, (long)(average * (0.5 + random.nextDouble())));
+	}
+	
+	/**
+	 * @return the simulated time in nanoseconds since the start of the simulator
+	 */
+	public long now() {
+		return clock.simulatedNanos(nanoClock.getAsLong());
+	}
+	
+	/* the simulated wall clock, as reported in the timestamps */
+	long currentTimeMillis() {
+		return startEpochMillis + now() / 1_000_000;
+	}
+	
+	/**
+	 * Create an account with the specified number of vehicles
+	 */
+	public SimulatedAccount createAccount(int numberOfVehicles) {
+		SimulatedAccount account = new SimulatedAccount("account" + accounts.size() + "@simulator.local");
+		long now = now();
+		for (int i = 0; i < numberOfVehicles; i++) {
+			SimulatedVehicle vehicle = new SimulatedVehicle(this, account, ID_BASE + vehicleSequence.incrementAndGet(), now);
+			account.addVehicle(vehicle);
+			vehicles.put(vehicle.id, vehicle);
+		}
+		accounts.add(account);
+		authorizationCodes.put(account.getAuthorizationCode(), account);
+		return account;
+	}
+	
+	/**
+	 * Create a number of accounts with the same number of vehicles
+	 */
+	public List<SimulatedAccount> createAccounts(int numberOfAccounts, int numberOfVehiclesPerAccount) {
+		List<SimulatedAccount> created = new ArrayList<>(numberOfAccounts);
+		for (int i = 0; i < numberOfAccounts; i++) {
+			created.add(createAccount(numberOfVehiclesPerAccount));
+		}
+		return created;
+	}
+	
+	/**
+	 * 
+	 */
+	public List<SimulatedAccount> getAccounts() {
+		return Collections.unmodifiableList(accounts);
+	}
+	
+	/**
+	 * @param id the id as used in the API
+	 * @return null if not found
+	 */
+	public SimulatedVehicle getVehicle(long id) {
+		return vehicles.get(id);
+	}
+	
+	/**
+	 * 
+	 */
+	public Collection<SimulatedVehicle> getVehicles() {
+		return Collections.unmodifiableCollection(vehicles.values());
+	}
+	
+	/**
+	 * Invalidate all owner API access tokens, so the next requests get HTTP 401, as happens when Tesla revokes tokens.
+	 */
+	public void revokeAccessTokens() {
+		ownerTokens.clear();
+	}
+	
+	/* */
+	private void handle(HttpExchange exchange) throws IOException {
+		requestCount.incrementAndGet();
+		Reply reply;
+		try {
+			String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			reply = route(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), exchange.getRequestHeaders().getFirst("Authorization"), body);
+		}
+		catch (RuntimeException e) {
+			reply = new Reply(500, "{\"response\":null,\"error\":\"" + e.getClass().getSimpleName() + "\",\"error_description\":\"\"}");
+		}
+		
+		// Delay the response without blocking a thread
+		long latencyInNanos = this.latencyInNanos;
+		if (latencyInNanos <= 0) {
+			send(exchange, reply);
+			return;
+		}
+		Reply delayedReply = reply;
+		scheduler.schedule(() -> send(exchange, delayedReply), vary(latencyInNanos, ThreadLocalRandom.current()), TimeUnit.NANOSECONDS);
+	}
+	
+	/* */
+	private void send(HttpExchange exchange, Reply reply) {
+		try (
+			OutputStream outputStream = exchange.getResponseBody();
+		) {
+			byte[] bytes = reply.content.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(reply.status, bytes.length);
+			outputStream.write(bytes);
+		}
+		catch (IOException e) {
+			// the client went away, nothing to do
+		}
+		finally {
+			exchange.close();
+		}
+	}
+	
+	/*
+	 * @param path e.g. /api/1/vehicles/123/data_request/charge_state
+	 */
+	Reply route(String method, String path, String authorization, String body) {
+		String[] segments = (path.startsWith("/") ? path.substring(1) : path).split("/");
+		
+		// Auth server
+		if (segments.length == 4 && "auth".equals(segments[0]) && "oauth2".equals(segments[1]) && "token".equals(segments[3]) && "POST".equals(method)) {
+			return authToken(parse(body));
+		}
+		if (segments.length == 2 && "oauth".equals(segments[0]) && "token".equals(segments[1]) && "POST".equals(method)) {
+			return exchangeToken(authorization);
+		}
+		
+		// Owner API
+		if (segments.length < 3 || !"api".equals(segments[0]) || !"1".equals(segments[1]) || !"vehicles".equals(segments[2])) {
+			return error(404, "not_found");
+		}
+		SimulatedAccount account = authenticate(authorization);
+		if (account == null) {
+			return error(401, "invalid bearer token");
+		}
+		long now = now();
+		if (segments.length == 3) {
+			return vehicles(account, now);
+		}
+		SimulatedVehicle vehicle = vehicle(account, segments[3]);
+		if (vehicle == null) {
+			return error(404, "not_found");
+		}
+		if (segments.length == 4) {
+			return new Reply(200, "{\"response\":" + vehicle.vehicleJson(now) + "}");
+		}
+		String action = segments[4];
+		if ("wake_up".equals(action) && "POST".equals(method)) {
+			vehicle.wakeUp(now);
+			return new Reply(200, "{\"response\":" + vehicle.vehicleJson(now) + "}");
+		}
+		if (!vehicle.touch(now)) {
+			return error(408, "vehicle unavailable: {:error=>\\\"vehicle unavailable:\\\"}");
+		}
+		if ("vehicle_data".equals(action) && segments.length == 5) {
+			return new Reply(200, "{\"response\":" + vehicle.vehicleDataJson(now) + "}");
+		}
+		if ("data_request".equals(action) && segments.length == 6) {
+			switch (segments[5]) {
+				case "charge_state": return new Reply(200, "{\"response\":" + vehicle.chargeStateJson(now) + "}");
+				case "climate_state": return new Reply(200, "{\"response\":" + vehicle.climateStateJson(now) + "}");
+				case "drive_state": return new Reply(200, "{\"response\":" + vehicle.driveStateJson(now) + "}");
+				case "gui_settings": return new Reply(200, "{\"response\":" + vehicle.guiSettingsJson(now) + "}");
+				case "vehicle_state": return new Reply(200, "{\"response\":" + vehicle.vehicleStateJson(now) + "}");
+				default: return error(404, "not_found");
+			}
+		}
+		if ("command".equals(action) && segments.length == 6 && "POST".equals(method)) {
+			String reason = vehicle.command(now, segments[5], parse(body));
+			return new Reply(200, "{\"response\":{\"reason\":\"" + (reason == null ? "" : reason) + "\",\"result\":" + (reason == null) + "}}");
+		}
+		return error(404, "not_found");
+	}
+	
+	/* */
+	private Reply vehicles(SimulatedAccount account, long now) {
+		List<SimulatedVehicle> accountVehicles = account.getVehicles();
+		StringBuilder stringBuilder = new StringBuilder(accountVehicles.size() * 350 + 40);
+		stringBuilder.append("{\"response\":[");
+		for (int i = 0; i < accountVehicles.size(); i++) {
+			stringBuilder.append(i == 0 ? "" : ",").append(accountVehicles.get(i).vehicleJson(now));
+		}
+		stringBuilder.append("],\"count\":").append(accountVehicles.size()).append("}");
+		return new Reply(200, stringBuilder.toString());
+	}
+	
+	/* */
+	private SimulatedVehicle vehicle(SimulatedAccount account, String id) {
+		try {
+			SimulatedVehicle vehicle = vehicles.get(Long.parseLong(id));
+			return (vehicle == null || vehicle.account != account ? null : vehicle);
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	/*
+	 * auth/oauth2/v3/token (authorization_code) and auth/oauth2/v1/token (refresh_token)
+	 */
+	private Reply authToken(JsonObject request) {
+		String grantType = string(request, "grant_type");
+		if ("authorization_code".equals(grantType)) {
+			SimulatedAccount account = authorizationCodes.get(string(request, "code"));
+			if (account == null) {
+				return authError("invalid_grant");
+			}
+			String refreshToken = "refresh-" + UUID.randomUUID();
+			refreshTokens.put(refreshToken, new Grant(account, Long.MAX_VALUE));
+			return tokens(ssoTokens, account, refreshToken);
+		}
+		if ("refresh_token".equals(grantType)) {
+			Grant grant = refreshTokens.get(string(request, "refresh_token"));
+			if (grant == null) {
+				return authError("invalid_grant");
+			}
+			return tokens(ownerTokens, grant.account, null);
+		}
+		return authError("unsupported_grant_type");
+	}
+	
+	/*
+	 * oauth/token: exchange an SSO access token for an owner API access token
+	 */
+	private Reply exchangeToken(String authorization) {
+		Grant grant = lookup(ssoTokens, authorization);
+		if (grant == null) {
+			return error(401, "invalid bearer token");
+		}
+		return tokens(ownerTokens, grant.account, null);
+	}
+	
+	/* */
+	private Reply tokens(Map<String, Grant> grants, SimulatedAccount account, String refreshToken) {
+		long tokenLifetimeInNanos = this.tokenLifetimeInNanos;
+		String accessToken = "access-" + UUID.randomUUID();
+		grants.put(accessToken, new Grant(account, now() + tokenLifetimeInNanos));
+		return new Reply(200, "{\"access_token\":\"" + accessToken + "\""
+				+ (refreshToken == null ? "" : ",\"refresh_token\":\"" + refreshToken + "\"")
+				+ ",\"token_type\":\"bearer\""
+				+ ",\"expires_in\":" + TimeUnit.NANOSECONDS.toSeconds(tokenLifetimeInNanos)
+				+ ",\"created_at\":" + (currentTimeMillis() / 1000)
+				+ "}");
+	}
+	
+	/* */
+	private SimulatedAccount authenticate(String authorization) {
+		Grant grant = lookup(ownerTokens, authorization);
+		return (grant == null ? null : grant.account);
+	}
+	
+	/* */
+	private Grant lookup(Map<String, Grant> grants, String authorization) {
+		if (authorization == null || !authorization.startsWith("Bearer ")) {
+			return null;
+		}
+		String token = authorization.substring("Bearer ".length());
+		Grant grant = grants.get(token);
+		if (grant != null && now() >= grant.expiresAt) {
+			grants.remove(token);
+			return null;
+		}
+		return grant;
+	}
+	
+	/* */
+	static private JsonObject parse(String body) {
+		if (body == null || body.isBlank()) {
+			return new JsonObject();
+		}
+		JsonElement jsonElement = JsonParser.parseString(body);
+		return (jsonElement.isJsonObject() ? jsonElement.getAsJsonObject() : new JsonObject());
+	}
+	
+	/* */
+	static private String string(JsonObject jsonObject, String name) {
+		JsonElement jsonElement = jsonObject.get(name);
+		return (jsonElement == null || jsonElement.isJsonNull() ? null : jsonElement.getAsString());
+	}
+	
+	/* the owner API error format */
+	static private Reply error(int status, String error) {
+		return new Reply(status, "{\"response\":null,\"error\":\"" + error + "\",\"error_description\":\"\"}");
+	}
+	
+	/* the auth server error format */
+	static private Reply authError(String error) {
+		return new Reply(401, "{\"error\":{\"message\":\"" + error + "\"}}");
+	}
+	
+	/* */
+	static final class Reply {
+		final int status;
+		final String content;
+		
+		Reply(int status, String content) {
+			this.status = status;
+			this.content = content;
+		}
+	}
+	
+	/*
+	 * The simulated time since the last change of the time scale, so now() needs no lock
+	 */
+	static private final class Clock {
+		final long baseNanos; // real time
+		final long baseSimulatedNanos;
+		final double timeScale;
+		
+		Clock(long baseNanos, long baseSimulatedNanos, double timeScale) {
+			this.baseNanos = baseNanos;
+			this.baseSimulatedNanos = baseSimulatedNanos;
+			this.timeScale = timeScale;
+		}
+		
+		long simulatedNanos(long nanos) {
+			return baseSimulatedNanos + (long)((nanos - baseNanos) * timeScale);
+		}
+	}
+	
+	/* */
+	static private final class Grant {
+		final SimulatedAccount account;
+		final long expiresAt;
+		
+		Grant(SimulatedAccount account, long expiresAt) {
+			this.account = account;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	@Override
+	public void close() {
+		httpServer.stop(0);
+		executorService.shutdownNow();
+		scheduler.shutdownNow();
+	}
+	
+	/**
+	 * Run standalone
+	 * Usage: TeslaSimulator [port] [accounts] [vehicles per account] [time scale]
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		int numberOfAccounts = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int numberOfVehiclesPerAccount = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		enableTcpNoDelay();
+		TeslaSimulator teslaSimulator = new TeslaSimulator(port);
+		if (args.length > 3) {
+			teslaSimulator.setTimeScale(Double.parseDouble(args[3]));
+		}
+		List<SimulatedAccount> simulatedAccounts = teslaSimulator.createAccounts(numberOfAccounts, numberOfVehiclesPerAccount);
+		System.out.println("Owner API: " + teslaSimulator.getUrlBase());
+		System.out.println("Auth server: " + teslaSimulator.getAuthUrlBase());
+		for (int i = 0; i < Math.min(10, simulatedAccounts.size()); i++) {
+			System.out.println("Authorization code of " + simulatedAccounts.get(i).email + ": " + simulatedAccounts.get(i).getAuthorizationCode());
+		}
+		// the HTTP server thread keeps the JVM alive
+	}
+}
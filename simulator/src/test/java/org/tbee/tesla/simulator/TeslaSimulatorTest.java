@@ -0,0 +1,321 @@
+package org.tbee.tesla.simulator;
+
+/*-
+ * #%L
+ * TeslaAPI-simulator
+ * %%
+ * Copyright (C) 2020 - 2021 Tom Eugelink
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tbee.tesla.TeslaAPI;
+import org.tbee.tesla.TeslaTransport;
+import org.tbee.tesla.dto.ChargeState;
+import org.tbee.tesla.dto.Vehicle;
+
+public class TeslaSimulatorTest {
+	
+	static final long MINUTE = Duration.ofMinutes(1).toNanos();
+
+	/**
+	 * 
+	 */
+	@Test
+	public void loginTest() throws Exception {
+		try (
+			TeslaSimulator teslaSimulator = new TeslaSimulator();
+			TeslaTransport teslaTransport = new TeslaTransport(teslaSimulator.getUrlBase(), teslaSimulator.getAuthUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaSimulator.createAccount(1);
+			SimulatedAccount simulatedAccount = teslaSimulator.createAccount(2);
+			
+			// WHEN
+			teslaAPI.login(simulatedAccount.getAuthorizationCode());
+			List<Vehicle> vehicles = teslaAPI.getVehicles();
+			
+			// THEN only the vehicles of the account are visible
+			Assert.assertEquals(2, vehicles.size());
+			Assert.assertEquals("" + simulatedAccount.getVehicles().get(0).id, vehicles.get(0).id);
+			Assert.assertEquals(simulatedAccount.getVehicles().get(1).vin, vehicles.get(1).vin);
+			Assert.assertTrue(vehicles.get(0).isOnline());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void unknownCodeTest() throws Exception {
+		try (
+			TeslaSimulator teslaSimulator = new TeslaSimulator();
+			TeslaTransport teslaTransport = new TeslaTransport(teslaSimulator.getUrlBase(), teslaSimulator.getAuthUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			teslaSimulator.createAccount(1);
+			
+			// WHEN
+			try {
+				teslaAPI.login("unknown");
+				Assert.fail("login should fail");
+			}
+			// THEN
+			catch (RuntimeException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void sleepAndWakeTest() throws Exception {
+		AtomicLong clock = new AtomicLong(0);
+		try (
+			TeslaSimulator teslaSimulator = new TeslaSimulator(0, clock::get);
+			TeslaTransport teslaTransport = new TeslaTransport(teslaSimulator.getUrlBase(), teslaSimulator.getAuthUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN a vehicle that is left alone for longer than it takes to fall asleep
+			teslaSimulator.setParkDuration(Duration.ofDays(1));
+			SimulatedAccount simulatedAccount = teslaSimulator.createAccount(1);
+			teslaAPI.login(simulatedAccount.getAuthorizationCode());
+			String vehicleId = teslaAPI.getVehicles().get(0).id;
+			clock.addAndGet(20 * MINUTE);
+			Assert.assertTrue(teslaAPI.getVehicles().get(0).isAsleep());
+			Assert.assertNull(teslaAPI.getChargeState(vehicleId)); // HTTP 408
+			
+			// WHEN
+			teslaAPI.wakeUp(vehicleId);
+			
+			// THEN it takes a while
+			Assert.assertTrue(teslaAPI.getVehicles().get(0).isWaking());
+			clock.addAndGet(1 * MINUTE);
+			Assert.assertTrue(teslaAPI.getVehicles().get(0).isOnline());
+			Assert.assertNotNull(teslaAPI.getChargeState(vehicleId));
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void driveTest() throws Exception {
+		AtomicLong clock = new AtomicLong(0);
+		try (
+			TeslaSimulator teslaSimulator = new TeslaSimulator(0, clock::get);
+			TeslaTransport teslaTransport = new TeslaTransport(teslaSimulator.getUrlBase(), teslaSimulator.getAuthUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN a vehicle that will drive off within 90 seconds, for at least 30 minutes
+			teslaSimulator.setParkDuration(Duration.ofMinutes(1));
+			teslaSimulator.setDriveDuration(Duration.ofHours(1));
+			SimulatedAccount simulatedAccount = teslaSimulator.createAccount(1);
+			teslaAPI.login(simulatedAccount.getAuthorizationCode());
+			String vehicleId = teslaAPI.getVehicles().get(0).id;
+			Assert.assertEquals("P", teslaAPI.getDriveState(vehicleId).shiftState);
+			int batteryLevel = teslaAPI.getChargeState(vehicleId).batteryLevel;
+			
+			// WHEN
+			clock.addAndGet(20 * MINUTE);
+			
+			// THEN
+			Assert.assertEquals("D", teslaAPI.getDriveState(vehicleId).shiftState);
+			Assert.assertTrue(teslaAPI.getChargeState(vehicleId).batteryLevel < batteryLevel);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void chargeTest() throws Exception {
+		AtomicLong clock = new AtomicLong(0);
+		try (
+			TeslaSimulator teslaSimulator = new TeslaSimulator(0, clock::get);
+			TeslaTransport teslaTransport = new TeslaTransport(teslaSimulator.getUrlBase(), teslaSimulator.getAuthUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN a plugged in vehicle
+			teslaSimulator.setParkDuration(Duration.ofDays(1));
+			SimulatedAccount simulatedAccount = teslaSimulator.createAccount(1);
+			teslaAPI.login(simulatedAccount.getAuthorizationCode());
+			String vehicleId = teslaAPI.getVehicles().get(0).id;
+			Assert.assertEquals("Disconnected", teslaAPI.getChargeState(vehicleId).chargingState);
+			simulatedAccount.getVehicles().get(0).plugIn(teslaSimulator.now());
+			teslaAPI.setChargeLimit(vehicleId, 100);
+			int batteryLevel = teslaAPI.getChargeState(vehicleId).batteryLevel;
+			
+			// WHEN half an hour passes
+			clock.addAndGet(30 * MINUTE);
+			
+			// THEN it charged, and did not fall asleep while doing so
+			ChargeState chargeState = teslaAPI.getChargeState(vehicleId);
+			Assert.assertEquals("Charging", chargeState.chargingState);
+			Assert.assertEquals(batteryLevel + 7, chargeState.batteryLevel.intValue()); // 15% per hour
+			
+			// WHEN it has been charged to the limit
+			clock.addAndGet(10 * 60 * MINUTE);
+			
+			// THEN
+			chargeState = teslaAPI.getChargeState(vehicleId);
+			Assert.assertEquals("Complete", chargeState.chargingState);
+			Assert.assertEquals(100, chargeState.batteryLevel.intValue());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void commandTest() throws Exception {
+		try (
+			TeslaSimulator teslaSimulator = new TeslaSimulator();
+			TeslaTransport teslaTransport = new TeslaTransport(teslaSimulator.getUrlBase(), teslaSimulator.getAuthUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN
+			SimulatedAccount simulatedAccount = teslaSimulator.createAccount(1);
+			teslaAPI.login(simulatedAccount.getAuthorizationCode());
+			String vehicleId = teslaAPI.getVehicles().get(0).id;
+			
+			// WHEN THEN
+			Assert.assertNull(teslaAPI.flashLights(vehicleId));
+			Assert.assertNull(teslaAPI.setSentryMode(vehicleId, true));
+			Assert.assertEquals("not_charging", teslaAPI.stopCharging(vehicleId));
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void tokenRefreshTest() throws Exception {
+		AtomicLong clock = new AtomicLong(0);
+		try (
+			TeslaSimulator teslaSimulator = new TeslaSimulator(0, clock::get);
+			TeslaTransport teslaTransport = new TeslaTransport(teslaSimulator.getUrlBase(), teslaSimulator.getAuthUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN the access token has expired
+			teslaSimulator.setTokenLifetime(Duration.ofHours(1));
+			SimulatedAccount simulatedAccount = teslaSimulator.createAccount(1);
+			teslaAPI.login(simulatedAccount.getAuthorizationCode());
+			String accessToken = teslaAPI.getTokens().accessToken;
+			clock.addAndGet(2 * 60 * MINUTE);
+			
+			// WHEN
+			List<Vehicle> vehicles = teslaAPI.getVehicles();
+			
+			// THEN the HTTP 401 made the API refresh the tokens at the simulated auth server
+			Assert.assertEquals(1, vehicles.size());
+			Assert.assertNotEquals(accessToken, teslaAPI.getTokens().accessToken);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void reproducibleDriveTest() throws Exception {
+		// GIVEN two simulators with vehicles that drive off within 90 seconds, for at least 30 minutes
+		AtomicLong clock = new AtomicLong(0);
+		try (
+			TeslaSimulator teslaSimulator1 = new TeslaSimulator(0, clock::get);
+			TeslaSimulator teslaSimulator2 = new TeslaSimulator(0, clock::get);
+		) {
+			SimulatedVehicle simulatedVehicle1 = createDrivingVehicle(teslaSimulator1);
+			SimulatedVehicle simulatedVehicle2 = createDrivingVehicle(teslaSimulator2);
+			
+			// WHEN one vehicle is polled every minute, and the other only at the end
+			for (int i = 0; i < 30; i++) {
+				clock.addAndGet(MINUTE);
+				simulatedVehicle1.driveStateJson(teslaSimulator1.now());
+			}
+			
+			// THEN they drove the same course
+			Assert.assertTrue(simulatedVehicle1.isDriving(teslaSimulator1.now()));
+			Assert.assertEquals(position(simulatedVehicle1.driveStateJson(teslaSimulator1.now())), position(simulatedVehicle2.driveStateJson(teslaSimulator2.now())));
+		}
+	}
+	
+	/* */
+	static private SimulatedVehicle createDrivingVehicle(TeslaSimulator teslaSimulator) {
+		teslaSimulator.setParkDuration(Duration.ofMinutes(1));
+		teslaSimulator.setDriveDuration(Duration.ofHours(1));
+		return teslaSimulator.createAccount(1).getVehicles().get(0);
+	}
+	
+	/* the latitude, longitude and heading of a drive state */
+	static private String position(String driveStateJson) {
+		return driveStateJson.replaceFirst(",\"shift_state\".*", "");
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void timeScaleTest() throws Exception {
+		AtomicLong clock = new AtomicLong(0);
+		try (
+			TeslaSimulator teslaSimulator = new TeslaSimulator(0, clock::get);
+		) {
+			// GIVEN
+			clock.addAndGet(MINUTE);
+			
+			// WHEN the time is sped up halfway
+			teslaSimulator.setTimeScale(60.0);
+			clock.addAndGet(MINUTE);
+			
+			// THEN the time that already passed is not scaled
+			Assert.assertEquals(61 * MINUTE, teslaSimulator.now());
+			Assert.assertEquals(60.0, teslaSimulator.getTimeScale(), 0.0);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void scaleTest() throws Exception {
+		try (
+			TeslaSimulator teslaSimulator = new TeslaSimulator();
+			TeslaTransport teslaTransport = new TeslaTransport(teslaSimulator.getUrlBase(), teslaSimulator.getAuthUrlBase());
+			TeslaAPI teslaAPI = new TeslaAPI(teslaTransport);
+		) {
+			// GIVEN 100k vehicles
+			List<SimulatedAccount> simulatedAccounts = teslaSimulator.createAccounts(1000, 100);
+			
+			// WHEN
+			teslaAPI.login(simulatedAccounts.get(999).getAuthorizationCode());
+			List<Vehicle> vehicles = teslaAPI.getVehicles();
+			
+			// THEN
+			Assert.assertEquals(100_000, teslaSimulator.getVehicles().size());
+			Assert.assertEquals(100, vehicles.size());
+			Assert.assertNotNull(teslaAPI.getChargeState(vehicles.get(99).id));
+		}
+	}
+}